@@ -0,0 +1,217 @@
+package com.erfangc.sac.backend.redis;
+
+import com.erfangc.sac.core.backend.BackendChange;
+import com.erfangc.sac.core.backend.BackendChangeListener;
+import com.erfangc.sac.core.backend.ImmutableBackendChange;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {@link ChangeFeed} records the changes made through a {@link RedisBackend} in Redis, and delivers them to listeners of any instance
+ * sharing the server. Changes are numbered and appended to a capped list by a script (see changes.lua) run in the transaction of the
+ * mutation they describe, which also announces the sequence of the last change on {@link #CHANNEL}
+ * <p>
+ * Each listener is fed by a thread of its own, which reads the feed one page at a time from where the listener is at and waits for an
+ * announcement once it has caught up. Announcements only wake tailers up: should one be missed (ex: while the subscription is being
+ * re-established) the feed is read again after {@link #POLL_INTERVAL_MILLIS} anyway
+ */
+class ChangeFeed implements Closeable {
+
+    static final String CHANNEL = "SAC_CHANGES";
+    private static final int PAGE_SIZE = 500;
+    private static final long POLL_INTERVAL_MILLIS = 1_000;
+
+    private final RedisClient client;
+    private final ObjectMapper objectMapper;
+    private final long maximumLength;
+    /**
+     * Runs an operation of changes.lua
+     */
+    private final Function<String[], List<Object>> script;
+    private final Map<BackendChangeListener, Tailer> tailers = new ConcurrentHashMap<>();
+    /**
+     * Opened when the first listener is added
+     */
+    private StatefulRedisPubSubConnection<String, String> subscription;
+    private boolean closed;
+
+    ChangeFeed(RedisClient client, ObjectMapper objectMapper, RedisBackendOptions options, Function<String[], List<Object>> script) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.maximumLength = options.changeFeedLength();
+        this.script = script;
+    }
+
+    /**
+     * @return the arguments of the append operation of changes.lua for the given changes, which the backend runs in the transaction
+     * making them
+     */
+    String[] appendArgs(List<? extends BackendChange> changes) {
+        final String[] args = new String[changes.size() + 2];
+        args[0] = "append";
+        args[1] = Long.toString(maximumLength);
+        for (int i = 0; i < changes.size(); i++) {
+            try {
+                args[i + 2] = objectMapper.writeValueAsString(changes.get(i));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * @return the sequence of the last change appended to the feed, 0 if none was
+     */
+    long sequence() {
+        return (Long) script.apply(new String[]{"sequence"}).get(0);
+    }
+
+    synchronized void addListener(BackendChangeListener listener, long afterSequence) {
+        if (closed) {
+            throw new IllegalStateException("The backend is closed");
+        }
+        if (tailers.containsKey(listener)) {
+            throw new IllegalArgumentException("The listener is already registered");
+        }
+        if (subscription == null) {
+            subscription = client.connectPubSub();
+            subscription.addListener(new RedisPubSubAdapter<String, String>() {
+                @Override
+                public void message(String channel, String message) {
+                    tailers.values().forEach(Tailer::wakeUp);
+                }
+            });
+            subscription.sync().subscribe(CHANNEL);
+        }
+        final Tailer tailer = new Tailer(listener, afterSequence);
+        tailers.put(listener, tailer);
+        tailer.thread.start();
+    }
+
+    void removeListener(BackendChangeListener listener) {
+        final Tailer tailer = tailers.remove(listener);
+        if (tailer != null) {
+            tailer.stop();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        tailers.values().forEach(Tailer::stop);
+        for (Tailer tailer : tailers.values()) {
+            if (tailer.thread != Thread.currentThread()) {
+                try {
+                    tailer.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        tailers.clear();
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+
+    private List<BackendChange> read(long afterSequence, int count) {
+        final List<Object> reply = script.apply(new String[]{"read", Long.toString(afterSequence), Integer.toString(count)});
+        @SuppressWarnings("unchecked") final List<String> entries = (List<String>) reply.get(1);
+        final List<BackendChange> changes = new ArrayList<>(entries.size());
+        for (String entry : entries) {
+            final int space = entry.indexOf(' ');
+            try {
+                final ImmutableBackendChange change = objectMapper.readValue(entry.substring(space + 1), ImmutableBackendChange.class);
+                changes.add(change.withSequence(Long.parseLong(entry.substring(0, space))));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Feeds one listener from a thread of its own
+     */
+    private final class Tailer {
+        private final BackendChangeListener listener;
+        private final Semaphore wakeUps = new Semaphore(0);
+        private final Thread thread;
+        private volatile boolean running = true;
+        private long sequence;
+
+        private Tailer(BackendChangeListener listener, long afterSequence) {
+            this.listener = listener;
+            this.sequence = afterSequence;
+            thread = new Thread(this::run, "sac-change-feed");
+            thread.setDaemon(true);
+        }
+
+        private void wakeUp() {
+            wakeUps.release();
+        }
+
+        private void stop() {
+            running = false;
+            wakeUps.release();
+        }
+
+        private void run() {
+            while (running) {
+                // announcements made while reading are kept, so that changes appended in the meantime are not waited for
+                wakeUps.drainPermits();
+                boolean caughtUp;
+                try {
+                    final List<BackendChange> changes = read(sequence, PAGE_SIZE);
+                    for (BackendChange change : changes) {
+                        if (!running) {
+                            return;
+                        }
+                        deliver(change);
+                        sequence = change.sequence();
+                    }
+                    caughtUp = changes.size() < PAGE_SIZE;
+                } catch (RuntimeException e) {
+                    // the server may be unreachable for a while, the feed is read again once the poll interval elapsed
+                    report(e);
+                    caughtUp = true;
+                }
+                if (caughtUp) {
+                    try {
+                        wakeUps.tryAcquire(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void deliver(BackendChange change) {
+            try {
+                listener.onChange(change);
+            } catch (RuntimeException e) {
+                // the feed moves on, a listener failing on every delivery of a change would otherwise never see another one
+                report(e);
+            }
+        }
+
+        private void report(RuntimeException e) {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+}
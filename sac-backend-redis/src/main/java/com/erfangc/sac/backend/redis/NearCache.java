@@ -0,0 +1,126 @@
+package com.erfangc.sac.backend.redis;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+import java.io.Closeable;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link NearCache} holds values read from Redis keys on behalf of a {@link RedisBackend}, keyed by the Redis key they were read from
+ * <p>
+ * Coherence across processes relies on every writer announcing the keys it changed on {@link #CHANNEL}, each instance subscribes to it and
+ * drops the announced keys. Whenever the subscription is interrupted invalidations may have been missed, so everything is dropped once
+ * it is re-established. Entries also expire after {@link RedisBackendOptions#nearCacheTimeToLive()}, which bounds staleness in any case
+ * <p>
+ * Values read while an invalidation is in flight are never cached: readers take {@link #version()} before going to Redis and hand it back
+ * to {@link #put}, which discards the value if any invalidation happened in between
+ */
+class NearCache implements Closeable {
+
+    static final String CHANNEL = "SAC_NEAR_CACHE_INVALIDATION";
+    private static final String SEPARATOR = "\n";
+
+    private final Cache<String, Object> cache;
+    private final AtomicLong version = new AtomicLong();
+    private final StatefulRedisPubSubConnection<String, String> subscription;
+    private final RedisAsyncCommands<String, String> publisher;
+
+    NearCache(RedisClient client, RedisAsyncCommands<String, String> publisher, RedisBackendOptions options) {
+        this.publisher = publisher;
+        cache = Caffeine
+                .newBuilder()
+                .maximumSize(options.nearCacheMaximumSize())
+                .expireAfterWrite(options.nearCacheTimeToLive(), options.nearCacheTimeToLiveUnit())
+                .build();
+        subscription = client.connectPubSub();
+        subscription.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String channel, String message) {
+                invalidateLocally(Arrays.asList(message.split(SEPARATOR)));
+            }
+        });
+        client.addListener(new RedisConnectionStateListener() {
+            @Override
+            public void onRedisConnected(RedisChannelHandler<?, ?> connection, SocketAddress socketAddress) {
+                if (connection == subscription) {
+                    invalidateAll();
+                }
+            }
+
+            @Override
+            public void onRedisDisconnected(RedisChannelHandler<?, ?> connection) {
+                if (connection == subscription) {
+                    invalidateAll();
+                }
+            }
+
+            @Override
+            public void onRedisExceptionCaught(RedisChannelHandler<?, ?> connection, Throwable cause) {
+            }
+        });
+        subscription.sync().subscribe(CHANNEL);
+    }
+
+    long version() {
+        return version.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T get(String key) {
+        return (T) cache.getIfPresent(key);
+    }
+
+    /**
+     * Cache a value read from Redis
+     *
+     * @param key     the Redis key the value was read from
+     * @param value   the value
+     * @param version the value of {@link #version()} observed before the value was read
+     */
+    void put(String key, Object value, long version) {
+        if (this.version.get() != version) {
+            return;
+        }
+        cache.put(key, value);
+        // an invalidation may have slipped in between the check and the put
+        if (this.version.get() != version) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Drop the given keys here and announce them to every other instance, to be called once the keys have been written
+     */
+    void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        invalidateLocally(keys);
+        publisher.publish(CHANNEL, String.join(SEPARATOR, keys));
+    }
+
+    private void invalidateLocally(Collection<String> keys) {
+        version.incrementAndGet();
+        cache.invalidateAll(keys);
+    }
+
+    private void invalidateAll() {
+        version.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        subscription.close();
+    }
+}
@@ -1,72 +1,440 @@
 package com.erfangc.sac.backend.redis;
 
+import com.erfangc.sac.core.backend.AuthorizationContext;
 import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.core.backend.BackendChange;
+import com.erfangc.sac.core.backend.BackendChangeListener;
+import com.erfangc.sac.core.backend.Exportable;
+import com.erfangc.sac.core.backend.ImmutableAuthorizationContext;
+import com.erfangc.sac.core.backend.ImmutablePrincipalContext;
+import com.erfangc.sac.core.backend.PrincipalContext;
+import com.erfangc.sac.core.backend.ResourcePolicyManager;
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import com.erfangc.sac.core.policy.ResourcePaths;
 import com.erfangc.sac.interfaces.*;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.lettuce.core.RedisClient;
+import io.lettuce.core.*;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
 import io.lettuce.core.api.sync.RedisCommands;
 
-import java.io.Closeable;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
-public class RedisBackend implements Backend, Closeable {
+public class RedisBackend implements Backend, Exportable, Closeable {
 
     private static final String PRINCIPAL_TO_POLICY_MAP = "PRINCIPAL_TO_POLICY_MAP:";
     private static final String RESOURCE_POLICY_MAP = "RESOURCE_POLICY_MAP:";
     private static final String RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP = "RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP:";
+    /**
+     * The principals holding a given action on a given resource, keyed by resource and action. This is the transpose of
+     * {@link #RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP} and lets authorization check a request against a single set
+     */
+    private static final String RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP = "RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP:";
+    /**
+     * The resources on which a given principal holds a given action, keyed by principal and action. A sorted set whose members all
+     * have a score of 0, so that resources can be listed in lexicographic order one page at a time with ZRANGEBYLEX
+     */
+    private static final String PRINCIPAL_ACTION_TO_RESOURCE_MAP = "PRINCIPAL_ACTION_TO_RESOURCE_MAP:";
     private static final String POLICY_TO_PRINCIPAL_MAP = "POLICY_TO_PRINCIPAL_MAP:";
     private static final String PRINCIPAL_TO_GROUP_MAP = "PRINCIPAL_TO_GROUP_MAP:";
     private static final String GROUP_TO_PRINCIPAL_MAP = "GROUP_TO_PRINCIPAL_MAP:";
     private static final String GROUP_TO_GROUP_MAP = "GROUP_TO_GROUP_MAP:";
     private static final String POLICY = "POLICY:";
     private static final String GROUP = "GROUP:";
+    /**
+     * The transitive groups of a principal, only maintained when {@link RedisBackendOptions#materializedClosures()} is enabled
+     */
+    private static final String CLOSURE = "CLOSURE:";
+    private static final String AUTHORIZE_SCRIPT = "authorize.lua";
+    private static final String GRANTED_SCRIPT = "granted.lua";
+    private static final String CLOSURES_SCRIPT = "closures.lua";
+    private static final String CHANGES_SCRIPT = "changes.lua";
     private final RedisClient client;
+    private final StatefulRedisConnection<String, String> connection;
     private final RedisCommands<String, String> sync;
+    /**
+     * Commands issued on the async handle are written to the connection without waiting for the replies of the
+     * previous ones, awaiting a batch of them therefore costs a single network round trip
+     */
+    private final RedisAsyncCommands<String, String> async;
     private final ObjectMapper objectMapper;
+    private final RedisBackendOptions options;
+    /**
+     * The authorization script, only set when {@link RedisBackendOptions#scriptedAuthorization()} is enabled
+     */
+    private final Script authorizeScript;
+    private final Script grantedScript;
+    /**
+     * Only set when {@link RedisBackendOptions#materializedClosures()} is enabled
+     */
+    private final Script closuresScript;
+    /**
+     * Only set when {@link RedisBackendOptions#nearCache()} is enabled
+     */
+    private final NearCache nearCache;
+    /**
+     * Only set when {@link RedisBackendOptions#changeFeed()} is enabled
+     */
+    private final Script changesScript;
+    private final ChangeFeed changeFeed;
+    /**
+     * Mutations are queued in MULTI / EXEC transactions. A transaction spans every command issued on its connection, so they get a
+     * connection of their own that is opened on first use, commands issued concurrently on {@link #async} would otherwise be part of it
+     */
+    private StatefulRedisConnection<String, String> transactions;
+    private boolean closed;
 
     public RedisBackend(String serverEndpoint) {
+        this(serverEndpoint, ImmutableRedisBackendOptions.builder().build());
+    }
+
+    public RedisBackend(String serverEndpoint, RedisBackendOptions options) {
         client = RedisClient.create("redis://" + serverEndpoint);
-        sync = client.connect().sync();
+        connection = client.connect();
+        sync = connection.sync();
+        async = connection.async();
         objectMapper = new ObjectMapper().findAndRegisterModules();
+        this.options = options;
+        authorizeScript = options.scriptedAuthorization() ? new Script(readScript(AUTHORIZE_SCRIPT)) : null;
+        grantedScript = new Script(readScript(GRANTED_SCRIPT));
+        closuresScript = options.materializedClosures() ? new Script(readScript(CLOSURES_SCRIPT)) : null;
+        nearCache = options.nearCache() ? new NearCache(client, async, options) : null;
+        changesScript = options.changeFeed() ? new Script(readScript(CHANGES_SCRIPT)) : null;
+        changeFeed = options.changeFeed() ? new ChangeFeed(client, objectMapper, options, this::changes) : null;
     }
 
-    private List<String> resolvePolicyIdsForPrincipal(String principalId) {
-        // get the list of policies the principal is directly entitled to
-        final Set<String> self = sync.smembers(PRINCIPAL_TO_POLICY_MAP + principalId);
-        List<String> gids = getGroupMembershipTransitively(principalId);
-        return Stream
-                .concat(self.stream(), gids.stream().flatMap(gid -> sync.smembers(PRINCIPAL_TO_POLICY_MAP + gid).stream()))
-                .distinct()
-                .collect(toList());
+    /**
+     * A Lua script registered with the server, referenced by its SHA1 digest so the source is only sent when the server lost it
+     */
+    private final class Script {
+        private final String source;
+        private volatile String sha;
+
+        private Script(String source) {
+            this.source = source;
+            this.sha = sync.scriptLoad(source);
+        }
     }
 
-    private List<IdentityPolicy> loadPolicies(List<String> policyIds) {
-        return policyIds
-                .stream()
-                .map(pid -> {
-                    // TODO use Redis piplining to queue up the commands
-                    final String json = sync.get(POLICY + pid);
-                    if (json == null) {
-                        return null;
-                    }
-                    try {
-                        return objectMapper.readValue(json, ImmutableIdentityPolicy.class);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .collect(toList());
+    private static String readScript(String name) {
+        try (InputStream is = RedisBackend.class.getResourceAsStream(name)) {
+            if (is == null) {
+                throw new IllegalStateException("script " + name + " cannot be found on the classpath");
+            }
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+            return new String(os.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Block until the given stage completes, surfacing failures the same way the sync API of Lettuce does
+     */
+    private <T> T await(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().get(connection.getTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisCommandInterruptedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RedisException) {
+                throw (RedisException) e.getCause();
+            }
+            throw new RedisException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RedisCommandTimeoutException(e);
+        }
+    }
+
+    /**
+     * Queue the commands issued by the given consumer in a transaction, they are written without waiting for one another and applied
+     * by the server atomically once EXEC is received. Transactions are serialized on the instance
+     */
+    private synchronized TransactionResult transaction(Consumer<RedisAsyncCommands<String, String>> commands) {
+        final RedisAsyncCommands<String, String> tx = transactions();
+        tx.multi();
+        commands.accept(tx);
+        final TransactionResult result = await(tx.exec());
+        if (result.wasDiscarded()) {
+            throw new RedisException("transaction was discarded");
+        }
+        return check(result);
+    }
+
+    /**
+     * {@link #transaction(Consumer)} for commands that depend on the members of a set. The set is watched and read before the
+     * transaction is queued, and the transaction is retried should the set change before it is applied
+     *
+     * @param watched  the key of the set
+     * @param commands queues the commands of the transaction, given the members of the set
+     * @return the members of the set the applied transaction was queued for
+     */
+    private synchronized Set<String> transaction(String watched, BiConsumer<Set<String>, RedisAsyncCommands<String, String>> commands) {
+        final RedisAsyncCommands<String, String> tx = transactions();
+        while (true) {
+            tx.watch(watched);
+            final Set<String> members = await(tx.smembers(watched));
+            tx.multi();
+            commands.accept(members, tx);
+            final TransactionResult result = await(tx.exec());
+            if (!result.wasDiscarded()) {
+                check(result);
+                return members;
+            }
+        }
+    }
+
+    private RedisAsyncCommands<String, String> transactions() {
+        if (closed) {
+            throw new RedisException("backend is closed");
+        }
+        if (transactions == null) {
+            transactions = client.connect();
+        }
+        return transactions.async();
+    }
+
+    private static TransactionResult check(TransactionResult result) {
+        for (Object reply : result) {
+            if (reply instanceof RedisException) {
+                throw (RedisException) reply;
+            }
+        }
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+
+    /**
+     * Issue SMEMBERS against every key in one pipeline
+     *
+     * @param keys the keys to read
+     * @return the members of each key, in the order of the keys
+     */
+    private CompletableFuture<List<Set<String>>> smembers(List<String> keys) {
+        final List<CompletableFuture<Set<String>>> futures = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            futures.add(async.smembers(key).toCompletableFuture());
+        }
+        return CompletableFuture
+                .allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    /**
+     * {@link #smembers(List)} served from the near cache where possible, only the keys missing from it are read from Redis
+     */
+    private CompletableFuture<List<Set<String>>> cachedSmembers(List<String> keys) {
+        if (nearCache == null) {
+            return smembers(keys);
+        }
+        final long version = nearCache.version();
+        final List<Set<String>> ret = new ArrayList<>(keys.size());
+        final List<String> misses = new ArrayList<>();
+        for (String key : keys) {
+            final Set<String> members = nearCache.get(key);
+            ret.add(members);
+            if (members == null) {
+                misses.add(key);
+            }
+        }
+        if (misses.isEmpty()) {
+            return CompletableFuture.completedFuture(ret);
+        }
+        return smembers(misses).thenApply(read -> {
+            int next = 0;
+            for (int i = 0; i < ret.size(); i++) {
+                if (ret.get(i) == null) {
+                    final Set<String> members = Collections.unmodifiableSet(read.get(next++));
+                    nearCache.put(keys.get(i), members, version);
+                    ret.set(i, members);
+                }
+            }
+            return ret;
+        });
+    }
+
+    /**
+     * Run an operation of the changes script, see changes.lua for the operations and their arguments
+     */
+    private List<Object> changes(String... args) {
+        return await(this.<List<Object>>evalsha(changesScript, ScriptOutputType.MULTI, new String[0], args));
+    }
+
+    /**
+     * Queue the append of the given changes to the change feed, if it is enabled, in the transaction of the mutation they describe. They
+     * are numbered as the transaction is applied, so the feed follows the order Redis applied mutations in and no mutation is applied
+     * without being recorded. The script is sent with EVAL rather than EVALSHA: a script missing from the server would only be reported
+     * once the rest of the transaction was applied
+     */
+    private void record(RedisAsyncCommands<String, String> tx, List<? extends BackendChange> changes) {
+        if (changeFeed != null && !changes.isEmpty()) {
+            tx.eval(changesScript.source, ScriptOutputType.MULTI, new String[0], changeFeed.appendArgs(changes));
+        }
+    }
+
+    private void record(RedisAsyncCommands<String, String> tx, BackendChange change) {
+        record(tx, Collections.singletonList(change));
+    }
+
+    /**
+     * @return the sequence of the last change in the change feed, 0 if none was made
+     */
+    public long changeSequence() {
+        return feed().sequence();
+    }
+
+    /**
+     * Register a listener to be told about every change made through any {@link RedisBackend} sharing the server from now on. See
+     * {@link #addChangeListener(BackendChangeListener, long)}
+     */
+    public void addChangeListener(BackendChangeListener listener) {
+        addChangeListener(listener, changeSequence());
+    }
+
+    /**
+     * Register a listener to be told about every change following the given sequence, starting with those still held by the feed.
+     * The listener is fed from a thread of its own, in the order Redis applied the changes in
+     *
+     * @param listener      the listener
+     * @param afterSequence the sequence of the last change the listener already knows about
+     */
+    public void addChangeListener(BackendChangeListener listener, long afterSequence) {
+        feed().addListener(listener, afterSequence);
+    }
+
+    public void removeChangeListener(BackendChangeListener listener) {
+        feed().removeListener(listener);
+    }
+
+    private ChangeFeed feed() {
+        if (changeFeed == null) {
+            throw new IllegalStateException("changes are only recorded when changeFeed is enabled");
+        }
+        return changeFeed;
+    }
+
+    private void invalidate(String... keys) {
+        invalidate(Arrays.asList(keys));
+    }
+
+    private void invalidate(Collection<String> keys) {
+        if (nearCache != null) {
+            nearCache.invalidate(keys);
+        }
+    }
+
+    /**
+     * Resolve the groups of the principal, then the union of the policies the principal is directly entitled to with those of
+     * its groups in a single command
+     */
+    private CompletionStage<PrincipalContext> resolvePrincipalContextAsync(String principalId) {
+        return getGroupMembershipTransitivelyAsync(principalId).thenCompose(gids -> principalContextAsync(principalId, gids));
+    }
+
+    private CompletionStage<PrincipalContext> principalContextAsync(String principalId, List<String> gids) {
+        final String[] keys = new String[gids.size() + 1];
+        keys[0] = PRINCIPAL_TO_POLICY_MAP + principalId;
+        for (int i = 0; i < gids.size(); i++) {
+            keys[i + 1] = PRINCIPAL_TO_POLICY_MAP + gids.get(i);
+        }
+        final CompletionStage<Set<String>> policyIds;
+        if (nearCache == null) {
+            policyIds = async.sunion(keys);
+        } else {
+            policyIds = cachedSmembers(Arrays.asList(keys)).thenApply(sets -> {
+                final Set<String> union = new HashSet<>();
+                sets.forEach(union::addAll);
+                return union;
+            });
+        }
+        return policyIds.thenApply(pids -> ImmutablePrincipalContext
+                .builder()
+                .principal(principalId)
+                .groups(gids)
+                .policyIds(pids)
+                .build()
+        );
+    }
+
+    private CompletionStage<List<IdentityPolicy>> loadPoliciesAsync(Collection<String> policyIds) {
+        if (policyIds.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        if (nearCache != null) {
+            return loadCachedPoliciesAsync(policyIds);
+        }
+        final String[] keys = policyIds.stream().map(pid -> POLICY + pid).toArray(String[]::new);
+        return async
+                .mget(keys)
+                .thenApply(kvs -> kvs
+                        .stream()
+                        .filter(KeyValue::hasValue)
+                        .map(kv -> readPolicy(kv.getValue()))
+                        .filter(Objects::nonNull)
+                        .collect(toList())
+                );
+    }
+
+    private CompletionStage<List<IdentityPolicy>> loadCachedPoliciesAsync(Collection<String> policyIds) {
+        final long version = nearCache.version();
+        final List<IdentityPolicy> ret = new ArrayList<>(policyIds.size());
+        final List<String> misses = new ArrayList<>();
+        for (String policyId : policyIds) {
+            final IdentityPolicy policy = nearCache.get(POLICY + policyId);
+            if (policy != null) {
+                ret.add(policy);
+            } else {
+                misses.add(POLICY + policyId);
+            }
+        }
+        if (misses.isEmpty()) {
+            return CompletableFuture.completedFuture(ret);
+        }
+        return async.mget(misses.toArray(new String[0])).thenApply(kvs -> {
+            for (KeyValue<String, String> kv : kvs) {
+                final IdentityPolicy policy = kv.hasValue() ? readPolicy(kv.getValue()) : null;
+                if (policy != null) {
+                    nearCache.put(kv.getKey(), policy, version);
+                    ret.add(policy);
+                }
+            }
+            return ret;
+        });
+    }
+
+    private IdentityPolicy readPolicy(String json) {
+        try {
+            return objectMapper.readValue(json, ImmutableIdentityPolicy.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     @Override
     public void createGroup(Group group) {
+        writeGroup(group, BackendChange.groupCreated(group));
+    }
+
+    private void writeGroup(Group group, BackendChange change) {
         final String json;
         // we do not persist group memberships de-normalized
         // since the data structure is normalized for look up efficiency
@@ -74,7 +442,10 @@ public class RedisBackend implements Backend, Closeable {
             json = objectMapper.writeValueAsString(
                     ImmutableGroup.copyOf(group).withAssignments(Collections.emptyList())
             );
-            sync.set(GROUP + group.id(), json);
+            transaction(tx -> {
+                tx.set(GROUP + group.id(), json);
+                record(tx, change);
+            });
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -112,19 +483,27 @@ public class RedisBackend implements Backend, Closeable {
 
     @Override
     public void updateGroup(Group group) {
-        createGroup(group);
+        writeGroup(group, BackendChange.groupUpdated(group));
     }
 
     @Override
     public void deleteGroup(String groupId) {
+        final BackendChange change = BackendChange.groupDeleted(groupId);
+        if (closuresScript != null) {
+            changeMemberships(Collections.singletonList(change), "delete", groupId);
+            return;
+        }
         // delete any associates created by the given group
-        final Set<String> principals = sync.smembers(GROUP_TO_PRINCIPAL_MAP + groupId);
-        principals.forEach(principal -> {
-            sync.srem(GROUP_TO_GROUP_MAP + principal, groupId);
-            sync.srem(PRINCIPAL_TO_GROUP_MAP + principal, groupId);
+        final Set<String> principals = transaction(GROUP_TO_PRINCIPAL_MAP + groupId, (members, tx) -> {
+            members.forEach(principal -> {
+                tx.srem(GROUP_TO_GROUP_MAP + principal, groupId);
+                tx.srem(PRINCIPAL_TO_GROUP_MAP + principal, groupId);
+            });
+            tx.del(GROUP_TO_PRINCIPAL_MAP + groupId);
+            tx.del(GROUP + groupId);
+            record(tx, change);
         });
-        sync.del(GROUP_TO_PRINCIPAL_MAP + groupId);
-        sync.del(GROUP + groupId);
+        invalidate(principals.stream().map(principal -> GROUP_TO_GROUP_MAP + principal).collect(toList()));
     }
 
     @Override
@@ -134,19 +513,148 @@ public class RedisBackend implements Backend, Closeable {
 
     @Override
     public void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup) {
-        sync.sadd(GROUP_TO_PRINCIPAL_MAP + groupId, principalId);
+        final BackendChange change = BackendChange.principalAssignedToGroup(groupId, principalId, principalIsGroup);
+        if (closuresScript != null) {
+            changeMemberships(Collections.singletonList(change), "assign", groupId, principalId, principalIsGroup ? "1" : "0");
+            return;
+        }
+        transaction(tx -> {
+            tx.sadd(GROUP_TO_PRINCIPAL_MAP + groupId, principalId);
+            tx.sadd((principalIsGroup ? GROUP_TO_GROUP_MAP : PRINCIPAL_TO_GROUP_MAP) + principalId, groupId);
+            record(tx, change);
+        });
         if (principalIsGroup) {
-            sync.sadd(GROUP_TO_GROUP_MAP + principalId, groupId);
-        } else {
-            sync.sadd(PRINCIPAL_TO_GROUP_MAP + principalId, groupId);
+            invalidate(GROUP_TO_GROUP_MAP + principalId);
         }
     }
 
     @Override
     public void unassignPrincipalFromGroup(String groupId, String principalId) {
-        sync.srem(GROUP_TO_PRINCIPAL_MAP + groupId, principalId);
-        sync.srem(GROUP_TO_GROUP_MAP + groupId, principalId);
-        sync.srem(PRINCIPAL_TO_GROUP_MAP + principalId, groupId);
+        final BackendChange change = BackendChange.principalUnassignedFromGroup(groupId, principalId);
+        if (closuresScript != null) {
+            changeMemberships(Collections.singletonList(change), "unassign", groupId, principalId);
+            return;
+        }
+        transaction(tx -> {
+            tx.srem(GROUP_TO_PRINCIPAL_MAP + groupId, principalId);
+            tx.srem(GROUP_TO_GROUP_MAP + principalId, groupId);
+            tx.srem(PRINCIPAL_TO_GROUP_MAP + principalId, groupId);
+            record(tx, change);
+        });
+        invalidate(GROUP_TO_GROUP_MAP + principalId);
+    }
+
+    @Override
+    public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        if (assignments.isEmpty()) {
+            return;
+        }
+        final List<BackendChange> changes = assignments
+                .stream()
+                .map(a -> BackendChange.principalAssignedToGroup(a.groupId(), a.principal(), a.principalIsGroup()))
+                .collect(toList());
+        if (closuresScript != null) {
+            final List<String> args = new ArrayList<>(assignments.size() * 3 + 1);
+            args.add("assign");
+            for (GroupAssignment assignment : assignments) {
+                args.add(assignment.groupId());
+                args.add(assignment.principal());
+                args.add(assignment.principalIsGroup() ? "1" : "0");
+            }
+            changeMemberships(changes, args.toArray(new String[0]));
+            return;
+        }
+        transaction(tx -> {
+            for (GroupAssignment assignment : assignments) {
+                tx.sadd(GROUP_TO_PRINCIPAL_MAP + assignment.groupId(), assignment.principal());
+                if (assignment.principalIsGroup()) {
+                    tx.sadd(GROUP_TO_GROUP_MAP + assignment.principal(), assignment.groupId());
+                } else {
+                    tx.sadd(PRINCIPAL_TO_GROUP_MAP + assignment.principal(), assignment.groupId());
+                }
+            }
+            record(tx, changes);
+        });
+        invalidate(
+                assignments
+                        .stream()
+                        .filter(GroupAssignment::principalIsGroup)
+                        .map(assignment -> GROUP_TO_GROUP_MAP + assignment.principal())
+                        .collect(toList())
+        );
+    }
+
+    @Override
+    public void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        if (assignments.isEmpty()) {
+            return;
+        }
+        final List<BackendChange> changes = assignments
+                .stream()
+                .map(a -> BackendChange.principalUnassignedFromGroup(a.groupId(), a.principal()))
+                .collect(toList());
+        if (closuresScript != null) {
+            final List<String> args = new ArrayList<>(assignments.size() * 2 + 1);
+            args.add("unassign");
+            for (GroupAssignment assignment : assignments) {
+                args.add(assignment.groupId());
+                args.add(assignment.principal());
+            }
+            changeMemberships(changes, args.toArray(new String[0]));
+            return;
+        }
+        transaction(tx -> {
+            for (GroupAssignment assignment : assignments) {
+                tx.srem(GROUP_TO_PRINCIPAL_MAP + assignment.groupId(), assignment.principal());
+                tx.srem(GROUP_TO_GROUP_MAP + assignment.principal(), assignment.groupId());
+                tx.srem(PRINCIPAL_TO_GROUP_MAP + assignment.principal(), assignment.groupId());
+            }
+            record(tx, changes);
+        });
+        invalidate(assignments.stream().map(assignment -> GROUP_TO_GROUP_MAP + assignment.principal()).collect(toList()));
+    }
+
+    /**
+     * Run an operation of the closures script, see closures.lua for the operations and their arguments. Changes to record are appended
+     * to the change feed in the same transaction, see {@link #record(RedisAsyncCommands, List)}
+     *
+     * @param changes the changes made by the operation
+     * @return the principals whose closure was recomputed, their cached copies are dropped. Group parents are never read through the
+     * near cache while closures are maintained, so they need no invalidation
+     */
+    private List<String> changeMemberships(List<? extends BackendChange> changes, String... args) {
+        final List<String> principals;
+        if (changeFeed == null || changes.isEmpty()) {
+            principals = await(this.<List<String>>evalsha(closuresScript, ScriptOutputType.MULTI, new String[0], args));
+        } else {
+            principals = transaction(tx -> {
+                tx.eval(closuresScript.source, ScriptOutputType.MULTI, new String[0], args);
+                record(tx, changes);
+            }).get(0);
+        }
+        invalidate(principals.stream().map(principal -> CLOSURE + principal).collect(toList()));
+        return principals;
+    }
+
+    /**
+     * Compute the {@link #CLOSURE} set of every principal that belongs to a group, for data written while
+     * {@link RedisBackendOptions#materializedClosures()} was disabled. Principals are visited with SCAN in batches, each batch is
+     * recomputed atomically by the closures script and running it more than once is harmless
+     *
+     * @return the number of principals whose closure was computed
+     */
+    public int rebuildClosures() {
+        if (closuresScript == null) {
+            throw new IllegalStateException("closures are only maintained when materializedClosures is enabled");
+        }
+        final int[] rebuilt = {0};
+        scan(PRINCIPAL_TO_GROUP_MAP, principals -> {
+            final List<String> args = new ArrayList<>(principals.size() + 1);
+            args.add("refresh");
+            args.addAll(principals);
+            rebuilt[0] += changeMemberships(Collections.emptyList(), args.toArray(new String[0])).size();
+        });
+        return rebuilt[0];
     }
 
     @Override
@@ -182,9 +690,17 @@ public class RedisBackend implements Backend, Closeable {
 
     @Override
     public void createPolicy(IdentityPolicy identityPolicy) {
+        writePolicy(identityPolicy, BackendChange.policyCreated(identityPolicy));
+    }
+
+    private void writePolicy(IdentityPolicy identityPolicy, BackendChange change) {
         try {
             final String json = objectMapper.writeValueAsString(identityPolicy);
-            sync.set(POLICY + identityPolicy.id(), json);
+            transaction(tx -> {
+                tx.set(POLICY + identityPolicy.id(), json);
+                record(tx, change);
+            });
+            invalidate(POLICY + identityPolicy.id());
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -207,96 +723,730 @@ public class RedisBackend implements Backend, Closeable {
 
     @Override
     public void updatePolicy(IdentityPolicy identityPolicy) {
-        createPolicy(identityPolicy);
+        writePolicy(identityPolicy, BackendChange.policyUpdated(identityPolicy));
     }
 
     @Override
     public void deletePolicy(String policyId) {
         // we need to remove all relations created by the existence of this policy
-        final Set<String> principals = sync.smembers(POLICY_TO_PRINCIPAL_MAP + policyId);
-        principals.forEach(principal -> sync.srem(PRINCIPAL_TO_POLICY_MAP + principal, policyId));
-        sync.del(POLICY_TO_PRINCIPAL_MAP + policyId);
-        sync.del(POLICY + policyId);
+        final Set<String> principals = transaction(POLICY_TO_PRINCIPAL_MAP + policyId, (members, tx) -> {
+            members.forEach(principal -> tx.srem(PRINCIPAL_TO_POLICY_MAP + principal, policyId));
+            tx.del(POLICY_TO_PRINCIPAL_MAP + policyId);
+            tx.del(POLICY + policyId);
+            record(tx, BackendChange.policyDeleted(policyId));
+        });
+        final List<String> keys = principals.stream().map(principal -> PRINCIPAL_TO_POLICY_MAP + principal).collect(toList());
+        keys.add(POLICY + policyId);
+        invalidate(keys);
     }
 
     @Override
     public void assignPolicy(String policyId, String principalId) {
-        sync.sadd(POLICY_TO_PRINCIPAL_MAP + policyId, principalId);
-        sync.sadd(PRINCIPAL_TO_POLICY_MAP + principalId, policyId);
+        transaction(tx -> {
+            tx.sadd(POLICY_TO_PRINCIPAL_MAP + policyId, principalId);
+            tx.sadd(PRINCIPAL_TO_POLICY_MAP + principalId, policyId);
+            record(tx, BackendChange.policyAssigned(policyId, principalId));
+        });
+        invalidate(PRINCIPAL_TO_POLICY_MAP + principalId);
+    }
+
+    @Override
+    public void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        if (principalIds.isEmpty()) {
+            return;
+        }
+        transaction(tx -> {
+            tx.sadd(POLICY_TO_PRINCIPAL_MAP + policyId, principalIds.toArray(new String[0]));
+            for (String principalId : principalIds) {
+                tx.sadd(PRINCIPAL_TO_POLICY_MAP + principalId, policyId);
+            }
+            record(tx, principalIds.stream().map(principalId -> BackendChange.policyAssigned(policyId, principalId)).collect(toList()));
+        });
+        invalidate(principalIds.stream().map(principalId -> PRINCIPAL_TO_POLICY_MAP + principalId).collect(toList()));
     }
 
     @Override
     public void unAssignPolicy(String policyId, String principalId) {
-        sync.srem(POLICY_TO_PRINCIPAL_MAP + policyId, principalId);
-        sync.srem(PRINCIPAL_TO_POLICY_MAP + principalId, policyId);
+        transaction(tx -> {
+            tx.srem(POLICY_TO_PRINCIPAL_MAP + policyId, principalId);
+            tx.srem(PRINCIPAL_TO_POLICY_MAP + principalId, policyId);
+            record(tx, BackendChange.policyUnassigned(policyId, principalId));
+        });
+        invalidate(PRINCIPAL_TO_POLICY_MAP + principalId);
     }
 
     @Override
     public List<String> getGroupMembershipTransitively(String principalId) {
+        return await(getGroupMembershipTransitivelyAsync(principalId));
+    }
+
+    @Override
+    public CompletionStage<List<String>> getGroupMembershipTransitivelyAsync(String principalId) {
+        if (closuresScript != null) {
+            return cachedSmembers(Collections.singletonList(CLOSURE + principalId)).thenApply(sets -> new ArrayList<>(sets.get(0)));
+        }
         final Set<String> gids = new HashSet<>();
-        final Set<String> immediateMembership = sync.smembers(PRINCIPAL_TO_GROUP_MAP + principalId);
-        final Queue<String> queue = new ArrayDeque<>(immediateMembership);
-        // TODO this operation is O(M) where M = # of edges connecting the groups, maybe there is a way to optimize
-        while (!queue.isEmpty()) {
-            final String gid = queue.poll();
-            gids.add(gid);
-            for (String childGid : sync.smembers(GROUP_TO_GROUP_MAP + gid)) {
-                if (!gids.contains(childGid)) {
-                    queue.offer(childGid);
+        return async
+                .smembers(PRINCIPAL_TO_GROUP_MAP + principalId)
+                .thenCompose(direct -> {
+                    gids.addAll(direct);
+                    return expand(gids, new ArrayList<>(direct));
+                })
+                .thenApply(ignored -> new ArrayList<>(gids));
+    }
+
+    /**
+     * The BFS is done one level at a time, the parents of every group on a level are fetched in one pipeline
+     * so the number of round trips is bounded by the depth of the group graph rather than its size
+     */
+    private CompletionStage<Void> expand(Set<String> gids, List<String> frontier) {
+        if (frontier.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final List<String> keys = frontier.stream().map(gid -> GROUP_TO_GROUP_MAP + gid).collect(toList());
+        return cachedSmembers(keys).thenCompose(levels -> {
+            final List<String> next = new ArrayList<>();
+            for (Set<String> parents : levels) {
+                for (String parent : parents) {
+                    if (gids.add(parent)) {
+                        next.add(parent);
+                    }
                 }
             }
-        }
-        return new ArrayList<>(gids);
+            return expand(gids, next);
+        });
     }
 
     @Override
     public void close() {
+        if (changeFeed != null) {
+            changeFeed.close();
+        }
+        if (nearCache != null) {
+            nearCache.close();
+        }
+        synchronized (this) {
+            closed = true;
+            if (transactions != null) {
+                transactions.close();
+            }
+        }
         sync.shutdown(true);
         client.shutdown();
     }
 
     @Override
     public List<IdentityPolicy> fetchIdentityPoliciesTransitivelyForPrincipal(String principalId) {
-        final List<String> policyIds = resolvePolicyIdsForPrincipal(principalId);
-        return loadPolicies(policyIds);
+        return await(resolvePrincipalContextAsync(principalId).thenCompose(context -> loadPoliciesAsync(context.policyIds())));
+    }
+
+    @Override
+    public PrincipalContext resolvePrincipalContext(String principalId) {
+        return await(resolvePrincipalContextAsync(principalId));
+    }
+
+    @Override
+    public List<CompiledIdentityPolicy> fetchIdentityPolicies(PrincipalContext context) {
+        return await(loadCompiledPoliciesAsync(context.policyIds()));
+    }
+
+    private CompletionStage<List<CompiledIdentityPolicy>> loadCompiledPoliciesAsync(Collection<String> policyIds) {
+        return loadPoliciesAsync(policyIds).thenApply(policies -> policies.stream().map(CompiledIdentityPolicy::compile).collect(toList()));
+    }
+
+    @Override
+    public AuthorizationContext resolveAuthorizationContext(AuthorizationRequest request) {
+        return await(resolveAuthorizationContextAsync(request));
+    }
+
+    @Override
+    public CompletionStage<AuthorizationContext> resolveAuthorizationContextAsync(AuthorizationRequest request) {
+        if (options.scriptedAuthorization()) {
+            return this.<List<Object>>evalsha(
+                    authorizeScript,
+                    ScriptOutputType.MULTI,
+                    new String[0],
+                    request.principal(), request.resource(), request.action(), closuresScript != null ? "1" : "0"
+            ).thenApply(this::toAuthorizationContext);
+        }
+        return getGroupMembershipTransitivelyAsync(request.principal()).thenCompose(gids -> {
+            // once the groups are known, the resource check and the policy union are independent and share a round trip
+            final List<String> principals = new ArrayList<>(gids.size() + 1);
+            principals.add(request.principal());
+            principals.addAll(gids);
+            return isGrantedToAnyAsync(request.resource(), request.action(), principals)
+                    .thenCombine(principalContextAsync(request.principal(), gids), (permitted, principal) -> permitted
+                            ? CompletableFuture.completedFuture(context(gids, true, Collections.emptyList()))
+                            : loadCompiledPoliciesAsync(principal.policyIds()).thenApply(policies -> context(gids, false, policies))
+                    )
+                    .thenCompose(stage -> stage);
+        });
+    }
+
+    private static AuthorizationContext context(List<String> groups, boolean permitted, List<CompiledIdentityPolicy> policies) {
+        return ImmutableAuthorizationContext
+                .builder()
+                .groups(groups)
+                .permittedByResourcePolicy(permitted)
+                .identityPolicies(policies)
+                .build();
+    }
+
+    private AuthorizationContext toAuthorizationContext(List<Object> reply) {
+        @SuppressWarnings("unchecked") final List<String> groups = (List<String>) reply.get(1);
+        @SuppressWarnings("unchecked") final List<String> jsons = (List<String>) reply.get(2);
+        final List<CompiledIdentityPolicy> policies = new ArrayList<>(jsons.size());
+        for (String json : jsons) {
+            final IdentityPolicy policy = readPolicy(json);
+            if (policy != null) {
+                policies.add(CompiledIdentityPolicy.compile(policy));
+            }
+        }
+        return context(groups, (Long) reply.get(0) == 1L, policies);
+    }
+
+    /**
+     * Run a script by its digest, registering it again if the server no longer knows it
+     */
+    private <T> CompletionStage<T> evalsha(Script script, ScriptOutputType type, String[] keys, String... args) {
+        final CompletableFuture<T> ret = new CompletableFuture<>();
+        async.<T>evalsha(script.sha, type, keys, args).whenComplete((reply, error) -> {
+            if (error == null) {
+                ret.complete(reply);
+            } else if (unwrap(error) instanceof RedisNoScriptException) {
+                // the script cache was flushed or the server restarted, register the script again
+                async
+                        .scriptLoad(script.source)
+                        .thenCompose(sha -> {
+                            script.sha = sha;
+                            return async.<T>evalsha(sha, type, keys, args);
+                        })
+                        .whenComplete((retried, retryError) -> {
+                            if (retryError == null) {
+                                ret.complete(retried);
+                            } else {
+                                ret.completeExceptionally(unwrap(retryError));
+                            }
+                        });
+            } else {
+                ret.completeExceptionally(unwrap(error));
+            }
+        });
+        return ret;
     }
 
     @Override
     public void grantActions(String resource, String principal, Set<String> actions) {
-        sync.sadd(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal, actions.toArray(new String[0]));
-        sync.sadd(RESOURCE_POLICY_MAP + resource, principal);
+        final String[] members = actions.toArray(new String[0]);
+        transaction(tx -> {
+            tx.sadd(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal, members);
+            tx.sadd(RESOURCE_POLICY_MAP + resource, principal);
+            for (String action : actions) {
+                tx.sadd(RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + resource + ":" + action, principal);
+                tx.zadd(PRINCIPAL_ACTION_TO_RESOURCE_MAP + principal + ":" + action, 0, resource);
+            }
+            record(tx, BackendChange.actionsGranted(resource, principal, actions));
+        });
+    }
+
+    @Override
+    public void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions) {
+        if (resources.isEmpty() || actions.isEmpty()) {
+            return;
+        }
+        final String[] members = actions.toArray(new String[0]);
+        final Object[] scoresAndResources = new Object[resources.size() * 2];
+        int i = 0;
+        for (String resource : resources) {
+            scoresAndResources[i++] = 0.0;
+            scoresAndResources[i++] = resource;
+        }
+        transaction(tx -> {
+            for (String action : actions) {
+                tx.zadd(PRINCIPAL_ACTION_TO_RESOURCE_MAP + principal + ":" + action, scoresAndResources);
+            }
+            for (String resource : resources) {
+                tx.sadd(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal, members);
+                tx.sadd(RESOURCE_POLICY_MAP + resource, principal);
+                for (String action : actions) {
+                    tx.sadd(RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + resource + ":" + action, principal);
+                }
+            }
+            record(tx, resources.stream().map(resource -> BackendChange.actionsGranted(resource, principal, actions)).collect(toList()));
+        });
     }
 
     @Override
     public void revokeActions(String resource, String principal, Set<String> actions) {
-        // TODO make this a transaction & resilient against simple race conditions
-        final Set<String> exisit = sync.smembers(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal);
-        sync.srem(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal, actions.toArray(new String[0]));
-        exisit.removeAll(actions);
-        if (exisit.isEmpty()) {
-            sync.srem(RESOURCE_POLICY_MAP + resource, principal);
+        final String grantedActions = RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal;
+        // the principal remains a grantee of the resource while it holds any other action, which is only known once they are read
+        transaction(grantedActions, (granted, tx) -> {
+            tx.srem(grantedActions, actions.toArray(new String[0]));
+            for (String action : actions) {
+                tx.srem(RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + resource + ":" + action, principal);
+                tx.zrem(PRINCIPAL_ACTION_TO_RESOURCE_MAP + principal + ":" + action, resource);
+            }
+            if (actions.containsAll(granted)) {
+                tx.srem(RESOURCE_POLICY_MAP + resource, principal);
+            }
+            record(tx, BackendChange.actionsRevoked(resource, principal, actions));
+        });
+    }
+
+    @Override
+    public boolean isGrantedToAny(String resource, String action, Collection<String> principals) {
+        return await(isGrantedToAnyAsync(resource, action, principals));
+    }
+
+    /**
+     * Answered by a script against the principals holding the action, so neither the grantees nor their actions leave the server.
+     * SMISMEMBER would do the same without a script but requires Redis 6.2. The prefix policies above the resource are checked in the
+     * same call, one key per ancestor
+     */
+    private CompletionStage<Boolean> isGrantedToAnyAsync(String resource, String action, Collection<String> principals) {
+        if (principals.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        final List<String> resources = ResourcePaths.prefixPolicies(resource);
+        resources.add(0, resource);
+        return this.<Long>evalsha(
+                grantedScript,
+                ScriptOutputType.INTEGER,
+                resources.stream().map(r -> RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + r + ":" + action).toArray(String[]::new),
+                principals.toArray(new String[0])
+        ).thenApply(reply -> reply == 1L);
+    }
+
+    /**
+     * The resources of each principal are read in one pipeline, a page worth from each, and merged
+     */
+    @Override
+    public List<String> getGrantedResources(Collection<String> principals, String action, String after, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        final Range<String> range = Range.from(
+                after == null ? Range.Boundary.unbounded() : Range.Boundary.excluding(after),
+                Range.Boundary.unbounded()
+        );
+        final List<CompletableFuture<List<String>>> futures = new ArrayList<>(principals.size());
+        for (String principal : principals) {
+            futures.add(async.zrangebylex(PRINCIPAL_ACTION_TO_RESOURCE_MAP + principal + ":" + action, range, Limit.create(0, limit)).toCompletableFuture());
+        }
+        await(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+        return ResourcePolicyManager.merge(futures.stream().map(CompletableFuture::join).collect(toList()), limit);
+    }
+
+    /**
+     * Only the groups found below the grantees of the resource and below the assignees of the identity policies that apply to it are held
+     * in memory. The grantees of the resource and of its prefix policies, the members of each of these groups and the assignees of each
+     * policy are read one SSCAN page at a time, and access is decided for a page of principals at once from their direct grants, groups and
+     * policies. A principal reached along several paths is only visited along the first of them, which is told from its direct grants and
+     * groups rather than by remembering the principals already visited. As with SSCAN, a principal may still be visited twice should a set
+     * be rehashed while it is read
+     * <p>
+     * Identity policies are not indexed by resource: the policies that apply are found by loading every policy with SCAN on each call.
+     * This is a deliberate cost, there are far fewer policies than principals, and only the ids of the policies that apply are kept
+     */
+    @Override
+    public void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        final List<String> grants = new ArrayList<>();
+        grants.add(RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + resource + ":" + action);
+        for (String prefixPolicy : ResourcePaths.prefixPolicies(resource)) {
+            grants.add(RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + prefixPolicy + ":" + action);
+        }
+        final Set<String> grantedGroups = new HashSet<>();
+        for (String grant : grants) {
+            sscan(grant, page -> grantedGroups.addAll(groupsAmong(page)));
+        }
+        final List<String> permits = new ArrayList<>();
+        final Set<String> denies = new HashSet<>();
+        forEachIdentityPolicy(policy -> {
+            final CompiledIdentityPolicy compiled = CompiledIdentityPolicy.compile(policy);
+            if (compiled.appliesTo(resource, action)) {
+                if (compiled.isDeny()) {
+                    denies.add(policy.id());
+                } else {
+                    permits.add(policy.id());
+                }
+            }
+        });
+
+        final Set<String> permittedGroups = new HashSet<>();
+        for (String policyId : permits) {
+            sscan(POLICY_TO_PRINCIPAL_MAP + policyId, page -> permittedGroups.addAll(groupsAmong(page)));
+        }
+        final Set<String> deniedGroups = new HashSet<>();
+        for (String policyId : denies) {
+            sscan(POLICY_TO_PRINCIPAL_MAP + policyId, page -> deniedGroups.addAll(groupsAmong(page)));
+        }
+        final Set<String> roots = new HashSet<>(grantedGroups);
+        roots.addAll(permittedGroups);
+        roots.addAll(deniedGroups);
+        final Map<String, List<String>> subgroups = subgroups(roots);
+
+        final PrincipalsWithAccess principals = new PrincipalsWithAccess(
+                grants,
+                permits,
+                denies,
+                below(grantedGroups, subgroups),
+                below(permittedGroups, subgroups),
+                below(deniedGroups, subgroups),
+                subgroups.keySet(),
+                consumer
+        );
+        for (int i = 0; i < grants.size(); i++) {
+            final int rank = i;
+            sscan(grants.get(i), page -> principals.visit(page, rank));
+        }
+        principals.permitRanks.forEach((policyId, rank) -> sscan(POLICY_TO_PRINCIPAL_MAP + policyId, page -> principals.visit(page, rank)));
+        principals.groupRanks.forEach((gid, rank) -> sscan(GROUP_TO_PRINCIPAL_MAP + gid, page -> principals.visit(page, rank)));
+    }
+
+    /**
+     * @return those of the given principals that are groups: created as one, or with members
+     */
+    private Set<String> groupsAmong(Collection<String> principals) {
+        final List<String> ids = new ArrayList<>(principals);
+        final List<CompletableFuture<Long>> futures = new ArrayList<>(ids.size() * 2);
+        for (String id : ids) {
+            futures.add(async.exists(GROUP + id).toCompletableFuture());
+            futures.add(async.exists(GROUP_TO_PRINCIPAL_MAP + id).toCompletableFuture());
+        }
+        await(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+        final Set<String> ret = new HashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (futures.get(i * 2).join() > 0 || futures.get(i * 2 + 1).join() > 0) {
+                ret.add(ids.get(i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Walk down the group graph from the given groups. Members are read one SSCAN page at a time, and whether each of them was assigned
+     * as a group is checked in one pipeline per page
+     *
+     * @return the groups assigned to each group reached, the given groups included
+     */
+    private Map<String, List<String>> subgroups(Set<String> groups) {
+        final Map<String, List<String>> ret = new HashMap<>();
+        final Deque<String> queue = new ArrayDeque<>(groups);
+        for (String gid : groups) {
+            ret.put(gid, new ArrayList<>());
+        }
+        while (!queue.isEmpty()) {
+            final String gid = queue.poll();
+            sscan(GROUP_TO_PRINCIPAL_MAP + gid, members -> {
+                final List<CompletableFuture<Boolean>> futures = new ArrayList<>(members.size());
+                for (String member : members) {
+                    futures.add(async.sismember(GROUP_TO_GROUP_MAP + member, gid).toCompletableFuture());
+                }
+                await(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+                for (int i = 0; i < members.size(); i++) {
+                    final String member = members.get(i);
+                    if (futures.get(i).join()) {
+                        ret.get(gid).add(member);
+                        if (!ret.containsKey(member)) {
+                            ret.put(member, new ArrayList<>());
+                            queue.add(member);
+                        }
+                    }
+                }
+            });
+        }
+        return ret;
+    }
+
+    /**
+     * @return the given groups and the groups nested in them, transitively
+     */
+    private static Set<String> below(Set<String> groups, Map<String, List<String>> subgroups) {
+        final Set<String> ret = new LinkedHashSet<>(groups);
+        final Deque<String> queue = new ArrayDeque<>(groups);
+        while (!queue.isEmpty()) {
+            for (String child : subgroups.getOrDefault(queue.poll(), Collections.emptyList())) {
+                if (ret.add(child)) {
+                    queue.add(child);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The state of {@link #forEachPrincipalWithAccess(String, String, Consumer)} once the groups involved are known. Every path along
+     * which a principal can be reached is ranked: being a grantee of the resource or of each of its prefix policies first, then being
+     * assigned each permitting policy, then being a member of each group below a grantee or an assignee. A principal is only passed on
+     * when visited along its best ranked path
+     */
+    private final class PrincipalsWithAccess {
+        private final List<String> grants;
+        private final Set<String> denies;
+        private final Set<String> grantedGroups;
+        private final Set<String> permittedGroups;
+        private final Set<String> deniedGroups;
+        private final Set<String> groups;
+        private final Map<String, Integer> permitRanks = new LinkedHashMap<>();
+        private final Map<String, Integer> groupRanks = new LinkedHashMap<>();
+        private final Consumer<String> consumer;
+
+        private PrincipalsWithAccess(List<String> grants,
+                                     List<String> permits,
+                                     Set<String> denies,
+                                     Set<String> grantedGroups,
+                                     Set<String> permittedGroups,
+                                     Set<String> deniedGroups,
+                                     Set<String> groups,
+                                     Consumer<String> consumer) {
+            this.grants = grants;
+            this.denies = denies;
+            this.grantedGroups = grantedGroups;
+            this.permittedGroups = permittedGroups;
+            this.deniedGroups = deniedGroups;
+            this.groups = groups;
+            this.consumer = consumer;
+            for (String policyId : permits) {
+                permitRanks.put(policyId, grants.size() + permitRanks.size());
+            }
+            for (String gid : grantedGroups) {
+                groupRanks.put(gid, grants.size() + permitRanks.size() + groupRanks.size());
+            }
+            for (String gid : permittedGroups) {
+                groupRanks.putIfAbsent(gid, grants.size() + permitRanks.size() + groupRanks.size());
+            }
+        }
+
+        /**
+         * Decide access for a page of principals reached along paths of the given rank, groups are skipped as their members are visited
+         */
+        private void visit(List<String> page, int rank) {
+            final List<String> principals = page.stream().filter(principal -> !groups.contains(principal)).collect(toList());
+            final List<String> keys = new ArrayList<>(principals.size() * 2);
+            for (String principal : principals) {
+                keys.add(PRINCIPAL_TO_GROUP_MAP + principal);
+                keys.add(PRINCIPAL_TO_POLICY_MAP + principal);
+            }
+            final List<CompletableFuture<Boolean>> granting = new ArrayList<>(principals.size() * grants.size());
+            for (String principal : principals) {
+                for (String grant : grants) {
+                    granting.add(async.sismember(grant, principal).toCompletableFuture());
+                }
+            }
+            final List<Set<String>> sets = await(smembers(keys));
+            await(CompletableFuture.allOf(granting.toArray(new CompletableFuture[0])));
+            for (int i = 0; i < principals.size(); i++) {
+                final String principal = principals.get(i);
+                boolean granted = false;
+                boolean permitted = false;
+                boolean denied = false;
+                int best = Integer.MAX_VALUE;
+                for (int j = grants.size() - 1; j >= 0; j--) {
+                    if (granting.get(i * grants.size() + j).join()) {
+                        granted = true;
+                        best = j;
+                    }
+                }
+                for (String gid : sets.get(i * 2)) {
+                    granted |= grantedGroups.contains(gid);
+                    permitted |= permittedGroups.contains(gid);
+                    denied |= deniedGroups.contains(gid);
+                    best = Math.min(best, groupRanks.getOrDefault(gid, Integer.MAX_VALUE));
+                }
+                for (String policyId : sets.get(i * 2 + 1)) {
+                    permitted |= permitRanks.containsKey(policyId);
+                    denied |= denies.contains(policyId);
+                    best = Math.min(best, permitRanks.getOrDefault(policyId, Integer.MAX_VALUE));
+                }
+                if (best == rank && (granted || permitted && !denied)) {
+                    consumer.accept(principal);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the {@link #RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP} sets and the {@link #PRINCIPAL_ACTION_TO_RESOURCE_MAP} indexes from the
+     * grants stored by earlier versions, which only maintained {@link #RESOURCE_POLICY_MAP} and
+     * {@link #RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP}. Resources are visited with SCAN
+     * so the server is never blocked for long, and running it more than once is harmless
+     *
+     * @return the number of resources whose grants were indexed
+     */
+    public int migrateResourcePolicies() {
+        final int[] migrated = {0};
+        scan(RESOURCE_POLICY_MAP, resources -> {
+            final Map<String, ResourcePolicy> policies = getResourcePolicies(resources);
+            final List<RedisFuture<Long>> writes = new ArrayList<>();
+            for (ResourcePolicy policy : policies.values()) {
+                for (ResourcePolicyAssignment assignment : policy.assignments().orElse(Collections.emptyList())) {
+                    for (String action : assignment.actions()) {
+                        writes.add(async.sadd(RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP + policy.resource() + ":" + action, assignment.principal()));
+                        writes.add(async.zadd(PRINCIPAL_ACTION_TO_RESOURCE_MAP + assignment.principal() + ":" + action, 0, policy.resource()));
+                    }
+                }
+            }
+            await(CompletableFuture.allOf(writes.stream().map(RedisFuture::toCompletableFuture).toArray(CompletableFuture[]::new)));
+            migrated[0] += policies.size();
+        });
+        return migrated[0];
+    }
+
+    /**
+     * Visit the keys starting with the given prefix with SCAN, one page at a time so that the server is never blocked for long and only
+     * a page of keys is held at once. As with SCAN, a key may be visited more than once
+     *
+     * @param prefix one of the key prefixes
+     * @param page   receives what follows the prefix in the keys of each non empty page
+     */
+    private void scan(String prefix, Consumer<List<String>> page) {
+        final ScanArgs scanArgs = ScanArgs.Builder.matches(prefix + "*").limit(500);
+        KeyScanCursor<String> cursor = sync.scan(scanArgs);
+        while (true) {
+            final List<String> suffixes = cursor.getKeys().stream().map(key -> key.substring(prefix.length())).collect(toList());
+            if (!suffixes.isEmpty()) {
+                page.accept(suffixes);
+            }
+            if (cursor.isFinished()) {
+                return;
+            }
+            cursor = sync.scan(cursor, scanArgs);
         }
     }
 
+    /**
+     * Visit the members of a set with SSCAN, one page at a time. As with SSCAN, a member may be visited more than once
+     *
+     * @param key  the key of the set
+     * @param page receives the members of each non empty page
+     */
+    private void sscan(String key, Consumer<List<String>> page) {
+        final ScanArgs scanArgs = ScanArgs.Builder.limit(500);
+        ValueScanCursor<String> cursor = sync.sscan(key, scanArgs);
+        while (true) {
+            if (!cursor.getValues().isEmpty()) {
+                page.accept(cursor.getValues());
+            }
+            if (cursor.isFinished()) {
+                return;
+            }
+            cursor = sync.sscan(key, cursor, scanArgs);
+        }
+    }
+
+    /**
+     * Visit the members of every set whose key starts with the given prefix, the sets of a page of keys are read in one pipeline
+     *
+     * @param visitor receives what follows the prefix in the key of each set, and one of its members
+     */
+    private void scanMembers(String prefix, BiConsumer<String, String> visitor) {
+        scan(prefix, ids -> {
+            final List<Set<String>> sets = await(smembers(ids.stream().map(id -> prefix + id).collect(toList())));
+            for (int i = 0; i < ids.size(); i++) {
+                for (String member : sets.get(i)) {
+                    visitor.accept(ids.get(i), member);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void forEachGroup(Consumer<Group> consumer) {
+        scan(GROUP, gids -> await(async.mget(gids.stream().map(gid -> GROUP + gid).toArray(String[]::new))).forEach(kv -> {
+            if (kv.hasValue()) {
+                try {
+                    consumer.accept(objectMapper.readValue(kv.getValue(), ImmutableGroup.class));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Memberships are read from the side of the member, whose sets hold the groups it is directly a member of and are typically small
+     */
+    @Override
+    public void forEachGroupAssignment(Consumer<GroupAssignment> consumer) {
+        scanMembers(PRINCIPAL_TO_GROUP_MAP, (principal, gid) -> consumer.accept(
+                ImmutableGroupAssignment.builder().groupId(gid).principal(principal).build()
+        ));
+        scanMembers(GROUP_TO_GROUP_MAP, (child, gid) -> consumer.accept(
+                ImmutableGroupAssignment.builder().groupId(gid).principal(child).principalIsGroup(true).build()
+        ));
+    }
+
+    @Override
+    public void forEachIdentityPolicy(Consumer<IdentityPolicy> consumer) {
+        scan(POLICY, pids -> await(loadPoliciesAsync(pids)).forEach(consumer));
+    }
+
+    @Override
+    public void forEachPolicyAssignment(Consumer<PolicyAssignment> consumer) {
+        scanMembers(PRINCIPAL_TO_POLICY_MAP, (principal, policyId) -> consumer.accept(
+                ImmutablePolicyAssignment.builder().policyId(policyId).principal(principal).build()
+        ));
+    }
+
+    @Override
+    public void forEachResourcePolicy(Consumer<ResourcePolicy> consumer) {
+        scan(RESOURCE_POLICY_MAP, resources -> getResourcePolicies(resources).values().forEach(consumer));
+    }
+
     @Override
     public ResourcePolicy getResourcePolicy(String resource) {
-        final Set<String> principals = sync.smembers(RESOURCE_POLICY_MAP + resource);
-        if (principals != null && !principals.isEmpty()) {
-            final List<ResourcePolicyAssignment> assignments = principals
-                    .stream()
-                    .map(principal -> ImmutableResourcePolicyAssignment
-                            .builder()
-                            .actions(sync.smembers(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + resource + ":" + principal))
-                            .principal(principal)
-                            .build()
-                    )
-                    .collect(toList());
-            return ImmutableResourcePolicy
-                    .builder()
-                    .assignments(assignments)
-                    .resource(resource)
-                    .build();
-        }
-        return null;
+        return await(getResourcePolicyAsync(resource));
+    }
+
+    @Override
+    public CompletionStage<ResourcePolicy> getResourcePolicyAsync(String resource) {
+        return getResourcePoliciesAsync(Collections.singletonList(resource)).thenApply(policies -> policies.get(resource));
+    }
+
+    @Override
+    public Map<String, ResourcePolicy> getResourcePolicies(Collection<String> resources) {
+        return await(getResourcePoliciesAsync(resources));
+    }
+
+    private CompletionStage<Map<String, ResourcePolicy>> getResourcePoliciesAsync(Collection<String> resources) {
+        // one pipeline for the grantees of every resource, then one more for the actions of every grantee
+        final List<String> rids = new ArrayList<>(resources);
+        return smembers(rids.stream().map(resource -> RESOURCE_POLICY_MAP + resource).collect(toList())).thenCompose(grantees -> {
+            final List<String> actionKeys = new ArrayList<>();
+            for (int i = 0; i < rids.size(); i++) {
+                for (String principal : grantees.get(i)) {
+                    actionKeys.add(RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP + rids.get(i) + ":" + principal);
+                }
+            }
+            return smembers(actionKeys).thenApply(actions -> {
+                final Map<String, ResourcePolicy> ret = new HashMap<>();
+                int offset = 0;
+                for (int i = 0; i < rids.size(); i++) {
+                    final String resource = rids.get(i);
+                    if (grantees.get(i).isEmpty()) {
+                        continue;
+                    }
+                    final List<ResourcePolicyAssignment> assignments = new ArrayList<>(grantees.get(i).size());
+                    for (String principal : grantees.get(i)) {
+                        assignments.add(
+                                ImmutableResourcePolicyAssignment
+                                        .builder()
+                                        .actions(actions.get(offset++))
+                                        .principal(principal)
+                                        .build()
+                        );
+                    }
+                    ret.put(
+                            resource,
+                            ImmutableResourcePolicy
+                                    .builder()
+                                    .assignments(assignments)
+                                    .resource(resource)
+                                    .build()
+                    );
+                }
+                return ret;
+            });
+        });
     }
 }
@@ -0,0 +1,85 @@
+package com.erfangc.sac.backend.redis;
+
+import org.immutables.value.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of {@link RedisBackend}
+ */
+@Value.Immutable
+public interface RedisBackendOptions {
+
+    /**
+     * When enabled, {@link RedisBackend#resolveAuthorizationContext} runs a Lua script that walks the group graph, checks the
+     * resource policy and gathers identity policies inside Redis, answering every authorization with a single round trip.
+     * The script derives the keys it touches from its arguments, so this must not be enabled against Redis Cluster
+     */
+    @Value.Default
+    default boolean scriptedAuthorization() {
+        return false;
+    }
+
+    /**
+     * When enabled, the transitive groups of every principal are kept in a <code>CLOSURE:&lt;principal&gt;</code> set, maintained by
+     * a Lua script that changes memberships and recomputes the closures below the change atomically. Resolving the groups of a
+     * principal then takes a single SMEMBERS however deep the group graph is, at the expense of membership changes which have to visit
+     * every principal below the changed edge. Data written without this option must be indexed once with
+     * {@link RedisBackend#rebuildClosures()}. As with {@link #scriptedAuthorization()}, this must not be enabled against Redis Cluster
+     */
+    @Value.Default
+    default boolean materializedClosures() {
+        return false;
+    }
+
+    /**
+     * When enabled, group parents, identity policy assignments and identity policies read from Redis are kept in a local near cache.
+     * Every mutation made through a {@link RedisBackend} publishes the keys it changed, so that all instances sharing the server drop
+     * their copies. Changes made to Redis by other means are only picked up once cached entries expire. Authorizations answered by
+     * {@link #scriptedAuthorization()} always read from Redis
+     */
+    @Value.Default
+    default boolean nearCache() {
+        return false;
+    }
+
+    /**
+     * The maximum number of Redis keys to keep in the near cache
+     */
+    @Value.Default
+    default long nearCacheMaximumSize() {
+        return 100_000;
+    }
+
+    /**
+     * How long a near cached key may be served after it was read. This bounds staleness should invalidations be missed,
+     * for instance while the subscription is being re-established
+     */
+    @Value.Default
+    default long nearCacheTimeToLive() {
+        return 60;
+    }
+
+    @Value.Default
+    default TimeUnit nearCacheTimeToLiveUnit() {
+        return TimeUnit.SECONDS;
+    }
+
+    /**
+     * When enabled, every mutation made through a {@link RedisBackend} is numbered and appended to a change feed kept in Redis, which
+     * listeners registered with {@link RedisBackend#addChangeListener} on any instance sharing the server are fed from. As with
+     * {@link #materializedClosures()}, this must not be enabled against Redis Cluster
+     */
+    @Value.Default
+    default boolean changeFeed() {
+        return false;
+    }
+
+    /**
+     * The number of changes the change feed holds, older changes are dropped. A listener falling further behind misses changes
+     */
+    @Value.Default
+    default long changeFeedLength() {
+        return 100_000;
+    }
+}
@@ -1,13 +1,18 @@
 package com.erfangc.sac.redis;
 
 import com.erfangc.sac.backend.redis.RedisBackend;
+import com.erfangc.sac.backend.redis.RedisBackendOptions;
 import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.core.service.DecisionCacheOptions;
 import com.erfangc.sac.core.service.SimpleAccessControlImpl;
 import com.erfangc.sac.interfaces.*;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 public class RedisSimpleAccessControl implements SimpleAccessControl, Closeable {
 
@@ -21,6 +26,31 @@ public class RedisSimpleAccessControl implements SimpleAccessControl, Closeable
         delegate = new SimpleAccessControlImpl(backend);
     }
 
+    /**
+     * Creates an instance that caches authorization decisions locally, see {@link DecisionCacheOptions}
+     *
+     * @param redisEndpoint        the Redis endpoint to connect to
+     * @param decisionCacheOptions settings of the decision cache
+     */
+    public RedisSimpleAccessControl(String redisEndpoint, DecisionCacheOptions decisionCacheOptions) {
+        backend = new RedisBackend(redisEndpoint == null ? endpoint : redisEndpoint);
+        delegate = new SimpleAccessControlImpl(backend, decisionCacheOptions);
+    }
+
+    /**
+     * Creates an instance with the given {@link RedisBackendOptions}
+     *
+     * @param redisEndpoint        the Redis endpoint to connect to
+     * @param backendOptions       settings of the Redis backend
+     * @param decisionCacheOptions settings of the decision cache, null to disable caching
+     */
+    public RedisSimpleAccessControl(String redisEndpoint, RedisBackendOptions backendOptions, DecisionCacheOptions decisionCacheOptions) {
+        backend = new RedisBackend(redisEndpoint == null ? endpoint : redisEndpoint, backendOptions);
+        delegate = decisionCacheOptions == null
+                ? new SimpleAccessControlImpl(backend)
+                : new SimpleAccessControlImpl(backend, decisionCacheOptions);
+    }
+
     @Override
     public void createGroup(Group group) {
         delegate.createGroup(group);
@@ -56,6 +86,16 @@ public class RedisSimpleAccessControl implements SimpleAccessControl, Closeable
         delegate.unassignPrincipalFromGroup(groupId, principalId);
     }
 
+    @Override
+    public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        delegate.assignPrincipalsToGroups(assignments);
+    }
+
+    @Override
+    public void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        delegate.unassignPrincipalsFromGroups(assignments);
+    }
+
     @Override
     public List<String> getAllPrincipalsForGroup(String groupId) {
         return delegate.getAllPrincipalsForGroup(groupId);
@@ -106,24 +146,54 @@ public class RedisSimpleAccessControl implements SimpleAccessControl, Closeable
         delegate.unAssignPolicy(policyId, principalId);
     }
 
+    @Override
+    public void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        delegate.assignPolicyToPrincipals(policyId, principalIds);
+    }
+
     @Override
     public AuthorizationResponse authorize(AuthorizationRequest request) {
         return delegate.authorize(request);
     }
 
+    @Override
+    public CompletionStage<AuthorizationResponse> authorizeAsync(AuthorizationRequest request) {
+        return delegate.authorizeAsync(request);
+    }
+
+    @Override
+    public List<AuthorizationResponse> authorizeAll(List<AuthorizationRequest> requests) {
+        return delegate.authorizeAll(requests);
+    }
+
+    @Override
+    public PermittedResources listPermittedResources(String principal, String action, String after, int limit) {
+        return delegate.listPermittedResources(principal, action, after, limit);
+    }
+
+    @Override
+    public void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        delegate.forEachPrincipalWithAccess(resource, action, consumer);
+    }
+
     @Override
     public void grantActions(String resource, String principal, Set<String> actions) {
-        backend.grantActions(resource, principal, actions);
+        delegate.grantActions(resource, principal, actions);
+    }
+
+    @Override
+    public void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions) {
+        delegate.grantActionsOnResources(resources, principal, actions);
     }
 
     @Override
     public void revokeActions(String resource, String principal, Set<String> actions) {
-        backend.revokeActions(resource, principal, actions);
+        delegate.revokeActions(resource, principal, actions);
     }
 
     @Override
     public ResourcePolicy getResourcePolicy(String resource) {
-        return backend.getResourcePolicy(resource);
+        return delegate.getResourcePolicy(resource);
     }
 
     @Override
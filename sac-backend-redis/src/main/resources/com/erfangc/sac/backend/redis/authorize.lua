@@ -0,0 +1,76 @@
+-- Resolves everything needed to decide whether ARGV[1] (principal) may perform ARGV[3] (action) on ARGV[2] (resource)
+-- ARGV[4] is 1 when the transitive groups of principals are maintained as CLOSURE sets
+-- in a single round trip. Keys are derived inside the script, so it is only valid against a single (non clustered) Redis
+--
+-- returns {permitted by resource policy (0 or 1), transitive groups of the principal, identity policy JSON documents}
+-- identity policies are only returned when the resource policy did not already permit the request
+local principal = ARGV[1]
+local resource = ARGV[2]
+local action = ARGV[3]
+
+local groups = {}
+local seen = {}
+local queue = {}
+if ARGV[4] == '1' then
+    -- the transitive groups are maintained by closures.lua
+    groups = redis.call('SMEMBERS', 'CLOSURE:' .. principal)
+else
+    -- breadth first walk up the group graph
+    queue = redis.call('SMEMBERS', 'PRINCIPAL_TO_GROUP_MAP:' .. principal)
+end
+local head = 1
+while head <= #queue do
+    local gid = queue[head]
+    head = head + 1
+    if not seen[gid] then
+        seen[gid] = true
+        groups[#groups + 1] = gid
+        local parents = redis.call('SMEMBERS', 'GROUP_TO_GROUP_MAP:' .. gid)
+        for _, parent in ipairs(parents) do
+            if not seen[parent] then
+                queue[#queue + 1] = parent
+            end
+        end
+    end
+end
+
+local principals = { principal }
+for _, gid in ipairs(groups) do
+    principals[#principals + 1] = gid
+end
+
+-- resource policy: the policy of the resource itself and the prefix policies (/a/*, /a/b/* ...) of its ancestors
+local resources = { resource }
+for i = 1, #resource do
+    if string.sub(resource, i, i) == '/' then
+        resources[#resources + 1] = string.sub(resource, 1, i - 1) .. '/*'
+    end
+end
+for _, r in ipairs(resources) do
+    local key = 'RESOURCE_POLICY_ACTION_TO_PRINCIPAL_MAP:' .. r .. ':' .. action
+    if redis.call('EXISTS', key) == 1 then
+        for _, p in ipairs(principals) do
+            if redis.call('SISMEMBER', key, p) == 1 then
+                return { 1, groups, {} }
+            end
+        end
+    end
+end
+
+-- identity policies of the principal and all of its groups, de-duplicated
+local policies = {}
+local loaded = {}
+for _, p in ipairs(principals) do
+    local pids = redis.call('SMEMBERS', 'PRINCIPAL_TO_POLICY_MAP:' .. p)
+    for _, pid in ipairs(pids) do
+        if not loaded[pid] then
+            loaded[pid] = true
+            local json = redis.call('GET', 'POLICY:' .. pid)
+            if json then
+                policies[#policies + 1] = json
+            end
+        end
+    end
+end
+
+return { 0, groups, policies }
@@ -0,0 +1,34 @@
+-- The change feed of RedisBackend: the SAC_CHANGES list holds the latest changes, each prefixed by its sequence and a space, and
+-- SAC_CHANGE_SEQUENCE the sequence of the last change. Keys are derived inside the script, so it is only valid against a single (non
+-- clustered) Redis
+--
+-- ARGV[1] is the operation, followed by its arguments:
+--   append <maximum length of the feed> <change>...   number and append the changes, trim the feed and announce the last sequence
+--                                                      on the SAC_CHANGES channel. Returns {last sequence}
+--   read <sequence> <count>                            read up to count changes following the given sequence, starting from the
+--                                                      oldest change still held should some of them be trimmed already.
+--                                                      Returns {last sequence, {change...}}
+--   sequence                                           Returns {last sequence}
+local FEED = 'SAC_CHANGES'
+local SEQUENCE = 'SAC_CHANGE_SEQUENCE'
+local op = ARGV[1]
+
+if op == 'append' then
+    local count = #ARGV - 2
+    local sequence = redis.call('INCRBY', SEQUENCE, count) - count
+    for i = 3, #ARGV do
+        sequence = sequence + 1
+        redis.call('RPUSH', FEED, string.format('%d', sequence) .. ' ' .. ARGV[i])
+    end
+    redis.call('LTRIM', FEED, -tonumber(ARGV[2]), -1)
+    redis.call('PUBLISH', FEED, string.format('%d', sequence))
+    return { sequence }
+elseif op == 'sequence' then
+    return { tonumber(redis.call('GET', SEQUENCE) or '0') }
+elseif op == 'read' then
+    local last = tonumber(redis.call('GET', SEQUENCE) or '0')
+    local first = last - redis.call('LLEN', FEED) + 1
+    local start = math.max(tonumber(ARGV[2]) + 1, first) - first
+    return { last, redis.call('LRANGE', FEED, start, start + tonumber(ARGV[3]) - 1) }
+end
+return redis.error_reply('unknown operation ' .. tostring(op))
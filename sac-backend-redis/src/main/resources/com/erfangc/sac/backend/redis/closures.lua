@@ -0,0 +1,145 @@
+-- Changes group membership and brings the CLOSURE:<principal> sets of every principal affected by the change up to date, in one
+-- atomic step. A closure holds every group its principal belongs to, directly or through nested groups. Keys are derived inside the
+-- script, so it is only valid against a single (non clustered) Redis
+--
+-- ARGV[1] is the operation, followed by its arguments:
+--   assign <group> <principal> <1 if the principal is a group, 0 otherwise> [<group> <principal> <0 or 1>...]
+--   unassign <group> <principal> [<group> <principal>...]
+--   delete <group>
+--   refresh <principal>...        recompute the closures of the given principals
+--
+-- returns the principals whose closure was recomputed
+local op = ARGV[1]
+
+-- every principal and group below the given ones, found by walking down the members of each group
+local function descendants(roots)
+    local ret = {}
+    local seen = {}
+    local head = 1
+    for _, root in ipairs(roots) do
+        if not seen[root] then
+            seen[root] = true
+            ret[#ret + 1] = root
+        end
+    end
+    while head <= #ret do
+        local members = redis.call('SMEMBERS', 'GROUP_TO_PRINCIPAL_MAP:' .. ret[head])
+        head = head + 1
+        for _, member in ipairs(members) do
+            if not seen[member] then
+                seen[member] = true
+                ret[#ret + 1] = member
+            end
+        end
+    end
+    return ret
+end
+
+-- the groups reachable from a direct group, itself included. Memoized as many principals share the same direct groups
+local ancestors = {}
+local function up(gid)
+    if ancestors[gid] then
+        return ancestors[gid]
+    end
+    local ret = { gid }
+    local seen = { [gid] = true }
+    local head = 1
+    while head <= #ret do
+        local parents = redis.call('SMEMBERS', 'GROUP_TO_GROUP_MAP:' .. ret[head])
+        head = head + 1
+        for _, parent in ipairs(parents) do
+            if not seen[parent] then
+                seen[parent] = true
+                ret[#ret + 1] = parent
+            end
+        end
+    end
+    ancestors[gid] = ret
+    return ret
+end
+
+local function refresh(principals)
+    for _, principal in ipairs(principals) do
+        local key = 'CLOSURE:' .. principal
+        local closure = {}
+        local seen = {}
+        for _, direct in ipairs(redis.call('SMEMBERS', 'PRINCIPAL_TO_GROUP_MAP:' .. principal)) do
+            for _, gid in ipairs(up(direct)) do
+                if not seen[gid] then
+                    seen[gid] = true
+                    closure[#closure + 1] = gid
+                end
+            end
+        end
+        redis.call('DEL', key)
+        -- unpack is bounded by the Lua stack, add large closures in chunks
+        for i = 1, #closure, 1000 do
+            redis.call('SADD', key, unpack(closure, i, math.min(i + 999, #closure)))
+        end
+    end
+    return principals
+end
+
+-- the principals whose closure a batch of edge changes affects: those below changed group edges, and the members of other edges
+local function affected(groups, principals)
+    local ret = descendants(groups)
+    local seen = {}
+    for _, principal in ipairs(ret) do
+        seen[principal] = true
+    end
+    for _, principal in ipairs(principals) do
+        if not seen[principal] then
+            seen[principal] = true
+            ret[#ret + 1] = principal
+        end
+    end
+    return ret
+end
+
+if op == 'assign' then
+    local groups, principals = {}, {}
+    for i = 2, #ARGV, 3 do
+        local group, principal = ARGV[i], ARGV[i + 1]
+        redis.call('SADD', 'GROUP_TO_PRINCIPAL_MAP:' .. group, principal)
+        if ARGV[i + 2] == '1' then
+            redis.call('SADD', 'GROUP_TO_GROUP_MAP:' .. principal, group)
+            groups[#groups + 1] = principal
+        else
+            redis.call('SADD', 'PRINCIPAL_TO_GROUP_MAP:' .. principal, group)
+            principals[#principals + 1] = principal
+        end
+    end
+    return refresh(affected(groups, principals))
+elseif op == 'unassign' then
+    local groups, principals = {}, {}
+    for i = 2, #ARGV, 2 do
+        local group, principal = ARGV[i], ARGV[i + 1]
+        redis.call('SREM', 'GROUP_TO_PRINCIPAL_MAP:' .. group, principal)
+        redis.call('SREM', 'PRINCIPAL_TO_GROUP_MAP:' .. principal, group)
+        if redis.call('SREM', 'GROUP_TO_GROUP_MAP:' .. principal, group) == 1 then
+            groups[#groups + 1] = principal
+        else
+            principals[#principals + 1] = principal
+        end
+    end
+    return refresh(affected(groups, principals))
+elseif op == 'delete' then
+    local group = ARGV[2]
+    local members = redis.call('SMEMBERS', 'GROUP_TO_PRINCIPAL_MAP:' .. group)
+    -- everything below the group is affected, found before its edges are removed
+    local affected = descendants(members)
+    for _, member in ipairs(members) do
+        redis.call('SREM', 'GROUP_TO_GROUP_MAP:' .. member, group)
+        redis.call('SREM', 'PRINCIPAL_TO_GROUP_MAP:' .. member, group)
+    end
+    redis.call('DEL', 'GROUP_TO_PRINCIPAL_MAP:' .. group)
+    redis.call('DEL', 'GROUP:' .. group)
+    return refresh(affected)
+elseif op == 'refresh' then
+    local principals = {}
+    for i = 2, #ARGV do
+        principals[#principals + 1] = ARGV[i]
+    end
+    return refresh(principals)
+end
+return redis.error_reply('unknown operation ' .. tostring(op))
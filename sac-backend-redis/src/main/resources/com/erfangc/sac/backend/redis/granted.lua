@@ -0,0 +1,26 @@
+-- Checks whether any principal in ARGV is a member of any of KEYS, each being the set of principals holding one action on one
+-- resource (the requested resource itself, or one of the prefix policies above it)
+--
+-- returns 1 if one of them is, 0 otherwise
+for _, key in ipairs(KEYS) do
+    local size = redis.call('SCARD', key)
+    -- probe from whichever side is smaller, popular resources can have far more grantees than a principal has groups
+    if size > 0 and size < #ARGV then
+        local candidates = {}
+        for i = 1, #ARGV do
+            candidates[ARGV[i]] = true
+        end
+        for _, member in ipairs(redis.call('SMEMBERS', key)) do
+            if candidates[member] then
+                return 1
+            end
+        end
+    elseif size > 0 then
+        for i = 1, #ARGV do
+            if redis.call('SISMEMBER', key, ARGV[i]) == 1 then
+                return 1
+            end
+        end
+    end
+end
+return 0
@@ -0,0 +1,150 @@
+package com.erfangc.sac.backend.redis;
+
+import com.erfangc.sac.core.backend.BackendChange;
+import com.erfangc.sac.core.backend.BackendChangeListener;
+import com.erfangc.sac.core.backend.BackendReplicator;
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import com.erfangc.sac.interfaces.ImmutableGroupAssignment;
+import com.erfangc.sac.interfaces.ImmutableIdentityPolicy;
+import io.lettuce.core.RedisClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class RedisBackendChangeFeedTest {
+
+    private RedisServer redisServer;
+    private RedisBackend reader;
+    private RedisBackend writer;
+
+    @Before
+    public void setUp() throws IOException {
+        redisServer = new RedisServer(8080);
+        redisServer.start();
+        final RedisClient client = RedisClient.create("redis://localhost:8080");
+        client.connect().sync().flushall();
+        client.shutdown();
+        reader = withChangeFeed(100_000);
+        writer = withChangeFeed(100_000);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+        reader.close();
+        redisServer.stop();
+    }
+
+    private static RedisBackend withChangeFeed(long length) {
+        return new RedisBackend("localhost:8080", ImmutableRedisBackendOptions.builder().changeFeed(true).changeFeedLength(length).build());
+    }
+
+    private static void eventually(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void organisation() {
+        writer.createGroup(ImmutableGroup.builder().id("employees").name("Employees").build());
+        writer.createGroup(ImmutableGroup.builder().id("sales").name("Sales").build());
+        writer.updateGroup(ImmutableGroup.builder().id("sales").name("Sales").description("Sales team").build());
+        writer.assignPrincipalToGroup("employees", "sales", true);
+        writer.assignPrincipalToGroup("sales", "jane");
+        writer.assignPrincipalsToGroups(asList(
+                ImmutableGroupAssignment.builder().groupId("employees").principal("john").build(),
+                ImmutableGroupAssignment.builder().groupId("employees").principal("joe").build()
+        ));
+        writer.unassignPrincipalFromGroup("employees", "joe");
+        writer.createPolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(singletonList("sell")).build());
+        writer.assignPolicyToPrincipals("sell", asList("sales", "joe"));
+        writer.unAssignPolicy("sell", "joe");
+        writer.grantActions("/products/*", "employees", singleton("read"));
+        writer.grantActionsOnResources(asList("/products/toy", "/products/book"), "jane", new HashSet<>(asList("read", "write")));
+        writer.revokeActions("/products/book", "jane", singleton("write"));
+    }
+
+    @Test
+    public void changesReachOtherInstances() throws InterruptedException {
+        final List<BackendChange> changes = Collections.synchronizedList(new ArrayList<>());
+        reader.addChangeListener(changes::add);
+        organisation();
+
+        eventually(() -> changes.size() == 16);
+        assertEquals(16, writer.changeSequence());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i + 1, changes.get(i).sequence());
+        }
+        assertEquals(BackendChange.Type.GROUP_CREATED, changes.get(0).type());
+        assertEquals(BackendChange.Type.GROUP_UPDATED, changes.get(2).type());
+        assertEquals("Sales team", changes.get(2).group().get().description().get());
+        assertTrue(changes.get(3).principalIsGroup());
+        assertEquals(BackendChange.Type.POLICY_CREATED, changes.get(8).type());
+        assertEquals(BackendChange.Type.ACTIONS_REVOKED, changes.get(15).type());
+        assertEquals(singleton("write"), changes.get(15).actions());
+    }
+
+    @Test
+    public void listenersResumeAfterTheirLastSequence() throws InterruptedException {
+        organisation();
+        final List<BackendChange> changes = Collections.synchronizedList(new ArrayList<>());
+        final BackendChangeListener listener = changes::add;
+        reader.addChangeListener(listener, 10);
+
+        eventually(() -> changes.size() == 6);
+        assertEquals(11, changes.get(0).sequence());
+        reader.removeChangeListener(listener);
+        writer.grantActions("/products/toy", "joe", singleton("read"));
+        Thread.sleep(200);
+        assertEquals(6, changes.size());
+    }
+
+    @Test
+    public void replicasFollowRedis() throws InterruptedException {
+        writer.grantActions("/products/toy", "john", singleton("read"));
+        final InMemoryBackend replica = new InMemoryBackend();
+        final BackendReplicator replicator = new BackendReplicator(replica);
+        reader.addChangeListener(replicator);
+        replicator.load(reader);
+        organisation();
+
+        eventually(() -> replicator.lastSequence() == writer.changeSequence());
+        assertFalse(replicator.isStale());
+        assertEquals(new HashSet<>(asList("sales", "employees")), new HashSet<>(replica.getGroupMembershipTransitively("jane")));
+        assertEquals(singleton("sell"), new HashSet<>(replica.resolvePrincipalContext("jane").policyIds()));
+        assertTrue(replica.getResourceGrants("/products/toy").permits("john", Collections.emptySet(), "read"));
+        assertTrue(replica.getResourceGrants("/products/book").permits("jane", Collections.emptySet(), "read"));
+        assertFalse(replica.getResourceGrants("/products/book").permits("jane", Collections.emptySet(), "write"));
+        assertEquals("Sales team", replica.getGroup("sales").description().get());
+    }
+
+    @Test
+    public void trimmedChangesMarkReplicasStale() throws InterruptedException {
+        final RedisBackend trimming = withChangeFeed(5);
+        try {
+            for (int i = 0; i < 10; i++) {
+                trimming.grantActions("/documents/" + i, "jane", singleton("read"));
+            }
+            final BackendReplicator replicator = new BackendReplicator(new InMemoryBackend(), 2);
+            reader.addChangeListener(replicator, 2);
+            eventually(() -> replicator.lastSequence() == 10);
+            assertTrue(replicator.isStale());
+        } finally {
+            trimming.close();
+        }
+    }
+}
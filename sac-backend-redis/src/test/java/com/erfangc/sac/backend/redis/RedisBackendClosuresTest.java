@@ -0,0 +1,193 @@
+package com.erfangc.sac.backend.redis;
+
+import com.erfangc.sac.core.backend.AuthorizationContext;
+import com.erfangc.sac.interfaces.ImmutableAuthorizationRequest;
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import com.erfangc.sac.interfaces.ImmutableGroupAssignment;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.*;
+
+public class RedisBackendClosuresTest {
+
+    private RedisServer redisServer;
+    private RedisBackend backend;
+    /**
+     * Reads the same data by walking the group graph
+     */
+    private RedisBackend traversing;
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private RedisCommands<String, String> admin;
+
+    @Before
+    public void setUp() throws IOException {
+        redisServer = new RedisServer(8080);
+        redisServer.start();
+        backend = new RedisBackend("localhost:8080", ImmutableRedisBackendOptions.builder().materializedClosures(true).build());
+        traversing = new RedisBackend("localhost:8080");
+        client = RedisClient.create("redis://localhost:8080");
+        connection = client.connect();
+        admin = connection.sync();
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+        client.shutdown();
+        traversing.close();
+        backend.close();
+        redisServer.stop();
+    }
+
+    private void nestedGroups(RedisBackend backend, int depth) {
+        for (int i = 0; i < depth; i++) {
+            backend.createGroup(ImmutableGroup.builder().id("g" + i).name("g" + i).build());
+            if (i > 0) {
+                backend.assignPrincipalToGroup("g" + i, "g" + (i - 1), true);
+            }
+        }
+        backend.assignPrincipalToGroup("g0", "user");
+    }
+
+    private Set<String> closure(String principal) {
+        return admin.smembers("CLOSURE:" + principal);
+    }
+
+    @Test
+    public void closuresFollowNestedGroupChanges() {
+        nestedGroups(backend, 3);
+        assertEquals(new HashSet<>(asList("g0", "g1", "g2")), closure("user"));
+
+        backend.unassignPrincipalFromGroup("g2", "g1");
+        assertEquals(new HashSet<>(asList("g0", "g1")), closure("user"));
+
+        backend.assignPrincipalToGroup("g2", "g1", true);
+        backend.deleteGroup("g1");
+        assertEquals(singleton("g0"), closure("user"));
+        assertNull(admin.get("GROUP:g1"));
+
+        backend.unassignPrincipalFromGroup("g0", "user");
+        assertEquals(0L, (long) admin.exists("CLOSURE:user"));
+    }
+
+    @Test
+    public void cyclesAreClosedOver() {
+        nestedGroups(backend, 3);
+        backend.assignPrincipalToGroup("g0", "g2", true);
+        assertEquals(new HashSet<>(asList("g0", "g1", "g2")), closure("user"));
+        assertEquals(3, backend.getGroupMembershipTransitively("user").size());
+    }
+
+    @Test
+    public void groupsAreReadWithASingleCommand() {
+        nestedGroups(backend, 10);
+        admin.configResetstat();
+
+        assertEquals(10, backend.getGroupMembershipTransitively("user").size());
+
+        assertEquals("1", admin.info("commandstats").replaceAll("(?s).*cmdstat_smembers:calls=(\\d+),.*", "$1"));
+    }
+
+    @Test
+    public void scriptedAuthorizationReadsClosures() {
+        nestedGroups(backend, 5);
+        backend.grantActions("/books/book1", "g4", singleton("read"));
+        final RedisBackend scripted = new RedisBackend(
+                "localhost:8080",
+                ImmutableRedisBackendOptions.builder().materializedClosures(true).scriptedAuthorization(true).build()
+        );
+        try {
+            // the walk over the group graph is no longer needed, so the graph itself is not consulted
+            admin.del("GROUP_TO_GROUP_MAP:g0");
+            final AuthorizationContext context = scripted.resolveAuthorizationContext(
+                    ImmutableAuthorizationRequest.builder().id("request").principal("user").resource("/books/book1").action("read").build()
+            );
+            assertTrue(context.permittedByResourcePolicy());
+            assertEquals(5, context.groups().size());
+        } finally {
+            scripted.close();
+        }
+    }
+
+    @Test
+    public void closuresMatchTheGroupGraph() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            final String group = "g" + random.nextInt(10);
+            final boolean isGroup = random.nextBoolean();
+            final String principal = isGroup ? "g" + random.nextInt(10) : "u" + random.nextInt(10);
+            switch (random.nextInt(5)) {
+                case 0:
+                    backend.unassignPrincipalFromGroup(group, principal);
+                    break;
+                case 1:
+                    if (random.nextInt(10) == 0) {
+                        backend.deleteGroup(group);
+                    }
+                    break;
+                default:
+                    backend.assignPrincipalToGroup(group, principal, isGroup);
+            }
+            for (int u = 0; u < 10; u++) {
+                assertEquals(
+                        new HashSet<>(traversing.getGroupMembershipTransitively("u" + u)),
+                        new HashSet<>(backend.getGroupMembershipTransitively("u" + u))
+                );
+            }
+        }
+    }
+
+    @Test
+    public void bulkChangesAreAppliedByOneScript() {
+        nestedGroups(backend, 3);
+        admin.configResetstat();
+
+        backend.assignPrincipalsToGroups(asList(
+                ImmutableGroupAssignment.builder().groupId("g0").principal("other").build(),
+                ImmutableGroupAssignment.builder().groupId("top").principal("g2").principalIsGroup(true).build()
+        ));
+
+        // Redis 2.8 reports EVALSHA under eval, newer versions report it under its own name
+        assertTrue(admin.info("commandstats").matches("(?s).*cmdstat_eval(sha)?:calls=1,.*"));
+        assertEquals(new HashSet<>(asList("g0", "g1", "g2", "top")), closure("user"));
+        assertEquals(new HashSet<>(asList("g0", "g1", "g2", "top")), closure("other"));
+
+        backend.unassignPrincipalsFromGroups(asList(
+                ImmutableGroupAssignment.builder().groupId("g1").principal("g0").build(),
+                ImmutableGroupAssignment.builder().groupId("g0").principal("other").build()
+        ));
+        assertEquals(singleton("g0"), closure("user"));
+        assertEquals(0L, (long) admin.exists("CLOSURE:other"));
+    }
+
+    @Test
+    public void closuresAreRebuiltForExistingData() {
+        nestedGroups(traversing, 4);
+        traversing.assignPrincipalToGroup("g2", "other");
+        assertEquals(0L, (long) admin.exists("CLOSURE:user"));
+
+        assertEquals(2, backend.rebuildClosures());
+
+        assertEquals(new HashSet<>(asList("g0", "g1", "g2", "g3")), closure("user"));
+        assertEquals(new HashSet<>(asList("g2", "g3")), closure("other"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closuresAreOnlyRebuiltWhenMaintained() {
+        traversing.rebuildClosures();
+    }
+}
@@ -0,0 +1,154 @@
+package com.erfangc.sac.backend.redis;
+
+import com.erfangc.sac.interfaces.IdentityPolicy;
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import com.erfangc.sac.interfaces.ImmutableIdentityPolicy;
+import io.lettuce.core.KillArgs;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class RedisBackendNearCacheTest {
+
+    private RedisServer redisServer;
+    private RedisBackend reader;
+    private RedisBackend writer;
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private RedisCommands<String, String> admin;
+
+    @Before
+    public void setUp() throws IOException {
+        redisServer = new RedisServer(8080);
+        redisServer.start();
+        reader = nearCached(60, TimeUnit.SECONDS);
+        writer = nearCached(60, TimeUnit.SECONDS);
+        client = RedisClient.create("redis://localhost:8080");
+        connection = client.connect();
+        admin = connection.sync();
+        for (int i = 0; i < 3; i++) {
+            writer.createGroup(ImmutableGroup.builder().id("g" + i).name("g" + i).build());
+            writer.createPolicy(policy("p" + i, "read"));
+            writer.assignPolicy("p" + i, "g" + i);
+            if (i > 0) {
+                writer.assignPrincipalToGroup("g" + i, "g" + (i - 1), true);
+            }
+        }
+        writer.assignPrincipalToGroup("g0", "user");
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+        client.shutdown();
+        writer.close();
+        reader.close();
+        redisServer.stop();
+    }
+
+    private static RedisBackend nearCached(long timeToLive, TimeUnit unit) {
+        return new RedisBackend(
+                "localhost:8080",
+                ImmutableRedisBackendOptions
+                        .builder()
+                        .nearCache(true)
+                        .nearCacheTimeToLive(timeToLive)
+                        .nearCacheTimeToLiveUnit(unit)
+                        .build()
+        );
+    }
+
+    private static IdentityPolicy policy(String id, String action) {
+        return ImmutableIdentityPolicy.builder().id(id).resource("/books/*").actions(singletonList(action)).build();
+    }
+
+    private static boolean grants(RedisBackend backend, String policyId, String action) {
+        final List<IdentityPolicy> policies = backend.fetchIdentityPoliciesTransitivelyForPrincipal("user");
+        return policies.stream().anyMatch(policy -> policy.id().equals(policyId) && policy.actions().get().contains(action));
+    }
+
+    private static void eventually(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private Map<String, Long> commandCalls() {
+        final Map<String, Long> ret = new HashMap<>();
+        for (String line : admin.info("commandstats").split("\r?\n")) {
+            if (line.startsWith("cmdstat_")) {
+                final String command = line.substring("cmdstat_".length(), line.indexOf(':'));
+                final String calls = line.substring(line.indexOf("calls=") + "calls=".length(), line.indexOf(','));
+                ret.put(command, Long.parseLong(calls));
+            }
+        }
+        return ret;
+    }
+
+    @Test
+    public void cachedKeysAreNotReadAgain() throws InterruptedException {
+        // invalidations published while setting up are delivered asynchronously and may drop what the first reads cache
+        eventually(() -> {
+            reader.fetchIdentityPoliciesTransitivelyForPrincipal("user");
+            admin.configResetstat();
+            assertEquals(3, reader.fetchIdentityPoliciesTransitivelyForPrincipal("user").size());
+            return commandCalls().get("mget") == null;
+        });
+
+        final Map<String, Long> calls = commandCalls();
+        // only the direct groups of the principal are read, group parents, policy assignments and policies come from the near cache
+        assertEquals(Long.valueOf(1), calls.get("smembers"));
+        assertNull(calls.get("sunion"));
+        assertNull(calls.get("mget"));
+    }
+
+    @Test
+    public void mutationsOnAnotherInstanceInvalidateCachedKeys() throws InterruptedException {
+        assertTrue(grants(reader, "p2", "read"));
+
+        writer.updatePolicy(policy("p2", "write"));
+        eventually(() -> grants(reader, "p2", "write"));
+
+        writer.unassignPrincipalFromGroup("g2", "g1");
+        eventually(() -> reader.fetchIdentityPoliciesTransitivelyForPrincipal("user").size() == 2);
+
+        writer.unAssignPolicy("p0", "g0");
+        eventually(() -> reader.fetchIdentityPoliciesTransitivelyForPrincipal("user").size() == 1);
+    }
+
+    @Test
+    public void unannouncedChangesAreSeenOnceEntriesExpire() throws InterruptedException {
+        final RedisBackend shortLived = nearCached(200, TimeUnit.MILLISECONDS);
+        assertTrue(grants(shortLived, "p1", "read"));
+        // written behind the back of every RedisBackend, so no invalidation is published
+        admin.set("POLICY:p1", "{\"id\":\"p1\",\"resource\":\"/books/*\",\"actions\":[\"delete\"]}");
+        assertTrue(grants(shortLived, "p1", "read"));
+        eventually(() -> grants(shortLived, "p1", "delete"));
+    }
+
+    @Test
+    public void everythingIsDroppedWhenTheSubscriptionIsInterrupted() throws InterruptedException {
+        assertTrue(grants(reader, "p1", "read"));
+        admin.set("POLICY:p1", "{\"id\":\"p1\",\"resource\":\"/books/*\",\"actions\":[\"delete\"]}");
+        assertTrue(grants(reader, "p1", "read"));
+
+        admin.clientKill(KillArgs.Builder.typePubsub());
+        eventually(() -> grants(reader, "p1", "delete"));
+    }
+}
@@ -0,0 +1,309 @@
+package com.erfangc.sac.backend.redis;
+
+import com.erfangc.sac.core.backend.AuthorizationContext;
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.core.bundle.BundleExporter;
+import com.erfangc.sac.core.bundle.BundleImporter;
+import com.erfangc.sac.core.bundle.BundleStatistics;
+import com.erfangc.sac.interfaces.*;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.embedded.RedisServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class RedisBackendTest {
+
+    private RedisServer redisServer;
+    private RedisBackend backend;
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private RedisCommands<String, String> admin;
+
+    @Before
+    public void setUp() throws IOException {
+        redisServer = new RedisServer(8080);
+        redisServer.start();
+        backend = new RedisBackend("localhost:8080");
+        client = RedisClient.create("redis://localhost:8080");
+        connection = client.connect();
+        admin = connection.sync();
+    }
+
+    @After
+    public void tearDown() {
+        backend.close();
+        connection.close();
+        client.shutdown();
+        redisServer.stop();
+    }
+
+    /**
+     * Parses INFO commandstats into command name -> number of calls
+     */
+    private Map<String, Long> commandCalls() {
+        final Map<String, Long> ret = new HashMap<>();
+        for (String line : admin.info("commandstats").split("\r?\n")) {
+            if (line.startsWith("cmdstat_")) {
+                final String command = line.substring("cmdstat_".length(), line.indexOf(':'));
+                final String calls = line.substring(line.indexOf("calls=") + "calls=".length(), line.indexOf(','));
+                ret.put(command, Long.parseLong(calls));
+            }
+        }
+        return ret;
+    }
+
+    private void nestedGroupsWithPolicies(int depth) {
+        for (int i = 0; i < depth; i++) {
+            backend.createGroup(ImmutableGroup.builder().id("g" + i).name("g" + i).build());
+            final IdentityPolicy policy = ImmutableIdentityPolicy
+                    .builder()
+                    .id("p" + i)
+                    .resource("/level" + i + "/*")
+                    .actions(singletonList("read"))
+                    .build();
+            backend.createPolicy(policy);
+            backend.assignPolicy(policy.id(), "g" + i);
+            if (i > 0) {
+                backend.assignPrincipalToGroup("g" + i, "g" + (i - 1), true);
+            }
+        }
+        backend.assignPrincipalToGroup("g0", "user");
+    }
+
+    @Test
+    public void policiesAreLoadedWithBatchedCommands() {
+        nestedGroupsWithPolicies(5);
+        admin.configResetstat();
+
+        final List<IdentityPolicy> policies = backend.fetchIdentityPoliciesTransitivelyForPrincipal("user");
+
+        assertEquals(5, policies.size());
+        final Map<String, Long> calls = commandCalls();
+        assertEquals(Long.valueOf(1), calls.get("mget"));
+        assertEquals(Long.valueOf(1), calls.get("sunion"));
+        assertEquals(null, calls.get("get"));
+    }
+
+    @Test
+    public void groupsAreTraversedOncePerAuthorization() {
+        nestedGroupsWithPolicies(5);
+        admin.configResetstat();
+
+        final AuthorizationContext context = backend.resolveAuthorizationContext(request("/level3/doc", "read"));
+
+        assertEquals(5, context.groups().size());
+        assertEquals(5, context.identityPolicies().size());
+        final Map<String, Long> calls = commandCalls();
+        // one SMEMBERS for the direct groups of the principal and one per group, the resource is checked by a script
+        assertEquals(Long.valueOf(5 + 1), calls.get("smembers"));
+        assertEquals(Long.valueOf(1), calls.get("sunion"));
+        assertEquals(Long.valueOf(1), calls.get("mget"));
+    }
+
+    @Test
+    public void groupMembershipIsResolvedTransitively() {
+        nestedGroupsWithPolicies(5);
+        final List<String> gids = backend.getGroupMembershipTransitively("user");
+        assertEquals(5, gids.size());
+    }
+
+    @Test
+    public void resourcePolicyIsAssembledFromPipelinedReads() {
+        backend.grantActions("/books/book1", "jack", singleton("read"));
+        backend.grantActions("/books/book1", "jill", singleton("write"));
+        assertEquals(2, backend.getResourcePolicy("/books/book1").assignments().get().size());
+    }
+
+    @Test
+    public void scriptedAuthorizationUsesOneRoundTrip() {
+        nestedGroupsWithPolicies(5);
+        backend.grantActions("/books/book1", "g4", singleton("read"));
+        final RedisBackend scripted = new RedisBackend(
+                "localhost:8080",
+                ImmutableRedisBackendOptions.builder().scriptedAuthorization(true).build()
+        );
+        try {
+            admin.configResetstat();
+            final AuthorizationContext permitted = scripted.resolveAuthorizationContext(request("/books/book1", "read"));
+            assertTrue(permitted.permittedByResourcePolicy());
+            assertEquals(5, permitted.groups().size());
+            assertTrue(permitted.identityPolicies().isEmpty());
+            // Redis 2.8 reports EVALSHA under eval, newer versions report it under its own name
+            final Map<String, Long> calls = commandCalls();
+            assertEquals(1L, calls.getOrDefault("eval", 0L) + calls.getOrDefault("evalsha", 0L));
+
+            // the script is registered again when Redis no longer knows it
+            admin.scriptFlush();
+            final AuthorizationContext denied = scripted.resolveAuthorizationContext(request("/books/book1", "write"));
+            assertFalse(denied.permittedByResourcePolicy());
+            assertEquals(5, denied.identityPolicies().size());
+        } finally {
+            scripted.close();
+        }
+    }
+
+    @Test
+    public void unassigningAGroupFromAGroupRemovesTheEdge() {
+        nestedGroupsWithPolicies(3);
+        backend.unassignPrincipalFromGroup("g2", "g1");
+        assertEquals(2, backend.getGroupMembershipTransitively("user").size());
+    }
+
+    @Test
+    public void resourcePoliciesAreFetchedInBulk() {
+        backend.grantActions("/books/book1", "jack", singleton("read"));
+        backend.grantActions("/books/book2", "jill", singleton("write"));
+        backend.grantActions("/books/book2", "jack", singleton("read"));
+        final Map<String, ResourcePolicy> policies = backend.getResourcePolicies(asList("/books/book1", "/books/book2", "/books/book3"));
+        assertEquals(2, policies.size());
+        assertEquals(1, policies.get("/books/book1").assignments().get().size());
+        assertEquals(2, policies.get("/books/book2").assignments().get().size());
+    }
+
+    @Test
+    public void resourcePolicyIsCheckedWithoutReadingItsGrantees() {
+        nestedGroupsWithPolicies(5);
+        for (int i = 0; i < 1_000; i++) {
+            backend.grantActions("/books/book1", "reader" + i, singleton("read"));
+        }
+        backend.grantActions("/books/book1", "g4", singleton("read"));
+        admin.configResetstat();
+
+        final AuthorizationContext context = backend.resolveAuthorizationContext(request("/books/book1", "read"));
+
+        assertTrue(context.permittedByResourcePolicy());
+        final Map<String, Long> calls = commandCalls();
+        // only the group traversal reads sets back, and no identity policy is loaded
+        assertEquals(Long.valueOf(5 + 1), calls.get("smembers"));
+        assertNull(calls.get("mget"));
+        assertFalse(backend.isGrantedToAny("/books/book1", "write", asList("user", "g4")));
+        assertTrue(backend.isGrantedToAny("/books/book1", "read", asList("nobody", "reader999")));
+    }
+
+    @Test
+    public void granteesAreVisitedWithScanCursors() {
+        backend.grantActionsOnResources(singletonList("/books/*"), "g1", singleton("read"));
+        for (int i = 0; i < 1_200; i++) {
+            backend.grantActions("/books/book1", "reader" + i, singleton("read"));
+            backend.assignPrincipalToGroup("g1", "member" + i);
+        }
+        backend.grantActions("/books/*", "reader7", singleton("read"));
+        admin.configResetstat();
+
+        final List<String> principals = new ArrayList<>();
+        backend.forEachPrincipalWithAccess("/books/book1", "read", principals::add);
+
+        assertEquals(2_400, principals.size());
+        assertEquals(2_400, new HashSet<>(principals).size());
+        // the grantees and the members of g1 are read one page at a time
+        assertTrue(commandCalls().get("sscan") > 2 * 3);
+    }
+
+    @Test
+    public void bulkAssignmentsAreAppliedInOneTransaction() {
+        final List<GroupAssignment> assignments = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            assignments.add(ImmutableGroupAssignment.builder().groupId("g" + i % 10).principal("user" + i).build());
+        }
+        admin.configResetstat();
+
+        backend.assignPrincipalsToGroups(assignments);
+
+        final Map<String, Long> calls = commandCalls();
+        assertEquals(Long.valueOf(1), calls.get("multi"));
+        assertEquals(Long.valueOf(1), calls.get("exec"));
+        assertEquals(Long.valueOf(2_000), calls.get("sadd"));
+        assertEquals(100, backend.getAllPrincipalsForGroup("g3").size());
+        assertEquals(singletonList("g7"), backend.getGroupMembership("user997"));
+    }
+
+    @Test
+    public void bundlesAreExportedWithScanCursors() throws IOException {
+        nestedGroupsWithPolicies(3);
+        for (int i = 0; i < 1_200; i++) {
+            backend.assignPrincipalToGroup("g1", "member" + i);
+        }
+        backend.grantActions("/books/*", "g2", singleton("read"));
+        backend.grantActions("/books/book1", "user", new HashSet<>(asList("read", "write")));
+        final ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        admin.configResetstat();
+
+        final BundleStatistics exported = new BundleExporter(backend).exportBundle(bundle);
+
+        assertNull(commandCalls().get("keys"));
+        assertEquals(3, exported.groups());
+        assertEquals(1_200 + 3, exported.groupAssignments());
+        assertEquals(3, exported.identityPolicies());
+        assertEquals(3, exported.policyAssignments());
+        assertEquals(2, exported.resourcePolicies());
+
+        final InMemoryBackend imported = new InMemoryBackend();
+        assertEquals(exported, new BundleImporter(imported).importBundle(new ByteArrayInputStream(bundle.toByteArray())));
+        assertEquals(new HashSet<>(backend.getGroupMembershipTransitively("user")), new HashSet<>(imported.getGroupMembershipTransitively("user")));
+        assertEquals(1_200, imported.getAllPrincipalsForGroup("g1").size());
+        assertEquals(backend.getPolicy("p2"), imported.getPolicy("p2"));
+        assertTrue(imported.isGrantedToAny("/books/book2", "read", singletonList("g2")));
+        assertTrue(imported.isGrantedToAny("/books/book1", "write", singletonList("user")));
+    }
+
+    @Test
+    public void revokedActionsAreNoLongerGranted() {
+        admin.configResetstat();
+        backend.grantActions("/books/book1", "jack", new HashSet<>(asList("read", "write")));
+        backend.revokeActions("/books/book1", "jack", singleton("write"));
+        assertTrue(backend.isGrantedToAny("/books/book1", "read", singletonList("jack")));
+        assertFalse(backend.isGrantedToAny("/books/book1", "write", singletonList("jack")));
+        assertEquals(1, backend.getResourcePolicy("/books/book1").assignments().get().size());
+        // both the grant and the revoke are applied atomically
+        assertEquals(Long.valueOf(2), commandCalls().get("exec"));
+
+        backend.revokeActions("/books/book1", "jack", singleton("read"));
+        assertFalse(backend.isGrantedToAny("/books/book1", "read", singletonList("jack")));
+        assertNull(backend.getResourcePolicy("/books/book1"));
+    }
+
+    @Test
+    public void grantsStoredByEarlierVersionsAreMigrated() {
+        // the layout written before grants were also indexed by action
+        for (int i = 0; i < 1_200; i++) {
+            admin.sadd("RESOURCE_POLICY_MAP:/books/book" + i, "jack");
+            admin.sadd("RESOURCE_POLICY_PRINCIPAL_TO_ACTIONS_MAP:/books/book" + i + ":jack", "read", "write");
+        }
+        assertFalse(backend.isGrantedToAny("/books/book7", "write", singletonList("jack")));
+
+        assertEquals(1_200, backend.migrateResourcePolicies());
+
+        assertTrue(backend.isGrantedToAny("/books/book7", "write", singletonList("jack")));
+        assertTrue(backend.isGrantedToAny("/books/book1199", "read", singletonList("jack")));
+        assertFalse(backend.isGrantedToAny("/books/book7", "delete", singletonList("jack")));
+        // migrating again is harmless
+        assertEquals(1_200, backend.migrateResourcePolicies());
+    }
+
+    private static AuthorizationRequest request(String resource, String action) {
+        return ImmutableAuthorizationRequest
+                .builder()
+                .id("request")
+                .principal("user")
+                .resource(resource)
+                .action(action)
+                .build();
+    }
+}
@@ -3,12 +3,16 @@ package com.erfangc.sac.backend.tests;
 import com.erfangc.sac.interfaces.*;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
@@ -429,6 +433,86 @@ public class BackendTestBase {
         assertEquals(AuthorizationStatus.Permitted, sac.authorize(request.withAction("read")).status());
     }
 
+    @Test
+    public void authorizeAgainstPrefixResourcePolicy() {
+        final Group allEmployees = allEmployees();
+        final String hrGuy = "hr guy";
+        sac.assignPrincipalToGroup(humanResources().id(), hrGuy);
+        final ImmutableAuthorizationRequest request = ImmutableAuthorizationRequest
+                .builder()
+                .id("test request")
+                .action("read")
+                .resource("/library/fiction/book1")
+                .principal(hrGuy)
+                .build();
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request).status());
+
+        // a prefix policy applies to everything below its path, but not to the path itself or to its siblings
+        sac.grantActions("/library/fiction/*", allEmployees.id(), singleton("read"));
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(request).status());
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(request.withResource("/library/fiction/series/book2")).status());
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request.withResource("/library/fiction")).status());
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request.withResource("/library/poetry/book1")).status());
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request.withAction("write")).status());
+        assertEquals(
+                asList(AuthorizationStatus.Permitted, AuthorizationStatus.Denied),
+                sac.authorizeAll(asList(request, request.withResource("/library/poetry/book1")))
+                        .stream()
+                        .map(AuthorizationResponse::status)
+                        .collect(Collectors.toList())
+        );
+
+        // grants of the resource itself and of every ancestor combine
+        sac.grantActions("/*", hrGuy, singleton("write"));
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(request.withAction("write")).status());
+
+        sac.revokeActions("/library/fiction/*", allEmployees.id(), singleton("read"));
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request).status());
+    }
+
+    @Test
+    public void bulkMutations() {
+        final String hrGuy = "hr guy";
+        final String itGuy = "it guy";
+        final ImmutableAuthorizationRequest request = ImmutableAuthorizationRequest
+                .builder()
+                .id("test request")
+                .action("login")
+                .principal(hrGuy)
+                .resource("/org/servers/server1")
+                .build();
+        // warm up a caching instance, so that stale decisions would show
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request).status());
+
+        final Group contractors = ImmutableGroup.builder().id("contractors").name("Contractors").build();
+        sac.createGroup(contractors);
+        sac.assignPrincipalsToGroups(asList(
+                ImmutableGroupAssignment.builder().groupId(humanResources().id()).principal(hrGuy).build(),
+                ImmutableGroupAssignment.builder().groupId(networkAdmins().id()).principal(itGuy).build(),
+                ImmutableGroupAssignment.builder().groupId(networkAdmins().id()).principal(contractors.id()).principalIsGroup(true).build()
+        ));
+        assertEquals(singletonList(networkAdmins().id()), sac.getGroupMembership(itGuy));
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(request.withPrincipal(itGuy)).status());
+
+        sac.assignPolicyToPrincipals(serverLoginPolicy().id(), asList(hrGuy, "someone else"));
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(request).status());
+
+        sac.grantActionsOnResources(asList("/books/book1", "/books/book2"), contractors.id(), singleton("read"));
+        sac.assignPrincipalToGroup(contractors.id(), "contractor");
+        final ImmutableAuthorizationRequest read = request.withPrincipal("contractor").withAction("read");
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(read.withResource("/books/book1")).status());
+        assertEquals(AuthorizationStatus.Permitted, sac.authorize(read.withResource("/books/book2")).status());
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(read.withResource("/books/book3")).status());
+
+        sac.unassignPrincipalsFromGroups(asList(
+                ImmutableGroupAssignment.builder().groupId(networkAdmins().id()).principal(itGuy).build(),
+                ImmutableGroupAssignment.builder().groupId(networkAdmins().id()).principal(contractors.id()).build()
+        ));
+        assertTrue(sac.getGroupMembership(itGuy).isEmpty());
+        assertEquals(AuthorizationStatus.Denied, sac.authorize(request.withPrincipal(itGuy)).status());
+        assertEquals(singletonList(contractors.id()), sac.getGroupMembershipTransitively("contractor"));
+    }
+
     private Set<String> readAndWrite() {
         Set<String> actions = new HashSet<>();
         actions.add("write");
@@ -462,4 +546,153 @@ public class BackendTestBase {
         final AuthorizationResponse authorizationResponse2 = sac.authorize(authorizationRequest.withAction("delete"));
         assertEquals(AuthorizationStatus.Denied, authorizationResponse2.status());
     }
+
+    @Test
+    public void authorizeAll() {
+        final String hrGuy = "hr guy";
+        final String itGuy = "it guy";
+        sac.assignPrincipalToGroup(humanResources().id(), hrGuy);
+        sac.assignPrincipalToGroup(networkAdmins().id(), itGuy);
+        sac.grantActions("/books/book1", itGuy, singleton("read"));
+        final ImmutableAuthorizationRequest request = ImmutableAuthorizationRequest
+                .builder()
+                .id("test request")
+                .action("increase")
+                .principal(hrGuy)
+                .resource("/org/employees/jackjones/pay")
+                .build();
+        final List<AuthorizationRequest> requests = asList(
+                request,
+                request.withPrincipal(itGuy),
+                request.withId("book request").withResource("/books/book1").withAction("read"),
+                request.withId("book request").withResource("/books/book1").withAction("read").withPrincipal(itGuy),
+                request.withAction("read").withResource("/org/employees/jackjones")
+        );
+        final List<AuthorizationResponse> responses = sac.authorizeAll(requests);
+        assertEquals(requests.size(), responses.size());
+        for (int i = 0; i < requests.size(); i++) {
+            assertEquals(requests.get(i).id(), responses.get(i).requestId());
+            assertEquals(sac.authorize(requests.get(i)).status(), responses.get(i).status());
+        }
+        assertEquals(AuthorizationStatus.Permitted, responses.get(0).status());
+        assertEquals(AuthorizationStatus.Denied, responses.get(1).status());
+        assertEquals(AuthorizationStatus.Denied, responses.get(2).status());
+        assertEquals(AuthorizationStatus.Permitted, responses.get(3).status());
+        assertEquals(AuthorizationStatus.Permitted, responses.get(4).status());
+    }
+
+    @Test
+    public void authorizeAsync() throws Exception {
+        final String hrGuy = "hr guy";
+        sac.assignPrincipalToGroup(humanResources().id(), hrGuy);
+        sac.grantActions("/books/book1", humanResources().id(), singleton("read"));
+        final ImmutableAuthorizationRequest request = ImmutableAuthorizationRequest
+                .builder()
+                .id("test request")
+                .action("increase")
+                .principal(hrGuy)
+                .resource("/org/employees/jackjones/pay")
+                .build();
+        final AuthorizationResponse response = sac.authorizeAsync(request).toCompletableFuture().get();
+        assertEquals(request.id(), response.requestId());
+        assertEquals(AuthorizationStatus.Permitted, response.status());
+        assertEquals(
+                AuthorizationStatus.Denied,
+                sac.authorizeAsync(request.withAction("delete")).toCompletableFuture().get().status()
+        );
+        assertEquals(
+                AuthorizationStatus.Permitted,
+                sac.authorizeAsync(request.withResource("/books/book1").withAction("read")).toCompletableFuture().get().status()
+        );
+    }
+
+    @Test
+    public void listPermittedResources() {
+        final String hrGuy = "hr guy";
+        sac.assignPrincipalToGroup(humanResources().id(), hrGuy);
+        sac.grantActionsOnResources(asList("/books/b", "/books/d", "/books/a"), hrGuy, singleton("read"));
+        sac.grantActions("/books/c", humanResources().id(), new HashSet<>(asList("read", "write")));
+        sac.grantActions("/magazines/*", allEmployees().id(), singleton("read"));
+        sac.grantActions("/books/e", "someone else", singleton("read"));
+        sac.revokeActions("/books/d", hrGuy, singleton("read"));
+        final IdentityPolicy denyPayslips = ImmutableIdentityPolicy
+                .builder()
+                .id("deny payslips")
+                .effectDeny(true)
+                .actions(singletonList("read"))
+                .resource("/org/employees/*/payslips")
+                .build();
+        sac.createPolicy(denyPayslips);
+        sac.assignPolicy(denyPayslips.id(), hrGuy);
+
+        final PermittedResources first = sac.listPermittedResources(hrGuy, "read", null, 2);
+        assertEquals(asList("/books/a", "/books/b"), first.resources());
+        assertEquals(singletonList(employeeReadOnlyPolicy().resource().get()), first.patterns());
+        assertEquals(singletonList(denyPayslips.resource().get()), first.deniedPatterns());
+        assertEquals(Optional.of("/books/b"), first.next());
+
+        final PermittedResources second = sac.listPermittedResources(hrGuy, "read", first.next().get(), 2);
+        assertEquals(asList("/books/c", "/magazines/*"), second.resources());
+        final PermittedResources last = sac.listPermittedResources(hrGuy, "read", second.next().get(), 2);
+        assertEquals(emptyList(), last.resources());
+        assertFalse(last.next().isPresent());
+
+        final PermittedResources writable = sac.listPermittedResources(hrGuy, "write", null, 10);
+        assertEquals(singletonList("/books/c"), writable.resources());
+        assertEquals(emptyList(), writable.patterns());
+        assertFalse(writable.next().isPresent());
+        assertEquals(emptyList(), sac.listPermittedResources("it guy", "read", null, 10).resources());
+    }
+
+    @Test
+    public void forEachPrincipalWithAccess() {
+        sac.assignPrincipalToGroup(humanResources().id(), "hr guy");
+        sac.assignPrincipalToGroup(networkAdmins().id(), "it guy");
+        // reached along several paths, visited once
+        sac.assignPrincipalToGroup(allEmployees().id(), "intern");
+        sac.assignPrincipalToGroup(humanResources().id(), "intern");
+        sac.createGroup(ImmutableGroup.builder().id("contractors").name("Contractors").build());
+        sac.assignPrincipalToGroup("contractors", "contractor");
+        sac.assignPolicy(employeeReadOnlyPolicy().id(), "auditor");
+        final List<String> everyone = asList("hr guy", "it guy", "intern", "contractor", "auditor", "outsider");
+
+        assertEquals(new HashSet<>(asList("hr guy", "it guy", "intern", "auditor")), principalsWithAccess("/org/employees/jsmith", "read"));
+        assertEquals(new HashSet<>(asList("hr guy", "intern")), principalsWithAccess("/org/employees/jsmith/pay", "increase"));
+        assertEquals(singleton("it guy"), principalsWithAccess("/org/servers/server1", "login"));
+        assertEquals(emptySet(), principalsWithAccess("/org/servers/server1", "read"));
+
+        // denies override identity policies that permit, but not resource policies
+        final IdentityPolicy denyJsmith = ImmutableIdentityPolicy
+                .builder()
+                .id("deny jsmith")
+                .effectDeny(true)
+                .actions(singletonList("read"))
+                .resource("/org/employees/jsmith")
+                .build();
+        sac.createPolicy(denyJsmith);
+        sac.assignPolicy(denyJsmith.id(), humanResources().id());
+        sac.grantActions("/org/employees/jsmith", "intern", singleton("read"));
+        sac.grantActions("/org/*", "contractors", singleton("read"));
+
+        final Set<String> principals = principalsWithAccess("/org/employees/jsmith", "read");
+        assertEquals(new HashSet<>(asList("it guy", "intern", "contractor", "auditor")), principals);
+        for (String principal : everyone) {
+            final ImmutableAuthorizationRequest request = ImmutableAuthorizationRequest
+                    .builder()
+                    .id("test request")
+                    .action("read")
+                    .principal(principal)
+                    .resource("/org/employees/jsmith")
+                    .build();
+            assertEquals(principal, principals.contains(principal), sac.authorize(request).status() == AuthorizationStatus.Permitted);
+        }
+    }
+
+    private Set<String> principalsWithAccess(String resource, String action) {
+        final List<String> principals = new ArrayList<>();
+        sac.forEachPrincipalWithAccess(resource, action, principals::add);
+        final Set<String> ret = new HashSet<>(principals);
+        assertEquals(principals.size(), ret.size());
+        return ret;
+    }
 }
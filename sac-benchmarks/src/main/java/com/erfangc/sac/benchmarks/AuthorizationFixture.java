@@ -0,0 +1,136 @@
+package com.erfangc.sac.benchmarks;
+
+import com.erfangc.sac.interfaces.*;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+
+/**
+ * {@link AuthorizationFixture} populates a {@link SimpleAccessControl} with a synthetic, reproducible set of groups and policies
+ * shaped by the benchmark parameters, and pre-computes the requests benchmarks replay against it
+ * <p>
+ * The principal under test is directly assigned to every group of the first level of a group hierarchy {@link #groupDepth} levels deep and
+ * {@link #groupFanOut} groups wide, where each group is a member of every group on the next level. Identity policies are spread evenly
+ * across the principal and all of those groups
+ */
+@State(Scope.Benchmark)
+public abstract class AuthorizationFixture {
+
+    static final String PRINCIPAL = "user";
+    static final String SHARED_RESOURCE = "/shared/folder";
+    private static final int REQUESTS = 1024;
+
+    /**
+     * Number of identity policies assigned to the principal, directly or through its groups
+     */
+    @Param({"1", "10", "100"})
+    public int policiesPerPrincipal;
+
+    @Param({"1", "4"})
+    public int groupDepth;
+
+    @Param({"1", "4"})
+    public int groupFanOut;
+
+    /**
+     * Number of assignments the resource policy of {@link #SHARED_RESOURCE} carries besides the one granting access to the principal
+     */
+    @Param({"0", "100", "1000"})
+    public int resourcePolicyAssignments;
+
+    /**
+     * Fraction of identity policies whose resource is a wildcard pattern rather than a literal
+     */
+    @Param({"0.0", "0.5", "1.0"})
+    public double wildcardDensity;
+
+    private AuthorizationRequest[] identityPolicyRequests;
+    private AuthorizationRequest resourcePolicyRequest;
+
+    protected void populate(SimpleAccessControl sac) {
+        final Random random = new Random(42);
+        final List<String> groups = new ArrayList<>();
+        for (int level = 0; level < groupDepth; level++) {
+            for (int i = 0; i < groupFanOut; i++) {
+                final String gid = group(level, i);
+                sac.createGroup(ImmutableGroup.builder().id(gid).name(gid).build());
+                groups.add(gid);
+                if (level == 0) {
+                    sac.assignPrincipalToGroup(gid, PRINCIPAL);
+                } else {
+                    for (int j = 0; j < groupFanOut; j++) {
+                        sac.assignPrincipalToGroup(gid, group(level - 1, j), true);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < policiesPerPrincipal; i++) {
+            final String resource = random.nextDouble() < wildcardDensity ? "/org/dept" + i + "/*" : "/org/dept" + i + "/doc";
+            final IdentityPolicy policy = ImmutableIdentityPolicy
+                    .builder()
+                    .id("policy" + i)
+                    .resource(resource)
+                    .actions(singletonList("read"))
+                    .build();
+            sac.createPolicy(policy);
+            final int assignee = i % (groups.size() + 1);
+            sac.assignPolicy(policy.id(), assignee == 0 ? PRINCIPAL : groups.get(assignee - 1));
+        }
+
+        // other principals are granted access first, the principal is only reached through its most distant group
+        for (int i = 0; i < resourcePolicyAssignments; i++) {
+            sac.grantActions(SHARED_RESOURCE, "other" + i, singleton("read"));
+        }
+        sac.grantActions(SHARED_RESOURCE, group(groupDepth - 1, groupFanOut - 1), singleton("read"));
+
+        // about half of the requests target a resource covered by one of the policies, the rest are denied
+        identityPolicyRequests = new AuthorizationRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            identityPolicyRequests[i] = request("/org/dept" + random.nextInt(policiesPerPrincipal * 2) + "/doc");
+        }
+        resourcePolicyRequest = request(SHARED_RESOURCE);
+    }
+
+    private static String group(int level, int i) {
+        return "group-" + level + "-" + i;
+    }
+
+    private static AuthorizationRequest request(String resource) {
+        return ImmutableAuthorizationRequest
+                .builder()
+                .id("request")
+                .principal(PRINCIPAL)
+                .resource(resource)
+                .action("read")
+                .build();
+    }
+
+    protected AuthorizationRequest identityPolicyRequest(Cursor cursor) {
+        return identityPolicyRequests[cursor.next()];
+    }
+
+    protected AuthorizationRequest resourcePolicyRequest() {
+        return resourcePolicyRequest;
+    }
+
+    /**
+     * Per thread position in the pre-computed requests
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next() {
+            position = (position + 1) & (REQUESTS - 1);
+            return position;
+        }
+    }
+}
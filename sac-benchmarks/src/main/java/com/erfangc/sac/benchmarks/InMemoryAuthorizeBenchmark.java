@@ -0,0 +1,39 @@
+package com.erfangc.sac.benchmarks;
+
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.core.service.SimpleAccessControlImpl;
+import com.erfangc.sac.interfaces.AuthorizationResponse;
+import com.erfangc.sac.interfaces.SimpleAccessControl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end authorization against {@link InMemoryBackend}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryAuthorizeBenchmark extends AuthorizationFixture {
+
+    private SimpleAccessControl sac;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sac = new SimpleAccessControlImpl(new InMemoryBackend());
+        populate(sac);
+    }
+
+    @Benchmark
+    public AuthorizationResponse identityPolicy(Cursor cursor) {
+        return sac.authorize(identityPolicyRequest(cursor));
+    }
+
+    @Benchmark
+    public AuthorizationResponse resourcePolicy() {
+        return sac.authorize(resourcePolicyRequest());
+    }
+}
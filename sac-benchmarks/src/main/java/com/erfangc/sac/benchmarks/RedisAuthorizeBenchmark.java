@@ -0,0 +1,70 @@
+package com.erfangc.sac.benchmarks;
+
+import com.erfangc.sac.backend.redis.ImmutableRedisBackendOptions;
+import com.erfangc.sac.interfaces.AuthorizationResponse;
+import com.erfangc.sac.redis.RedisSimpleAccessControl;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import org.openjdk.jmh.annotations.*;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end authorization against {@link com.erfangc.sac.backend.redis.RedisBackend} backed by an embedded Redis server
+ * started for each trial. Since the server is local, results mostly reflect the number of commands and round trips
+ * rather than network latency
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisAuthorizeBenchmark extends AuthorizationFixture {
+
+    @Param({"6399"})
+    public int port;
+
+    @Param({"false", "true"})
+    public boolean scriptedAuthorization;
+
+    private RedisServer redisServer;
+    private RedisSimpleAccessControl sac;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        // the embedded server may reload a snapshot written by a previous trial
+        final RedisClient client = RedisClient.create("redis://localhost:" + port);
+        try (StatefulRedisConnection<String, String> connection = client.connect()) {
+            connection.sync().flushall();
+        } finally {
+            client.shutdown();
+        }
+        sac = new RedisSimpleAccessControl(
+                "localhost:" + port,
+                ImmutableRedisBackendOptions.builder().scriptedAuthorization(scriptedAuthorization).build(),
+                null
+        );
+        populate(sac);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sac.close();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public AuthorizationResponse identityPolicy(Cursor cursor) {
+        return sac.authorize(identityPolicyRequest(cursor));
+    }
+
+    @Benchmark
+    public AuthorizationResponse resourcePolicy() {
+        return sac.authorize(resourcePolicyRequest());
+    }
+}
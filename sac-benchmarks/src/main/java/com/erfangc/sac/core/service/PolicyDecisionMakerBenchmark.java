@@ -0,0 +1,89 @@
+package com.erfangc.sac.core.service;
+
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import com.erfangc.sac.interfaces.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Evaluation of identity policies in isolation, without any backend. This lives in the package of {@link PolicyDecisionMaker}
+ * since the class is not public
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyDecisionMakerBenchmark {
+
+    private static final int REQUESTS = 1024;
+
+    @Param({"1", "10", "100", "1000"})
+    public int policies;
+
+    /**
+     * Fraction of policies whose resource is a wildcard pattern rather than a literal
+     */
+    @Param({"0.0", "0.5", "1.0"})
+    public double wildcardDensity;
+
+    private PolicyDecisionMaker policyDecisionMaker;
+    private List<IdentityPolicy> identityPolicies;
+    private List<CompiledIdentityPolicy> compiledIdentityPolicies;
+    private AuthorizationRequest[] requests;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        policyDecisionMaker = new PolicyDecisionMaker();
+        identityPolicies = new ArrayList<>(policies);
+        for (int i = 0; i < policies; i++) {
+            identityPolicies.add(
+                    ImmutableIdentityPolicy
+                            .builder()
+                            .id("policy" + i)
+                            .resource(random.nextDouble() < wildcardDensity ? "/org/dept" + i + "/*" : "/org/dept" + i + "/doc")
+                            .actions(singletonList("read"))
+                            .build()
+            );
+        }
+        compiledIdentityPolicies = identityPolicies.stream().map(CompiledIdentityPolicy::compile).collect(toList());
+        requests = new AuthorizationRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            requests[i] = ImmutableAuthorizationRequest
+                    .builder()
+                    .id("request")
+                    .principal("user")
+                    .resource("/org/dept" + random.nextInt(policies * 2) + "/doc")
+                    .action("read")
+                    .build();
+        }
+    }
+
+    private AuthorizationRequest nextRequest() {
+        position = (position + 1) & (REQUESTS - 1);
+        return requests[position];
+    }
+
+    /**
+     * Includes compiling every policy, as done for backends that do not keep compiled policies
+     */
+    @Benchmark
+    public AuthorizationResponse makeAccessDecision() {
+        return policyDecisionMaker.makeAccessDecision(nextRequest(), identityPolicies);
+    }
+
+    @Benchmark
+    public AuthorizationResponse decide() {
+        return policyDecisionMaker.decide(nextRequest(), compiledIdentityPolicies);
+    }
+}
@@ -0,0 +1,31 @@
+package com.erfangc.sac.core.backend;
+
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import org.immutables.value.Value;
+
+import java.util.List;
+
+/**
+ * {@link AuthorizationContext} carries everything the decision process needs to know about a single
+ * {@link com.erfangc.sac.interfaces.AuthorizationRequest}, as gathered by a {@link Backend}
+ */
+@Value.Immutable
+public interface AuthorizationContext {
+
+    /**
+     * @return the groups the requesting principal belongs to, directly or transitively
+     */
+    List<String> groups();
+
+    /**
+     * @return true if a resource policy attached to the requested resource grants the requested action to the principal
+     * or to any of its groups
+     */
+    boolean permittedByResourcePolicy();
+
+    /**
+     * @return the identity policies that may apply to the request, this is left empty when access is already
+     * permitted by a resource policy
+     */
+    List<CompiledIdentityPolicy> identityPolicies();
+}
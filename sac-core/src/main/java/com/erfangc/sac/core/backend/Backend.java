@@ -1,8 +1,21 @@
 package com.erfangc.sac.core.backend;
 
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import com.erfangc.sac.core.policy.ResourceGrants;
+import com.erfangc.sac.core.policy.ResourcePaths;
+import com.erfangc.sac.interfaces.AuthorizationRequest;
 import com.erfangc.sac.interfaces.IdentityPolicy;
+import com.erfangc.sac.interfaces.Node;
+import com.erfangc.sac.interfaces.ResourcePolicy;
+import com.erfangc.sac.interfaces.ResourcePolicyAssignment;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
 
 /**
  * {@link Backend} is the aggregating interface that incorporates methods and features from all the
@@ -11,4 +24,256 @@ import java.util.List;
  */
 public interface Backend extends GroupManager, ResourcePolicyManager, IdentityPolicyManager {
     List<IdentityPolicy> fetchIdentityPoliciesTransitivelyForPrincipal(String principalId);
+
+    /**
+     * Resolve the transitive groups and the effective identity policy ids of a principal in one go. The default implementation
+     * derives the policy ids from {@link #fetchIdentityPoliciesTransitivelyForPrincipal(String)}, backends should override it to
+     * avoid traversing the group graph twice
+     *
+     * @param principalId the principal to resolve
+     * @return the {@link PrincipalContext} of the principal
+     */
+    default PrincipalContext resolvePrincipalContext(String principalId) {
+        return ImmutablePrincipalContext
+                .builder()
+                .principal(principalId)
+                .groups(getGroupMembershipTransitively(principalId))
+                .policyIds(
+                        fetchIdentityPoliciesTransitivelyForPrincipal(principalId)
+                                .stream()
+                                .map(IdentityPolicy::id)
+                                .collect(toList())
+                )
+                .build();
+    }
+
+    /**
+     * Load the identity policies of a resolved principal in their compiled form. Backends that keep policies in memory
+     * should override this to return policies compiled at creation / update time instead of compiling them on every call
+     *
+     * @param context the resolved principal
+     * @return the compiled policies of {@link PrincipalContext#policyIds()}
+     */
+    default List<CompiledIdentityPolicy> fetchIdentityPolicies(PrincipalContext context) {
+        final List<CompiledIdentityPolicy> ret = new ArrayList<>(context.policyIds().size());
+        for (String policyId : context.policyIds()) {
+            final IdentityPolicy identityPolicy = getPolicy(policyId);
+            if (identityPolicy != null) {
+                ret.add(CompiledIdentityPolicy.compile(identityPolicy));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Fetch the compiled policies of a resolved principal that are candidates for deciding access to the given resource.
+     * Backends that maintain a resource index over policies should only return policies whose patterns can match the resource,
+     * the default implementation returns every policy of the principal. Callers must still evaluate each returned policy against
+     * the request
+     *
+     * @param context  the resolved principal
+     * @param resource the resource being accessed
+     * @return compiled policies that may apply to the resource
+     */
+    default List<CompiledIdentityPolicy> fetchCandidateIdentityPolicies(PrincipalContext context, String resource) {
+        return fetchIdentityPolicies(context);
+    }
+
+    /**
+     * Check whether the resource policy of the given resource grants the action to a resolved principal or to any of its groups.
+     * Backends that index grantees by the same ids as their group graph should override this to avoid going through strings
+     *
+     * @param context  the resolved principal
+     * @param resource the resource being accessed
+     * @param action   the requested action
+     * @return true if the resource policy permits the request
+     */
+    default boolean isPermittedByResourcePolicy(PrincipalContext context, String resource, String action) {
+        return getResourceGrants(resource).permits(context.principal(), context.groups(), action);
+    }
+
+    /**
+     * Gather everything needed to decide the given request. The default implementation composes the other
+     * methods of this interface, backends that can answer in fewer trips to their storage (ex: by evaluating server side)
+     * should override it
+     *
+     * @param request the request being authorized
+     * @return the {@link AuthorizationContext} of the request
+     */
+    default AuthorizationContext resolveAuthorizationContext(AuthorizationRequest request) {
+        final PrincipalContext context = resolvePrincipalContext(request.principal());
+        final boolean permitted = isPermittedByResourcePolicy(context, request.resource(), request.action());
+        final ImmutableAuthorizationContext.Builder builder = ImmutableAuthorizationContext
+                .builder()
+                .groups(context.groups())
+                .permittedByResourcePolicy(permitted);
+        // short circuit the process if permission is already granted through the resource policy
+        if (!permitted) {
+            builder.identityPolicies(fetchCandidateIdentityPolicies(context, request.resource()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Batch version of {@link #resolveAuthorizationContext(AuthorizationRequest)}. The default implementation resolves the
+     * {@link PrincipalContext} and loads identity policies once per distinct principal and fetches the grants of all distinct resources with
+     * {@link #getResourceGrants(Collection)}
+     *
+     * @param requests the requests being authorized
+     * @return the {@link AuthorizationContext} of each request, in the order of the requests
+     */
+    default List<AuthorizationContext> resolveAuthorizationContexts(List<AuthorizationRequest> requests) {
+        final Set<String> resources = new HashSet<>();
+        for (AuthorizationRequest request : requests) {
+            resources.add(request.resource());
+        }
+        final Map<String, ResourceGrants> resourceGrants = getResourceGrants(resources);
+        final Map<String, PrincipalContext> contexts = new HashMap<>();
+        final Map<String, Set<String>> groupSets = new HashMap<>();
+        final Map<String, List<CompiledIdentityPolicy>> identityPolicies = new HashMap<>();
+        final List<AuthorizationContext> ret = new ArrayList<>(requests.size());
+        for (AuthorizationRequest request : requests) {
+            final String principal = request.principal();
+            final PrincipalContext context = contexts.computeIfAbsent(principal, this::resolvePrincipalContext);
+            final Set<String> gidSet = groupSets.computeIfAbsent(principal, p -> new HashSet<>(context.groups()));
+            final boolean permitted = resourceGrants
+                    .getOrDefault(request.resource(), ResourceGrants.empty())
+                    .permits(principal, gidSet, request.action());
+            final ImmutableAuthorizationContext.Builder builder = ImmutableAuthorizationContext
+                    .builder()
+                    .groups(context.groups())
+                    .permittedByResourcePolicy(permitted);
+            if (!permitted) {
+                // every policy of the principal is loaded once, evaluation filters out those that do not apply to the resource
+                builder.identityPolicies(identityPolicies.computeIfAbsent(principal, p -> fetchIdentityPolicies(context)));
+            }
+            ret.add(builder.build());
+        }
+        return ret;
+    }
+
+    /**
+     * Visit the principals that may perform the action on the resource, for access reviews: those granted the action by the policy of
+     * the resource or by one of its prefix policies, and those permitted by one of their identity policies unless another one denies it,
+     * either directly or through their groups. Groups are expanded into their members down through nested groups rather than visited
+     * themselves, and each principal is visited once
+     * <p>
+     * Backends should stream principals as they are found from indexes of their grants and group memberships. The default implementation
+     * expands the grantees of the resource, and the assignees of every permitting identity policy of backends that are {@link Exportable},
+     * through {@link #getGroupTree(String)} and {@link #getAllPrincipalsForGroup(String)}, then decides each principal reached as an
+     * authorization would. It holds every principal reached in memory and visits every identity policy on each call
+     *
+     * @param resource the resource
+     * @param action   the action
+     * @param consumer receives each principal
+     */
+    default void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        final Set<String> reached = new HashSet<>();
+        final Set<String> expanded = new HashSet<>();
+        final Deque<String> pending = new ArrayDeque<>();
+        final List<String> keys = new ArrayList<>(ResourcePaths.prefixPolicies(resource));
+        keys.add(resource);
+        for (ResourcePolicy resourcePolicy : getResourcePolicies(keys).values()) {
+            for (ResourcePolicyAssignment assignment : resourcePolicy.assignments().orElse(Collections.emptyList())) {
+                if (assignment.actions().contains(action) && reached.add(assignment.principal())) {
+                    pending.add(assignment.principal());
+                }
+            }
+        }
+        if (this instanceof Exportable) {
+            final Set<String> permits = new HashSet<>();
+            ((Exportable) this).forEachIdentityPolicy(identityPolicy -> {
+                final CompiledIdentityPolicy compiled = CompiledIdentityPolicy.compile(identityPolicy);
+                if (!compiled.isDeny() && compiled.appliesTo(resource, action)) {
+                    permits.add(identityPolicy.id());
+                }
+            });
+            ((Exportable) this).forEachPolicyAssignment(assignment -> {
+                if (permits.contains(assignment.policyId()) && reached.add(assignment.principal())) {
+                    pending.add(assignment.principal());
+                }
+            });
+        }
+        while (!pending.isEmpty()) {
+            final String principal = pending.poll();
+            if (getGroup(principal) != null) {
+                // the members of the group and of every group nested in it
+                final Deque<Node> groups = new ArrayDeque<>();
+                groups.add(getGroupTree(principal));
+                while (!groups.isEmpty()) {
+                    final Node group = groups.poll();
+                    groups.addAll(group.getChildren());
+                    if (expanded.add(group.getName())) {
+                        for (String member : getAllPrincipalsForGroup(group.getName())) {
+                            if (reached.add(member)) {
+                                pending.add(member);
+                            }
+                        }
+                    }
+                }
+                continue;
+            }
+            final PrincipalContext context = resolvePrincipalContext(principal);
+            boolean permitted = isPermittedByResourcePolicy(context, resource, action);
+            boolean denied = false;
+            if (!permitted) {
+                // as authorization decides, a deny overrides any permit of the identity policies
+                for (CompiledIdentityPolicy policy : fetchCandidateIdentityPolicies(context, resource)) {
+                    if (policy.appliesTo(resource, action)) {
+                        denied |= policy.isDeny();
+                        permitted = true;
+                    }
+                }
+            }
+            if (permitted && !denied) {
+                consumer.accept(principal);
+            }
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #getGroupMembershipTransitively(String)}. The default implementation completes
+     * on the calling thread, backends that perform I/O should override it
+     *
+     * @param principalId the principalId to retrieve membership for
+     * @return a stage completed with the flattened group membership of the principal
+     */
+    default CompletionStage<List<String>> getGroupMembershipTransitivelyAsync(String principalId) {
+        return completed(() -> getGroupMembershipTransitively(principalId));
+    }
+
+    /**
+     * Non-blocking version of {@link #getResourcePolicy(String)}. The default implementation completes
+     * on the calling thread, backends that perform I/O should override it
+     *
+     * @param resource the resource identifier
+     * @return a stage completed with the {@link ResourcePolicy} of the resource, or null if it has none
+     */
+    default CompletionStage<ResourcePolicy> getResourcePolicyAsync(String resource) {
+        return completed(() -> getResourcePolicy(resource));
+    }
+
+    /**
+     * Non-blocking version of {@link #resolveAuthorizationContext(AuthorizationRequest)}. The default implementation completes
+     * on the calling thread, backends that perform I/O should override it
+     *
+     * @param request the request being authorized
+     * @return a stage completed with the {@link AuthorizationContext} of the request
+     */
+    default CompletionStage<AuthorizationContext> resolveAuthorizationContextAsync(AuthorizationRequest request) {
+        return completed(() -> resolveAuthorizationContext(request));
+    }
+
+    /**
+     * Run the given supplier on the calling thread, capturing its outcome in a completed stage
+     */
+    static <T> CompletionStage<T> completed(Supplier<T> supplier) {
+        final CompletableFuture<T> ret = new CompletableFuture<>();
+        try {
+            ret.complete(supplier.get());
+        } catch (RuntimeException e) {
+            ret.completeExceptionally(e);
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,133 @@
+package com.erfangc.sac.core.backend;
+
+import com.erfangc.sac.interfaces.Group;
+import com.erfangc.sac.interfaces.IdentityPolicy;
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * {@link BackendChange} describes one change made to a {@link Backend}, as delivered to {@link BackendChangeListener}s. Only the
+ * attributes relevant to its {@link #type()} are set. Bulk operations are described by one change per item
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableBackendChange.class)
+@JsonDeserialize(builder = ImmutableBackendChange.Builder.class)
+public interface BackendChange {
+
+    enum Type {
+        GROUP_CREATED,
+        GROUP_UPDATED,
+        GROUP_DELETED,
+        PRINCIPAL_ASSIGNED_TO_GROUP,
+        PRINCIPAL_UNASSIGNED_FROM_GROUP,
+        POLICY_CREATED,
+        POLICY_UPDATED,
+        POLICY_DELETED,
+        POLICY_ASSIGNED,
+        POLICY_UNASSIGNED,
+        ACTIONS_GRANTED,
+        ACTIONS_REVOKED
+    }
+
+    /**
+     * @return the position of the change in the feed it was read from, starting at 1 and increasing by 1 with every change. 0 for
+     * changes that are not part of a feed yet
+     */
+    @Value.Default
+    default long sequence() {
+        return 0;
+    }
+
+    Type type();
+
+    /**
+     * @return the group created or updated, without its assignments
+     */
+    Optional<Group> group();
+
+    Optional<String> groupId();
+
+    Optional<String> principal();
+
+    @Value.Default
+    default boolean principalIsGroup() {
+        return false;
+    }
+
+    /**
+     * @return the identity policy created or updated
+     */
+    Optional<IdentityPolicy> policy();
+
+    Optional<String> policyId();
+
+    Optional<String> resource();
+
+    /**
+     * @return the actions granted or revoked
+     */
+    Set<String> actions();
+
+    static ImmutableBackendChange groupCreated(Group group) {
+        return ImmutableBackendChange.builder().type(Type.GROUP_CREATED).group(withoutAssignments(group)).groupId(group.id()).build();
+    }
+
+    static ImmutableBackendChange groupUpdated(Group group) {
+        return ImmutableBackendChange.builder().type(Type.GROUP_UPDATED).group(withoutAssignments(group)).groupId(group.id()).build();
+    }
+
+    static ImmutableBackendChange groupDeleted(String groupId) {
+        return ImmutableBackendChange.builder().type(Type.GROUP_DELETED).groupId(groupId).build();
+    }
+
+    static ImmutableBackendChange principalAssignedToGroup(String groupId, String principal, boolean principalIsGroup) {
+        return ImmutableBackendChange
+                .builder()
+                .type(Type.PRINCIPAL_ASSIGNED_TO_GROUP)
+                .groupId(groupId)
+                .principal(principal)
+                .principalIsGroup(principalIsGroup)
+                .build();
+    }
+
+    static ImmutableBackendChange principalUnassignedFromGroup(String groupId, String principal) {
+        return ImmutableBackendChange.builder().type(Type.PRINCIPAL_UNASSIGNED_FROM_GROUP).groupId(groupId).principal(principal).build();
+    }
+
+    static ImmutableBackendChange policyCreated(IdentityPolicy policy) {
+        return ImmutableBackendChange.builder().type(Type.POLICY_CREATED).policy(policy).policyId(policy.id()).build();
+    }
+
+    static ImmutableBackendChange policyUpdated(IdentityPolicy policy) {
+        return ImmutableBackendChange.builder().type(Type.POLICY_UPDATED).policy(policy).policyId(policy.id()).build();
+    }
+
+    static ImmutableBackendChange policyDeleted(String policyId) {
+        return ImmutableBackendChange.builder().type(Type.POLICY_DELETED).policyId(policyId).build();
+    }
+
+    static ImmutableBackendChange policyAssigned(String policyId, String principal) {
+        return ImmutableBackendChange.builder().type(Type.POLICY_ASSIGNED).policyId(policyId).principal(principal).build();
+    }
+
+    static ImmutableBackendChange policyUnassigned(String policyId, String principal) {
+        return ImmutableBackendChange.builder().type(Type.POLICY_UNASSIGNED).policyId(policyId).principal(principal).build();
+    }
+
+    static ImmutableBackendChange actionsGranted(String resource, String principal, Set<String> actions) {
+        return ImmutableBackendChange.builder().type(Type.ACTIONS_GRANTED).resource(resource).principal(principal).actions(actions).build();
+    }
+
+    static ImmutableBackendChange actionsRevoked(String resource, String principal, Set<String> actions) {
+        return ImmutableBackendChange.builder().type(Type.ACTIONS_REVOKED).resource(resource).principal(principal).actions(actions).build();
+    }
+
+    static Group withoutAssignments(Group group) {
+        return ImmutableGroup.copyOf(group).withAssignments(Optional.empty());
+    }
+}
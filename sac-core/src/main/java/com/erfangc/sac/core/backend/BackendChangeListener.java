@@ -0,0 +1,14 @@
+package com.erfangc.sac.core.backend;
+
+/**
+ * {@link BackendChangeListener}s are told about every change made to a backend, in the order of {@link BackendChange#sequence()}.
+ * Changes are delivered one at a time, the next one is only delivered once the listener returns
+ * <p>
+ * Backends deliver changes from threads of their own or from the thread making the change, while holding locks of their own:
+ * listeners must return promptly and must not change the backend that notifies them
+ */
+@FunctionalInterface
+public interface BackendChangeListener {
+
+    void onChange(BackendChange change);
+}
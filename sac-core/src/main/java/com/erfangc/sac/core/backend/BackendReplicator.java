@@ -0,0 +1,163 @@
+package com.erfangc.sac.core.backend;
+
+import com.erfangc.sac.interfaces.GroupAssignment;
+import com.erfangc.sac.interfaces.ResourcePolicyAssignment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * {@link BackendReplicator} keeps a replica (typically an in memory backend next to the service authorizing requests) up to date by
+ * applying the changes of another backend to it, so that authorization never leaves the process
+ * <p>
+ * A replica is started by registering the replicator with the source first and calling {@link #load(Exportable)} second: changes
+ * delivered while the content of the source is copied are held back and applied once the copy is done. Changes already reflected by
+ * the copy are therefore applied again, which is harmless as every change sets state rather than increments it
+ * <p>
+ * Changes are expected in the order of their {@link BackendChange#sequence()}. Those already applied are ignored, should a change be
+ * missing (ex: a feed trimmed while the replica was not listening) the replica keeps applying later changes but is marked
+ * {@link #isStale() stale}, and should be rebuilt
+ */
+public class BackendReplicator implements BackendChangeListener {
+
+    private static final int BATCH_SIZE = 1_000;
+
+    private final Backend target;
+    private long lastSequence;
+    private boolean stale;
+    private List<BackendChange> heldBack;
+
+    /**
+     * Replicate into the given backend, taking the sequence of the first change delivered as the starting point
+     *
+     * @param target the replica
+     */
+    public BackendReplicator(Backend target) {
+        this(target, 0);
+    }
+
+    /**
+     * Replicate into the given backend, which already reflects every change up to the given sequence
+     *
+     * @param target       the replica
+     * @param lastSequence the sequence of the last change reflected by the replica
+     */
+    public BackendReplicator(Backend target, long lastSequence) {
+        this.target = target;
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * @return the sequence of the last change applied, or the sequence given at construction if none was
+     */
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return true if at least one change was missed, in which case the replica may differ from its source
+     */
+    public synchronized boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Copy the content of the source into the replica, while holding back the changes delivered in the meantime
+     *
+     * @param source the backend being replicated
+     */
+    public void load(Exportable source) {
+        synchronized (this) {
+            if (heldBack != null) {
+                throw new IllegalStateException("The replica is already being loaded");
+            }
+            heldBack = new ArrayList<>();
+        }
+        try {
+            source.forEachGroup(target::createGroup);
+            final List<GroupAssignment> groupAssignments = new ArrayList<>(BATCH_SIZE);
+            source.forEachGroupAssignment(assignment -> {
+                groupAssignments.add(assignment);
+                if (groupAssignments.size() == BATCH_SIZE) {
+                    target.assignPrincipalsToGroups(groupAssignments);
+                    groupAssignments.clear();
+                }
+            });
+            target.assignPrincipalsToGroups(groupAssignments);
+            source.forEachIdentityPolicy(target::createPolicy);
+            source.forEachPolicyAssignment(assignment -> target.assignPolicy(assignment.policyId(), assignment.principal()));
+            source.forEachResourcePolicy(policy -> {
+                for (ResourcePolicyAssignment assignment : policy.assignments().orElse(new ArrayList<>())) {
+                    target.grantActions(policy.resource(), assignment.principal(), new HashSet<>(assignment.actions()));
+                }
+            });
+        } finally {
+            synchronized (this) {
+                final List<BackendChange> changes = heldBack;
+                heldBack = null;
+                changes.forEach(this::apply);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onChange(BackendChange change) {
+        if (heldBack != null) {
+            heldBack.add(change);
+        } else {
+            apply(change);
+        }
+    }
+
+    private void apply(BackendChange change) {
+        final long sequence = change.sequence();
+        if (lastSequence != 0 && sequence <= lastSequence) {
+            return;
+        }
+        if (lastSequence != 0 && sequence != lastSequence + 1) {
+            stale = true;
+        }
+        switch (change.type()) {
+            case GROUP_CREATED:
+                target.createGroup(change.group().get());
+                break;
+            case GROUP_UPDATED:
+                target.updateGroup(change.group().get());
+                break;
+            case GROUP_DELETED:
+                target.deleteGroup(change.groupId().get());
+                break;
+            case PRINCIPAL_ASSIGNED_TO_GROUP:
+                target.assignPrincipalToGroup(change.groupId().get(), change.principal().get(), change.principalIsGroup());
+                break;
+            case PRINCIPAL_UNASSIGNED_FROM_GROUP:
+                target.unassignPrincipalFromGroup(change.groupId().get(), change.principal().get());
+                break;
+            case POLICY_CREATED:
+                target.createPolicy(change.policy().get());
+                break;
+            case POLICY_UPDATED:
+                target.updatePolicy(change.policy().get());
+                break;
+            case POLICY_DELETED:
+                target.deletePolicy(change.policyId().get());
+                break;
+            case POLICY_ASSIGNED:
+                target.assignPolicy(change.policyId().get(), change.principal().get());
+                break;
+            case POLICY_UNASSIGNED:
+                target.unAssignPolicy(change.policyId().get(), change.principal().get());
+                break;
+            case ACTIONS_GRANTED:
+                target.grantActions(change.resource().get(), change.principal().get(), change.actions());
+                break;
+            case ACTIONS_REVOKED:
+                target.revokeActions(change.resource().get(), change.principal().get(), change.actions());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown change " + change.type());
+        }
+        lastSequence = sequence;
+    }
+}
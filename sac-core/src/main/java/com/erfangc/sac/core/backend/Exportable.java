@@ -0,0 +1,48 @@
+package com.erfangc.sac.core.backend;
+
+import com.erfangc.sac.interfaces.*;
+
+import java.util.function.Consumer;
+
+/**
+ * {@link Exportable} backends can enumerate everything they hold, one entity at a time. Implementations should only hold a bounded
+ * portion of their content in memory while enumerating it (ex: one page of a cursor), so that backends of any size can be exported.
+ * Entities changed during an enumeration may or may not be visited
+ */
+public interface Exportable {
+
+    /**
+     * Visit every group, without its assignments
+     *
+     * @param consumer receives each {@link Group}
+     */
+    void forEachGroup(Consumer<Group> consumer);
+
+    /**
+     * Visit every direct membership of a principal or a group in a group
+     *
+     * @param consumer receives each {@link GroupAssignment}
+     */
+    void forEachGroupAssignment(Consumer<GroupAssignment> consumer);
+
+    /**
+     * Visit every identity policy
+     *
+     * @param consumer receives each {@link IdentityPolicy}
+     */
+    void forEachIdentityPolicy(Consumer<IdentityPolicy> consumer);
+
+    /**
+     * Visit every assignment of an identity policy to a principal or a group
+     *
+     * @param consumer receives each {@link PolicyAssignment}
+     */
+    void forEachPolicyAssignment(Consumer<PolicyAssignment> consumer);
+
+    /**
+     * Visit every resource policy that grants at least one action
+     *
+     * @param consumer receives each {@link ResourcePolicy}
+     */
+    void forEachResourcePolicy(Consumer<ResourcePolicy> consumer);
+}
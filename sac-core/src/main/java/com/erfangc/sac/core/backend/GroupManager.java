@@ -1,8 +1,10 @@
 package com.erfangc.sac.core.backend;
 
 import com.erfangc.sac.interfaces.Group;
+import com.erfangc.sac.interfaces.GroupAssignment;
 import com.erfangc.sac.interfaces.Node;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -32,4 +34,27 @@ public interface GroupManager {
     void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup);
 
     void unassignPrincipalFromGroup(String groupId, String principalId);
+
+    /**
+     * Apply many assignments at once. The default implementation assigns them one by one, implementations should override it to
+     * apply the batch in a single write
+     *
+     * @param assignments the assignments to apply
+     */
+    default void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        for (GroupAssignment assignment : assignments) {
+            assignPrincipalToGroup(assignment.groupId(), assignment.principal(), assignment.principalIsGroup());
+        }
+    }
+
+    /**
+     * Remove many assignments at once, see {@link #assignPrincipalsToGroups(Collection)}
+     *
+     * @param assignments the assignments to remove, {@link GroupAssignment#principalIsGroup()} is ignored
+     */
+    default void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        for (GroupAssignment assignment : assignments) {
+            unassignPrincipalFromGroup(assignment.groupId(), assignment.principal());
+        }
+    }
 }
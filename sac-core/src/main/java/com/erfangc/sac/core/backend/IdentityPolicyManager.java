@@ -3,6 +3,8 @@ package com.erfangc.sac.core.backend;
 
 import com.erfangc.sac.interfaces.IdentityPolicy;
 
+import java.util.Collection;
+
 public interface IdentityPolicyManager {
 
     void createPolicy(IdentityPolicy identityPolicy);
@@ -17,4 +19,17 @@ public interface IdentityPolicyManager {
 
     void unAssignPolicy(String policyId, String principalId);
 
+    /**
+     * Assign a policy to many principals at once. The default implementation assigns it one principal at a time, implementations
+     * should override it to apply the batch in a single write
+     *
+     * @param policyId     the policy to assign
+     * @param principalIds the principals (or groups) to assign it to
+     */
+    default void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        for (String principalId : principalIds) {
+            assignPolicy(policyId, principalId);
+        }
+    }
+
 }
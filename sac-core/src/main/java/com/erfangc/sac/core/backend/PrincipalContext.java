@@ -0,0 +1,26 @@
+package com.erfangc.sac.core.backend;
+
+import org.immutables.value.Value;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link PrincipalContext} is what a {@link Backend} knows about a principal that is relevant to authorizing it, resolved once
+ * and shared by every stage of a decision so the group graph is only traversed once
+ */
+@Value.Immutable
+public interface PrincipalContext {
+
+    String principal();
+
+    /**
+     * @return the groups the principal belongs to, directly or transitively
+     */
+    List<String> groups();
+
+    /**
+     * @return the ids of the identity policies assigned to the principal or to any of its groups
+     */
+    Set<String> policyIds();
+}
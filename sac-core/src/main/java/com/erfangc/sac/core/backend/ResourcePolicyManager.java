@@ -1,8 +1,10 @@
 package com.erfangc.sac.core.backend;
 
+import com.erfangc.sac.core.policy.ResourceGrants;
+import com.erfangc.sac.core.policy.ResourcePaths;
 import com.erfangc.sac.interfaces.ResourcePolicy;
 
-import java.util.Set;
+import java.util.*;
 
 /**
  * {@link ResourcePolicyManager} manages the lifecycle and persistence of {@link com.erfangc.sac.interfaces.ResourcePolicy} instances
@@ -13,6 +15,10 @@ import java.util.Set;
  * reaching an authorization conclusion. This is generally a bad practice if the # of policies can grow indefinitely as the # of resources on the systems
  * grow indefinitely. For those type resources that can grow indefinitely, it is preferred to use a resource based policy to ensure authorization can be
  * performed in O(1) time instead of O(N)
+ * <p>
+ * A resource policy can also be attached to a whole subtree of resources through a prefix policy such as <code>/org/inventory/*</code>,
+ * see {@link ResourcePaths}. Authorization then also considers the prefix policies of every ancestor of the requested resource, which keeps
+ * the cost of a check proportional to the depth of the resource
  */
 public interface ResourcePolicyManager {
 
@@ -25,6 +31,20 @@ public interface ResourcePolicyManager {
      */
     void grantActions(String resource, String principal, Set<String> actions);
 
+    /**
+     * Grant the same actions on many resources at once. The default implementation grants them one resource at a time,
+     * implementations should override it to apply the batch in a single write
+     *
+     * @param resources the resources to grant access to
+     * @param principal the principal who should be granted access
+     * @param actions   the actions that the principal should be granted access to perform against each of the resources
+     */
+    default void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions) {
+        for (String resource : resources) {
+            grantActions(resource, principal, actions);
+        }
+    }
+
     /**
      * Revokes the specified principal from performing the set of specified actions against the given resource
      *
@@ -35,10 +55,143 @@ public interface ResourcePolicyManager {
     void revokeActions(String resource, String principal, Set<String> actions);
 
     /**
-     * Retrieve all policies associated with the given resource
+     * Retrieve all policies associated with the given resource, prefix policies of its ancestors are not included
      *
      * @param resource the resource identifier
      * @return a {@link ResourcePolicy}
      */
     ResourcePolicy getResourcePolicy(String resource);
+
+    /**
+     * Retrieve the policies of many resources at once, backends that can fetch them in bulk should override this
+     *
+     * @param resources the resource identifiers
+     * @return the {@link ResourcePolicy} of each resource that has one, keyed by resource
+     */
+    default Map<String, ResourcePolicy> getResourcePolicies(Collection<String> resources) {
+        final Map<String, ResourcePolicy> ret = new HashMap<>();
+        for (String resource : resources) {
+            final ResourcePolicy resourcePolicy = getResourcePolicy(resource);
+            if (resourcePolicy != null) {
+                ret.put(resource, resourcePolicy);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * List the resources on which any of the given principals holds the action, prefix policies included, in lexicographic order.
+     * Backends should answer from an index of grants by principal rather than by visiting resource policies, and only hold a page worth
+     * of resources per principal in memory while doing so
+     * <p>
+     * The default implementation visits every resource policy of backends that are {@link Exportable}, keeping the first page of
+     * matching resources, and is unsupported otherwise
+     *
+     * @param principals the principals, typically a principal and all of its groups
+     * @param action     the action
+     * @param after      only list resources following this one, null to start from the first
+     * @param limit      the maximum number of resources to list
+     * @return the resources, each listed once
+     */
+    default List<String> getGrantedResources(Collection<String> principals, String action, String after, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        if (!(this instanceof Exportable)) {
+            throw new UnsupportedOperationException(getClass().getName() + " cannot list granted resources");
+        }
+        final TreeSet<String> page = new TreeSet<>();
+        ((Exportable) this).forEachResourcePolicy(resourcePolicy -> {
+            final String resource = resourcePolicy.resource();
+            if (after != null && resource.compareTo(after) <= 0 || !ResourceGrants.of(resourcePolicy).permitsAny(principals, action)) {
+                return;
+            }
+            page.add(resource);
+            if (page.size() > limit) {
+                page.pollLast();
+            }
+        });
+        return new ArrayList<>(page);
+    }
+
+    /**
+     * Merge lists of resources sorted in lexicographic order, as {@link #getGrantedResources} reads them for each principal
+     *
+     * @param sorted the lists to merge, each in lexicographic order
+     * @param limit  the maximum number of resources to return
+     * @return the first distinct resources of the merged lists, in lexicographic order
+     */
+    static List<String> merge(Collection<? extends Iterable<String>> sorted, int limit) {
+        final PriorityQueue<Map.Entry<String, Iterator<String>>> heads = new PriorityQueue<>(
+                Math.max(1, sorted.size()),
+                Map.Entry.comparingByKey()
+        );
+        for (Iterable<String> resources : sorted) {
+            final Iterator<String> iterator = resources.iterator();
+            if (iterator.hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<>(iterator.next(), iterator));
+            }
+        }
+        final List<String> ret = new ArrayList<>(Math.min(limit, 1_024));
+        while (ret.size() < limit && !heads.isEmpty()) {
+            final Map.Entry<String, Iterator<String>> head = heads.poll();
+            // resources granted to several principals come out of the queue one after another
+            if (ret.isEmpty() || !ret.get(ret.size() - 1).equals(head.getKey())) {
+                ret.add(head.getKey());
+            }
+            if (head.getValue().hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<>(head.getValue().next(), head.getValue()));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Check whether any of the given principals holds the action on the resource. This is the only question authorization asks of
+     * a resource policy, backends should answer it without materializing the whole policy since popular resources can have many grantees
+     *
+     * @param resource   the resource identifier
+     * @param action     the requested action
+     * @param principals the principals to check, typically a principal and all of its groups
+     * @return true if the action is granted to at least one of the principals
+     */
+    default boolean isGrantedToAny(String resource, String action, Collection<String> principals) {
+        return getResourceGrants(resource).permitsAny(principals, action);
+    }
+
+    /**
+     * Retrieve the grants in effect on the given resource indexed by principal, including those inherited from prefix policies.
+     * Backends that maintain such an index should override this
+     *
+     * @param resource the resource identifier
+     * @return the {@link ResourceGrants} of the resource, empty if no policy applies to it
+     */
+    default ResourceGrants getResourceGrants(String resource) {
+        return getResourceGrants(Collections.singleton(resource)).getOrDefault(resource, ResourceGrants.empty());
+    }
+
+    /**
+     * Bulk version of {@link #getResourceGrants(String)}, built on a single call to {@link #getResourcePolicies(Collection)} by default
+     *
+     * @param resources the resource identifiers
+     * @return the {@link ResourceGrants} of each resource that some policy applies to, keyed by resource
+     */
+    default Map<String, ResourceGrants> getResourceGrants(Collection<String> resources) {
+        final Set<String> keys = new HashSet<>(resources);
+        for (String resource : resources) {
+            keys.addAll(ResourcePaths.prefixPolicies(resource));
+        }
+        final Map<String, ResourcePolicy> resourcePolicies = getResourcePolicies(keys);
+        final Map<String, ResourceGrants> ret = new HashMap<>();
+        for (String resource : resources) {
+            ResourceGrants grants = ResourceGrants.of(resourcePolicies.get(resource));
+            for (String prefixPolicy : ResourcePaths.prefixPolicies(resource)) {
+                grants = grants.with(ResourceGrants.of(resourcePolicies.get(prefixPolicy)));
+            }
+            if (grants.size() > 0) {
+                ret.put(resource, grants);
+            }
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,224 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * {@link Adjacency} stores directed edges between interned ids. The bulk of the edges live in compressed sparse row form: the targets
+ * of every node packed into one <code>int[]</code>, with the targets of node <code>n</code> found between <code>offsets[n]</code> and
+ * <code>offsets[n + 1]</code>
+ * <p>
+ * Rows changed since the last compaction are held in an overlay that takes precedence over the packed rows. The overlay is folded
+ * back into a new packed form once it covers enough nodes, so the cost of a compaction is amortized over many writes
+ * <p>
+ * Rows are unordered and duplicates are not detected here, callers are expected to check for an existing edge where it matters.
+ * Reads never lock, writes must be serialized by the caller
+ */
+final class Adjacency {
+
+    private static final int[] NO_TARGETS = new int[0];
+    private static final int MIN_OVERLAY_SIZE = 1 << 12;
+
+    /**
+     * A row is a prefix of an array. Appending to the latest row of a node writes past the prefix and publishes a longer row over the
+     * same array, so readers of the shorter row are unaffected
+     */
+    private static final class Row {
+        private final int[] targets;
+        private final int size;
+
+        private Row(int[] targets, int size) {
+            this.targets = targets;
+            this.size = size;
+        }
+    }
+
+    private static final class State {
+        private final int[] offsets;
+        private final int[] targets;
+        private final Map<Integer, Row> overlay = new ConcurrentHashMap<>();
+
+        private State(int[] offsets, int[] targets) {
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+    }
+
+    private volatile State state;
+
+    Adjacency() {
+        this(new int[]{0}, NO_TARGETS);
+    }
+
+    private Adjacency(int[] offsets, int[] targets) {
+        state = new State(offsets, targets);
+    }
+
+    /**
+     * Apply the given consumer to every target of the given node
+     */
+    void forEach(int node, IntConsumer consumer) {
+        final State state = this.state;
+        final Row row = state.overlay.get(node);
+        if (row != null) {
+            for (int i = 0; i < row.size; i++) {
+                consumer.accept(row.targets[i]);
+            }
+        } else if (node < state.offsets.length - 1) {
+            for (int i = state.offsets[node]; i < state.offsets[node + 1]; i++) {
+                consumer.accept(state.targets[i]);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the targets of the given node
+     */
+    int[] targets(int node) {
+        final State state = this.state;
+        final Row row = state.overlay.get(node);
+        if (row != null) {
+            return Arrays.copyOf(row.targets, row.size);
+        } else if (node < state.offsets.length - 1) {
+            return Arrays.copyOfRange(state.targets, state.offsets[node], state.offsets[node + 1]);
+        }
+        return NO_TARGETS;
+    }
+
+    boolean isEmpty(int node) {
+        final State state = this.state;
+        final Row row = state.overlay.get(node);
+        if (row != null) {
+            return row.size == 0;
+        }
+        return node >= state.offsets.length - 1 || state.offsets[node] == state.offsets[node + 1];
+    }
+
+    boolean contains(int node, int target) {
+        final Row row = row(state, node);
+        for (int i = 0; i < row.size; i++) {
+            if (row.targets[i] == target) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(int node, int target) {
+        final State state = this.state;
+        final Row row = row(state, node);
+        final Row appended;
+        if (row.size < row.targets.length) {
+            appended = new Row(row.targets, row.size + 1);
+        } else {
+            // grow geometrically so that repeatedly adding to the same node stays linear overall
+            appended = new Row(Arrays.copyOf(row.targets, Math.max(4, row.size * 2)), row.size + 1);
+        }
+        appended.targets[row.size] = target;
+        write(state, node, appended);
+    }
+
+    /**
+     * @return true if the edge existed
+     */
+    boolean remove(int node, int target) {
+        final State state = this.state;
+        final Row row = row(state, node);
+        for (int i = 0; i < row.size; i++) {
+            if (row.targets[i] == target) {
+                final int[] copy = new int[row.size - 1];
+                System.arraycopy(row.targets, 0, copy, 0, i);
+                System.arraycopy(row.targets, i + 1, copy, i, row.size - i - 1);
+                write(state, node, new Row(copy, copy.length));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear(int node) {
+        final State state = this.state;
+        if (!isEmpty(node)) {
+            write(state, node, new Row(NO_TARGETS, 0));
+        }
+    }
+
+    /**
+     * @return a packed copy of every row, as <code>{offsets, targets}</code>
+     */
+    int[][] pack() {
+        final State packed = compact(state);
+        return new int[][]{packed.offsets, packed.targets};
+    }
+
+    /**
+     * Write rows as returned by {@link #pack()}
+     */
+    static void writeTo(DataOutputStream out, int[][] packed) throws IOException {
+        Snapshot.writeInts(out, packed[0]);
+        Snapshot.writeInts(out, packed[1]);
+    }
+
+    /**
+     * Read rows written by {@link #writeTo}, the arrays are copied in bulk and become the packed form of the adjacency
+     */
+    static Adjacency readFrom(ByteBuffer buffer) {
+        final int[] offsets = Snapshot.readInts(buffer);
+        return new Adjacency(offsets, Snapshot.readInts(buffer));
+    }
+
+    private static Row row(State state, int node) {
+        final Row row = state.overlay.get(node);
+        if (row != null) {
+            return row;
+        }
+        if (node < state.offsets.length - 1) {
+            // the packed array is shared by every node, so it is never appended to in place: the size equals the capacity
+            final int[] targets = Arrays.copyOfRange(state.targets, state.offsets[node], state.offsets[node + 1]);
+            return new Row(targets, targets.length);
+        }
+        return new Row(NO_TARGETS, 0);
+    }
+
+    private void write(State state, int node, Row row) {
+        state.overlay.put(node, row);
+        if (state.overlay.size() > Math.max(MIN_OVERLAY_SIZE, (state.offsets.length - 1) >> 3)) {
+            this.state = compact(state);
+        }
+    }
+
+    private static State compact(State state) {
+        int nodes = state.offsets.length - 1;
+        for (Integer node : state.overlay.keySet()) {
+            nodes = Math.max(nodes, node + 1);
+        }
+        final int[] offsets = new int[nodes + 1];
+        for (int node = 0; node < nodes; node++) {
+            final Row row = state.overlay.get(node);
+            final int size;
+            if (row != null) {
+                size = row.size;
+            } else if (node < state.offsets.length - 1) {
+                size = state.offsets[node + 1] - state.offsets[node];
+            } else {
+                size = 0;
+            }
+            offsets[node + 1] = offsets[node] + size;
+        }
+        final int[] targets = new int[offsets[nodes]];
+        for (int node = 0; node < nodes; node++) {
+            final Row row = state.overlay.get(node);
+            if (row != null) {
+                System.arraycopy(row.targets, 0, targets, offsets[node], row.size);
+            } else if (node < state.offsets.length - 1) {
+                System.arraycopy(state.targets, state.offsets[node], targets, offsets[node], offsets[node + 1] - offsets[node]);
+            }
+        }
+        return new State(offsets, targets);
+    }
+}
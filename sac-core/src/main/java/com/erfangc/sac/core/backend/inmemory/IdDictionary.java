@@ -0,0 +1,147 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link IdDictionary} interns principal and group ids to dense <code>int</code>s, assigned in order of first appearance starting at 0.
+ * Ids are never released, so an <code>int</code> keeps denoting the same string for the lifetime of the dictionary
+ * <p>
+ * Strings are held once in an array indexed by id, the reverse lookup is an open addressing table of ids with linear probing.
+ * Lookups never lock, interning must be serialized by the caller
+ */
+final class IdDictionary {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /**
+     * Slots and names are grown together and published as a whole, a reader holding an older table sees every id
+     * interned before that table was replaced
+     */
+    private static final class Table {
+        /**
+         * id + 1 of the string hashed to each slot, 0 for empty slots
+         */
+        private final AtomicIntegerArray slots;
+        private final AtomicReferenceArray<String> names;
+
+        private Table(int capacity) {
+            slots = new AtomicIntegerArray(capacity);
+            // keep the load factor of the slots at 2/3 at most
+            names = new AtomicReferenceArray<>(capacity / 3 * 2);
+        }
+    }
+
+    private volatile Table table;
+    private volatile int size;
+
+    IdDictionary() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private IdDictionary(int capacity) {
+        table = new Table(capacity);
+    }
+
+    /**
+     * @return the id of the given string, or -1 if it was never interned
+     */
+    int id(String name) {
+        final Table table = this.table;
+        final int mask = table.slots.length() - 1;
+        for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+            final int id = table.slots.get(slot) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (name.equals(table.names.get(id))) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id of the given string, assigning the next free id if it was never interned
+     */
+    int intern(String name) {
+        final int existing = id(name);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (size == table.names.length()) {
+            table = rehash(table, table.slots.length() * 2);
+        }
+        final int id = size;
+        // the name must be visible before the slot pointing to it
+        table.names.set(id, name);
+        insert(table, name, id);
+        size = id + 1;
+        return id;
+    }
+
+    String name(int id) {
+        return table.names.get(id);
+    }
+
+    /**
+     * @return the number of interned strings, every id is below this value
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Write the first <code>size</code> strings in order of their ids, ids are never reassigned so this is consistent with the
+     * dictionary as it was when <code>size</code> was read
+     */
+    void writeTo(DataOutputStream out, int size) throws IOException {
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            Snapshot.writeString(out, name(id));
+        }
+    }
+
+    /**
+     * Read strings written by {@link #writeTo}, which are given the same ids again
+     */
+    static IdDictionary readFrom(ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        int capacity = INITIAL_CAPACITY;
+        while (capacity / 3 * 2 <= size) {
+            capacity <<= 1;
+        }
+        final IdDictionary ret = new IdDictionary(capacity);
+        for (int id = 0; id < size; id++) {
+            ret.intern(Snapshot.readString(buffer));
+        }
+        return ret;
+    }
+
+    private Table rehash(Table table, int capacity) {
+        final Table ret = new Table(capacity);
+        for (int id = 0; id < size; id++) {
+            final String name = table.names.get(id);
+            ret.names.set(id, name);
+            insert(ret, name, id);
+        }
+        return ret;
+    }
+
+    private static void insert(Table table, String name, int id) {
+        final int mask = table.slots.length() - 1;
+        int slot = hash(name) & mask;
+        while (table.slots.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.slots.set(slot, id + 1);
+    }
+
+    private static int hash(String name) {
+        // spread the bits of String#hashCode, linear probing is sensitive to clustered low bits
+        final int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,36 +1,137 @@
 package com.erfangc.sac.core.backend.inmemory;
 
 import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.core.backend.BackendChange;
+import com.erfangc.sac.core.backend.BackendChangeListener;
+import com.erfangc.sac.core.backend.Exportable;
+import com.erfangc.sac.core.backend.ImmutableBackendChange;
+import com.erfangc.sac.core.backend.ImmutablePrincipalContext;
+import com.erfangc.sac.core.backend.PrincipalContext;
+import com.erfangc.sac.core.backend.ResourcePolicyManager;
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import com.erfangc.sac.core.policy.IdentityPolicyTrie;
+import com.erfangc.sac.core.policy.ResourceGrants;
+import com.erfangc.sac.core.policy.ResourcePaths;
+import com.erfangc.sac.core.policy.ResourcePrefixTree;
 import com.erfangc.sac.interfaces.*;
+import org.roaringbitmap.RoaringBitmap;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
-import static java.util.Collections.emptyList;
-import static java.util.Collections.emptyMap;
-import static java.util.stream.Collectors.toCollection;
-import static java.util.stream.Collectors.toMap;
+import static java.util.Collections.*;
 
-public class InMemoryBackend implements Backend {
+/**
+ * {@link InMemoryBackend} keeps all state in {@link ConcurrentHashMap}s whose values are never mutated once published: writers
+ * replace them with updated copies. Reads (including everything on the authorization path) therefore never lock and never observe
+ * a value being modified
+ * <p>
+ * Groups are delegated to an {@link InMemoryGroupManager}. Identity policy changes hold {@link #policyLock}, and resource policy changes
+ * hold {@link #resourcePolicyLock}
+ * <p>
+ * The whole state can be saved with {@link #writeSnapshot(Path)}, and a backend started from it with {@link #readSnapshot(Path)}
+ * <p>
+ * Every change is numbered and delivered to the {@link BackendChangeListener}s of the backend from the thread making it, while the
+ * lock of the state it changes is still held: changes to the same state are therefore delivered in the order they were applied
+ */
+public class InMemoryBackend implements Backend, Exportable {
 
-    private Map<String, Group> groups;
-    private Map<String, IdentityPolicy> policies;
+    private final Object policyLock = new Object();
+    /**
+     * Held while a resource policy is replaced and the change delivered, which happens once the map is updated: listeners may read the
+     * resource policy back
+     */
+    private final Object resourcePolicyLock = new Object();
+    /**
+     * Guards {@link #changeSequence}, held while changes are delivered so that they are delivered in the order of their sequence
+     */
+    private final Object changeLock = new Object();
+    private final List<BackendChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private long changeSequence;
 
-    private Map<String, Map<String, String>> groupToPrincipalMap;
-    private Map<String, Map<String, Group>> groupToGroupMap;
-    private Map<String, Map<String, Group>> principalToGroupMap;
-    private Map<String, Map<String, String>> policyToPrincipalMap;
-    private Map<String, Map<String, IdentityPolicy>> principalToPolicyMap;
-    private Map<String, ImmutableResourcePolicy> resourcePolicyMap;
+    private final InMemoryGroupManager groupManager;
+    private final Map<String, IdentityPolicy> policies;
+    private final Map<String, CompiledIdentityPolicy> compiledPolicies;
+
+    private final Map<String, Map<String, String>> policyToPrincipalMap;
+    private final Map<String, Map<String, IdentityPolicy>> principalToPolicyMap;
+    private final Map<String, IdentityPolicyTrie> principalToPolicyTrie;
+    private final Map<String, ImmutableResourcePolicy> resourcePolicyMap;
+    /**
+     * {@link #resourcePolicyMap} indexed by principal, refreshed whenever a resource policy changes
+     */
+    private final Map<String, ResourceGrants> resourceGrantsMap;
+    /**
+     * The grantees of every action on a resource as ids interned by {@link #groupManager}, so that checking a principal against a
+     * resource policy is an intersection with the closures of its groups
+     */
+    private final Map<String, Map<String, RoaringBitmap>> resourceGranteesMap;
+    /**
+     * The grantees of prefix policies, arranged by path segment so that those applying to a resource are found in one walk down the tree
+     */
+    private final ResourcePrefixTree<Map<String, RoaringBitmap>> prefixGrantees;
+    /**
+     * The resources granted to each principal, by action, in lexicographic order
+     */
+    private final Map<String, Map<String, NavigableSet<String>>> grantedResources;
+    /**
+     * The snapshot this backend was started from, or null. Resource policies it holds are only decoded and indexed when their resource
+     * is first accessed, see {@link #fault(String)}
+     */
+    private final Snapshot snapshot;
+    /**
+     * Whether every resource policy of {@link #snapshot} was indexed, see {@link #faultAll()}
+     */
+    private volatile boolean faultedAll;
 
     public InMemoryBackend() {
-        policies = new HashMap<>();
-        groups = new HashMap<>();
-        groupToGroupMap = new HashMap<>();
-        groupToPrincipalMap = new HashMap<>();
-        principalToGroupMap = new HashMap<>();
-        policyToPrincipalMap = new HashMap<>();
-        principalToPolicyMap = new HashMap<>();
-        resourcePolicyMap = new HashMap<>();
+        this(new InMemoryGroupManager());
+    }
+
+    public InMemoryBackend(InMemoryGroupManager groupManager) {
+        this(groupManager, null);
+    }
+
+    private InMemoryBackend(InMemoryGroupManager groupManager, Snapshot snapshot) {
+        this.groupManager = groupManager;
+        this.snapshot = snapshot;
+        policies = new ConcurrentHashMap<>();
+        compiledPolicies = new ConcurrentHashMap<>();
+        policyToPrincipalMap = new ConcurrentHashMap<>();
+        principalToPolicyMap = new ConcurrentHashMap<>();
+        principalToPolicyTrie = new ConcurrentHashMap<>();
+        resourcePolicyMap = new ConcurrentHashMap<>();
+        resourceGrantsMap = new ConcurrentHashMap<>();
+        resourceGranteesMap = new ConcurrentHashMap<>();
+        prefixGrantees = new ResourcePrefixTree<>();
+        grantedResources = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Copy-on-write insertion into one of the nested maps, the nested map is replaced rather than modified
+     */
+    private static <V> void putNested(Map<String, Map<String, V>> map, String key, String nestedKey, V value) {
+        final Map<String, V> copy = new HashMap<>(map.getOrDefault(key, emptyMap()));
+        copy.put(nestedKey, value);
+        map.put(key, unmodifiableMap(copy));
+    }
+
+    /**
+     * Copy-on-write removal from one of the nested maps, the (possibly empty) nested map is kept in place
+     */
+    private static <V> void removeNested(Map<String, Map<String, V>> map, String key, String nestedKey) {
+        final Map<String, V> existing = map.get(key);
+        if (existing != null && existing.containsKey(nestedKey)) {
+            final Map<String, V> copy = new HashMap<>(existing);
+            copy.remove(nestedKey);
+            map.put(key, unmodifiableMap(copy));
+        }
     }
 
     private static ImmutableResourcePolicy newPolicy(String resource) {
@@ -44,110 +145,95 @@ public class InMemoryBackend implements Backend {
 
     @Override
     public void createGroup(Group group) {
-        groups.put(group.id(), group);
+        synchronized (groupManager) {
+            groupManager.createGroup(group);
+            emit(BackendChange.groupCreated(group));
+        }
     }
 
     @Override
     public Group getGroup(String groupId) {
-        if (!groups.containsKey(groupId)) {
-            return null;
-        }
-        final Map<String, Group> g2g = groupToGroupMap.getOrDefault(groupId, new HashMap<>());
-        final Map<String, String> g2p = groupToPrincipalMap.getOrDefault(groupId, new HashMap<>());
-        List<GroupAssignment> assignments = new ArrayList<>();
-        g2g.values().forEach(a -> assignments.add(ImmutableGroupAssignment.builder().principal(a.id()).principalIsGroup(true).groupId(groupId).build()));
-        g2p.values().forEach(p -> assignments.add(ImmutableGroupAssignment.builder().principal(p).groupId(groupId).build()));
-        return ImmutableGroup.copyOf(groups.get(groupId))
-                .withAssignments(assignments);
+        return groupManager.getGroup(groupId);
     }
 
     @Override
     public void updateGroup(Group group) {
-        groups.put(group.id(), group);
+        synchronized (groupManager) {
+            groupManager.updateGroup(group);
+            emit(BackendChange.groupUpdated(group));
+        }
     }
 
     @Override
-    public synchronized void deleteGroup(String groupId) {
-        final Set<String> principals = groupToPrincipalMap.getOrDefault(groupId, emptyMap()).keySet();
-        principals.forEach(principal -> {
-            groupToGroupMap.getOrDefault(principal, emptyMap()).remove(groupId);
-            principalToGroupMap.getOrDefault(principal, emptyMap()).remove(groupId);
-        });
-        groups.remove(groupId);
+    public void deleteGroup(String groupId) {
+        synchronized (groupManager) {
+            groupManager.deleteGroup(groupId);
+            emit(BackendChange.groupDeleted(groupId));
+        }
     }
 
     @Override
-    public synchronized void assignPrincipalToGroup(String groupId, String principalId) {
-        this.assignPrincipalToGroup(groupId, principalId, false);
+    public void assignPrincipalToGroup(String groupId, String principalId) {
+        assignPrincipalToGroup(groupId, principalId, false);
     }
 
     @Override
-    public synchronized void assignPrincipalToGroup(String groupId,
-                                                    String principalId,
-                                                    boolean principalIsGroup) {
-        if (principalIsGroup) {
-            final Map<String, Group> m1 = groupToGroupMap.getOrDefault(groupId, new HashMap<>());
-            m1.put(principalId, this.getGroup(principalId));
-            groupToGroupMap.put(groupId, m1);
-        } else {
-            final Map<String, String> m2 = groupToPrincipalMap.getOrDefault(groupId, new HashMap<>());
-            m2.put(principalId, principalId);
-            groupToPrincipalMap.put(groupId, m2);
+    public void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup) {
+        synchronized (groupManager) {
+            groupManager.assignPrincipalToGroup(groupId, principalId, principalIsGroup);
+            emit(BackendChange.principalAssignedToGroup(groupId, principalId, principalIsGroup));
+        }
+    }
+
+    @Override
+    public void unassignPrincipalFromGroup(String groupId, String principalId) {
+        synchronized (groupManager) {
+            groupManager.unassignPrincipalFromGroup(groupId, principalId);
+            emit(BackendChange.principalUnassignedFromGroup(groupId, principalId));
         }
-        final Map<String, Group> m3 = principalToGroupMap.getOrDefault(principalId, new HashMap<>());
-        m3.put(groupId, this.getGroup(groupId));
-        principalToGroupMap.put(principalId, m3);
     }
 
     @Override
-    public synchronized void unassignPrincipalFromGroup(String groupId, String principalId) {
-        final Map<String, Group> m1 = groupToGroupMap.getOrDefault(groupId, new HashMap<>());
-        m1.remove(principalId);
-        groupToGroupMap.put(groupId, m1);
-        final Map<String, String> m2 = groupToPrincipalMap.getOrDefault(groupId, new HashMap<>());
-        m2.remove(principalId);
-        groupToPrincipalMap.put(groupId, m2);
-        final Map<String, Group> m3 = principalToGroupMap.getOrDefault(principalId, new HashMap<>());
-        m3.remove(groupId);
-        principalToGroupMap.put(principalId, m3);
+    public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        synchronized (groupManager) {
+            groupManager.assignPrincipalsToGroups(assignments);
+            for (GroupAssignment assignment : assignments) {
+                emit(BackendChange.principalAssignedToGroup(assignment.groupId(), assignment.principal(), assignment.principalIsGroup()));
+            }
+        }
+    }
+
+    @Override
+    public void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        synchronized (groupManager) {
+            groupManager.unassignPrincipalsFromGroups(assignments);
+            for (GroupAssignment assignment : assignments) {
+                emit(BackendChange.principalUnassignedFromGroup(assignment.groupId(), assignment.principal()));
+            }
+        }
     }
 
     @Override
     public List<String> getAllPrincipalsForGroup(String groupId) {
-        return new ArrayList<>(groupToPrincipalMap.get(groupId).keySet());
+        return groupManager.getAllPrincipalsForGroup(groupId);
     }
 
     @Override
     public List<String> getGroupMembership(String principalId) {
-        return new ArrayList<>(principalToGroupMap.get(principalId).keySet());
+        return groupManager.getGroupMembership(principalId);
     }
 
     @Override
     public Node getGroupTree(String groupId) {
-        Node root = new Node().setChildren(new ArrayList<>()).setName(groupId);
-        Stack<Node> stack = new Stack<>();
-        stack.add(root);
-        Set<String> seen = new HashSet<>();
-        while (!stack.isEmpty()) {
-            final Node node = stack.pop();
-            seen.add(node.getName());
-            if (groupToGroupMap.containsKey(node.getName())) {
-                final Set<String> childGids = groupToGroupMap.get(node.getName()).keySet();
-                for (String childGid : childGids) {
-                    if (!seen.contains(childGid)) {
-                        final Node childNode = new Node().setName(childGid).setChildren(new ArrayList<>());
-                        node.getChildren().add(childNode);
-                        stack.add(childNode);
-                    }
-                }
-            }
-        }
-        return root;
+        return groupManager.getGroupTree(groupId);
     }
 
     @Override
     public void createPolicy(IdentityPolicy identityPolicy) {
-        policies.put(identityPolicy.id(), identityPolicy);
+        synchronized (policyLock) {
+            putPolicy(identityPolicy);
+            emit(BackendChange.policyCreated(identityPolicy));
+        }
     }
 
     @Override
@@ -157,85 +243,156 @@ public class InMemoryBackend implements Backend {
 
     @Override
     public void updatePolicy(IdentityPolicy identityPolicy) {
-        policies.put(identityPolicy.id(), identityPolicy);
+        synchronized (policyLock) {
+            putPolicy(identityPolicy);
+            emit(BackendChange.policyUpdated(identityPolicy));
+        }
+    }
+
+    private void putPolicy(IdentityPolicy identityPolicy) {
+        final String policyId = identityPolicy.id();
+        policies.put(policyId, identityPolicy);
+        compiledPolicies.put(policyId, CompiledIdentityPolicy.compile(identityPolicy));
+        // principals already assigned to this policy must see the new version
+        for (String principalId : policyToPrincipalMap.getOrDefault(policyId, emptyMap()).keySet()) {
+            putNested(principalToPolicyMap, principalId, policyId, identityPolicy);
+            rebuildPolicyTrie(principalId);
+        }
     }
 
     @Override
-    public synchronized void deletePolicy(String policyId) {
-        policies.remove(policyId);
-        // remove any associated policy maps
-        policyToPrincipalMap.remove(policyId);
-        // rebuild the principalToPolicy map, this is very inefficient
-        final Map<String, Map<String, IdentityPolicy>> updatedPrincipalToPolicyMap = principalToPolicyMap
-                .entrySet()
-                .stream()
-                .collect(
-                        toMap(
-                                Map.Entry::getKey,
-                                s -> {
-                                    final Map<String, IdentityPolicy> value = new HashMap<>(s.getValue());
-                                    value.remove(policyId);
-                                    return value;
-                                })
-                );
-        principalToPolicyMap = updatedPrincipalToPolicyMap;
+    public void deletePolicy(String policyId) {
+        synchronized (policyLock) {
+            policies.remove(policyId);
+            compiledPolicies.remove(policyId);
+            // remove any associated policy maps
+            final Map<String, String> principals = policyToPrincipalMap.remove(policyId);
+            if (principals != null) {
+                for (String principalId : principals.keySet()) {
+                    removeNested(principalToPolicyMap, principalId, policyId);
+                    rebuildPolicyTrie(principalId);
+                }
+            }
+            emit(BackendChange.policyDeleted(policyId));
+        }
     }
 
     @Override
-    public synchronized void assignPolicy(String policyId, String principalId) {
-        final Map<String, String> m1 = policyToPrincipalMap.getOrDefault(policyId, new HashMap<>());
-        final Map<String, IdentityPolicy> m2 = principalToPolicyMap.getOrDefault(principalId, new HashMap<>());
-        m1.put(policyId, principalId);
-        m2.put(policyId, getPolicy(policyId));
-        policyToPrincipalMap.put(policyId, m1);
-        principalToPolicyMap.put(principalId, m2);
+    public void assignPolicy(String policyId, String principalId) {
+        synchronized (policyLock) {
+            putNested(policyToPrincipalMap, policyId, principalId, principalId);
+            putNested(principalToPolicyMap, principalId, policyId, getPolicy(policyId));
+            rebuildPolicyTrie(principalId);
+            emit(BackendChange.policyAssigned(policyId, principalId));
+        }
     }
 
     @Override
-    public synchronized void unAssignPolicy(String policyId, String principalId) {
-        final Map<String, String> m1 = policyToPrincipalMap.getOrDefault(policyId, new HashMap<>());
-        final Map<String, IdentityPolicy> m2 = principalToPolicyMap.getOrDefault(principalId, new HashMap<>());
-        m1.remove(policyId);
-        m2.remove(policyId);
+    public void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        synchronized (policyLock) {
+            final IdentityPolicy policy = getPolicy(policyId);
+            final Map<String, String> principals = new HashMap<>(policyToPrincipalMap.getOrDefault(policyId, emptyMap()));
+            for (String principalId : principalIds) {
+                principals.put(principalId, principalId);
+                putNested(principalToPolicyMap, principalId, policyId, policy);
+                rebuildPolicyTrie(principalId);
+            }
+            policyToPrincipalMap.put(policyId, unmodifiableMap(principals));
+            for (String principalId : principalIds) {
+                emit(BackendChange.policyAssigned(policyId, principalId));
+            }
+        }
     }
 
     @Override
-    public List<String> getGroupMembershipTransitively(String principalId) {
-        final Map<String, Group> m1 = principalToGroupMap.get(principalId);
-        // BFS to to construct a list of group membership and transitive group memberships for this principal
-        // gids = groupIds, represents the group Ids the BFS has seen so far, used to both keep track of the results of the
-        // traversal but also mark visited 'nodes' and prevent them from being processed again
-        Set<String> gids = new HashSet<>();
-        if (m1 != null) {
-            Queue<String> queue = m1.values().stream().map(Group::id).collect(toCollection(ArrayDeque::new));
-            while (!queue.isEmpty()) {
-                final String gid = queue.poll();
-                gids.add(gid);
-                if (principalToGroupMap.containsKey(gid)) {
-                    for (String cGid : principalToGroupMap.get(gid).keySet()) {
-                        if (!gids.contains(cGid)) {
-                            queue.add(cGid);
-                        }
-                    }
-                }
+    public void unAssignPolicy(String policyId, String principalId) {
+        synchronized (policyLock) {
+            removeNested(policyToPrincipalMap, policyId, principalId);
+            removeNested(principalToPolicyMap, principalId, policyId);
+            rebuildPolicyTrie(principalId);
+            emit(BackendChange.policyUnassigned(policyId, principalId));
+        }
+    }
+
+    /**
+     * Re-index the policies directly assigned to the given principal (or group), this is done on every write that
+     * affects the principal so that reads never have to scan policies that cannot apply to the requested resource
+     */
+    private void rebuildPolicyTrie(String principalId) {
+        final Set<String> policyIds = principalToPolicyMap.getOrDefault(principalId, emptyMap()).keySet();
+        final List<CompiledIdentityPolicy> compiled = new ArrayList<>(policyIds.size());
+        for (String policyId : policyIds) {
+            final CompiledIdentityPolicy policy = compiledPolicies.get(policyId);
+            if (policy != null) {
+                compiled.add(policy);
             }
         }
-        return new ArrayList<>(gids);
+        if (compiled.isEmpty()) {
+            principalToPolicyTrie.remove(principalId);
+        } else {
+            principalToPolicyTrie.put(principalId, IdentityPolicyTrie.build(compiled));
+        }
+    }
+
+    @Override
+    public List<String> getGroupMembershipTransitively(String principalId) {
+        return groupManager.getGroupMembershipTransitively(principalId);
     }
 
     @Override
     public List<IdentityPolicy> fetchIdentityPoliciesTransitivelyForPrincipal(String principalId) {
-        Set<IdentityPolicy> ret = principalToPolicyMap.containsKey(principalId) ? new HashSet<>(principalToPolicyMap
-                .get(principalId)
-                .values()) : new HashSet<>();
+        Set<IdentityPolicy> ret = new HashSet<>(principalToPolicyMap.getOrDefault(principalId, emptyMap()).values());
         final List<String> gids = getGroupMembershipTransitively(principalId);
-        gids.forEach(gid -> ret.addAll(new ArrayList<>(principalToPolicyMap.getOrDefault(gid, emptyMap()).values())));
+        gids.forEach(gid -> ret.addAll(principalToPolicyMap.getOrDefault(gid, emptyMap()).values()));
         return new ArrayList<>(ret);
     }
 
     @Override
-    public synchronized void grantActions(String resource, String principal, Set<String> actions) {
-        final ImmutableResourcePolicy policy = resourcePolicyMap.getOrDefault(resource, newPolicy(resource));
+    public PrincipalContext resolvePrincipalContext(String principalId) {
+        final List<String> gids = getGroupMembershipTransitively(principalId);
+        final Set<String> policyIds = new LinkedHashSet<>(principalToPolicyMap.getOrDefault(principalId, emptyMap()).keySet());
+        gids.forEach(gid -> policyIds.addAll(principalToPolicyMap.getOrDefault(gid, emptyMap()).keySet()));
+        return ImmutablePrincipalContext
+                .builder()
+                .principal(principalId)
+                .groups(gids)
+                .policyIds(policyIds)
+                .build();
+    }
+
+    @Override
+    public List<CompiledIdentityPolicy> fetchIdentityPolicies(PrincipalContext context) {
+        // policies are looked up by id so that the latest compiled version of a policy is always used
+        final List<CompiledIdentityPolicy> ret = new ArrayList<>(context.policyIds().size());
+        for (String policyId : context.policyIds()) {
+            final CompiledIdentityPolicy compiled = compiledPolicies.get(policyId);
+            if (compiled != null) {
+                ret.add(compiled);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<CompiledIdentityPolicy> fetchCandidateIdentityPolicies(PrincipalContext context, String resource) {
+        final List<CompiledIdentityPolicy> ret = new ArrayList<>();
+        principalToPolicyTrie.getOrDefault(context.principal(), IdentityPolicyTrie.empty()).collect(resource, ret);
+        for (String gid : context.groups()) {
+            principalToPolicyTrie.getOrDefault(gid, IdentityPolicyTrie.empty()).collect(resource, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public void grantActions(String resource, String principal, Set<String> actions) {
+        fault(resource);
+        synchronized (resourcePolicyLock) {
+            resourcePolicyMap.compute(resource, (key, existing) -> granted(existing != null ? existing : newPolicy(resource), principal, actions));
+            emit(BackendChange.actionsGranted(resource, principal, actions));
+        }
+    }
+
+    private ImmutableResourcePolicy granted(ImmutableResourcePolicy policy, String principal, Set<String> actions) {
         // for each attached assignment, determine if the principal is already granted the actions
         final List<ResourcePolicyAssignment> resourcePolicyAssignments = policy.assignments().orElse(new ArrayList<>());
         boolean found = false;
@@ -256,12 +413,19 @@ public class InMemoryBackend implements Backend {
         if (!found) {
             results.add(ImmutableResourcePolicyAssignment.builder().actions(actions).principal(principal).build());
         }
-        resourcePolicyMap.put(resource, policy.withAssignments(results));
+        return indexGrants(policy.withAssignments(results));
     }
 
     @Override
-    public synchronized void revokeActions(String resource, String principal, Set<String> actions) {
-        final ImmutableResourcePolicy policy = resourcePolicyMap.getOrDefault(resource, newPolicy(resource));
+    public void revokeActions(String resource, String principal, Set<String> actions) {
+        fault(resource);
+        synchronized (resourcePolicyLock) {
+            resourcePolicyMap.compute(resource, (key, existing) -> revoked(existing != null ? existing : newPolicy(resource), principal, actions));
+            emit(BackendChange.actionsRevoked(resource, principal, actions));
+        }
+    }
+
+    private ImmutableResourcePolicy revoked(ImmutableResourcePolicy policy, String principal, Set<String> actions) {
         // for each attached assignment, determine if the principal is already granted the actions
         final List<ResourcePolicyAssignment> resourcePolicyAssignments = policy.assignments().orElse(new ArrayList<>());
         List<ResourcePolicyAssignment> results = new ArrayList<>();
@@ -269,16 +433,367 @@ public class InMemoryBackend implements Backend {
             if (assignment.principal().equals(principal)) {
                 final HashSet<String> removed = new HashSet<>(assignment.actions());
                 removed.removeAll(actions);
+                for (String action : actions) {
+                    grantedResources(principal, action).remove(policy.resource());
+                }
                 results.add(ImmutableResourcePolicyAssignment.copyOf(assignment).withActions(removed));
             } else {
                 results.add(assignment);
             }
         }
-        resourcePolicyMap.put(resource, policy.withAssignments(results));
+        return indexGrants(policy.withAssignments(results));
+    }
+
+    /**
+     * Register a listener to be told about every change made from now on, see {@link BackendChangeListener} for what listeners may do
+     */
+    public void addChangeListener(BackendChangeListener listener) {
+        synchronized (changeLock) {
+            changeListeners.add(listener);
+        }
+    }
+
+    public void removeChangeListener(BackendChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * @return the sequence of the last change made to this backend, 0 if none was
+     */
+    public long changeSequence() {
+        synchronized (changeLock) {
+            return changeSequence;
+        }
+    }
+
+    /**
+     * Number the given change and deliver it to every listener, must be called while holding the lock of the state it changes
+     */
+    private void emit(BackendChange change) {
+        synchronized (changeLock) {
+            final long sequence = ++changeSequence;
+            if (changeListeners.isEmpty()) {
+                return;
+            }
+            final BackendChange sequenced = ImmutableBackendChange.copyOf(change).withSequence(sequence);
+            for (BackendChangeListener listener : changeListeners) {
+                try {
+                    listener.onChange(sequenced);
+                } catch (RuntimeException e) {
+                    // the change is made already, a failing listener must not fail it nor keep others from hearing about it
+                    Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+                }
+            }
+        }
+    }
+
+    private ImmutableResourcePolicy indexGrants(ImmutableResourcePolicy policy) {
+        resourceGrantsMap.put(policy.resource(), ResourceGrants.of(policy));
+        final Map<String, RoaringBitmap> grantees = new HashMap<>();
+        for (ResourcePolicyAssignment assignment : policy.assignments().orElse(emptyList())) {
+            final int principal = groupManager.intern(assignment.principal());
+            for (String action : assignment.actions()) {
+                grantees.computeIfAbsent(action, k -> new RoaringBitmap()).add(principal);
+                grantedResources(assignment.principal(), action).add(policy.resource());
+            }
+        }
+        grantees.values().forEach(RoaringBitmap::runOptimize);
+        resourceGranteesMap.put(policy.resource(), unmodifiableMap(grantees));
+        if (ResourcePaths.isPrefix(policy.resource())) {
+            prefixGrantees.put(policy.resource(), unmodifiableMap(grantees));
+        }
+        return policy;
+    }
+
+    private NavigableSet<String> grantedResources(String principal, String action) {
+        return grantedResources
+                .computeIfAbsent(principal, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(action, key -> new ConcurrentSkipListSet<>());
+    }
+
+    @Override
+    public List<String> getGrantedResources(Collection<String> principals, String action, String after, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        faultAll();
+        final List<NavigableSet<String>> sorted = new ArrayList<>(principals.size());
+        for (String principal : principals) {
+            final NavigableSet<String> resources = grantedResources.getOrDefault(principal, emptyMap()).get(action);
+            if (resources != null) {
+                sorted.add(after == null ? resources : resources.tailSet(after, false));
+            }
+        }
+        return ResourcePolicyManager.merge(sorted, limit);
+    }
+
+    /**
+     * The grantees of the resource and the assignees of the identity policies that apply to it are gathered as ids of the group graph,
+     * then the principals below them are decided one by one against the closures of their groups. Assignees of identity policies that
+     * are unknown to the group graph have no groups, they are decided on their own
+     */
+    @Override
+    public void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        final RoaringBitmap granted = new RoaringBitmap();
+        addGrantees(granted, grantees(resource), action);
+        for (String prefixPolicy : ResourcePaths.prefixPolicies(resource)) {
+            addGrantees(granted, grantees(prefixPolicy), action);
+        }
+        final RoaringBitmap permitted = new RoaringBitmap();
+        final RoaringBitmap denied = new RoaringBitmap();
+        final Set<String> permittedElsewhere = new HashSet<>();
+        final Set<String> deniedElsewhere = new HashSet<>();
+        for (CompiledIdentityPolicy policy : compiledPolicies.values()) {
+            if (policy.appliesTo(resource, action)) {
+                for (String principal : policyToPrincipalMap.getOrDefault(policy.id(), emptyMap()).keySet()) {
+                    final int id = groupManager.id(principal);
+                    if (id >= 0) {
+                        (policy.isDeny() ? denied : permitted).add(id);
+                    } else {
+                        (policy.isDeny() ? deniedElsewhere : permittedElsewhere).add(principal);
+                    }
+                }
+            }
+        }
+        groupManager.forEachMemberTransitively(RoaringBitmap.or(granted, permitted), principal -> {
+            if (groupManager.intersects(principal, granted)
+                    || groupManager.intersects(principal, permitted) && !groupManager.intersects(principal, denied)) {
+                consumer.accept(groupManager.name(principal));
+            }
+        });
+        for (String principal : permittedElsewhere) {
+            if (!deniedElsewhere.contains(principal)) {
+                consumer.accept(principal);
+            }
+        }
+    }
+
+    private static void addGrantees(RoaringBitmap principals, Map<String, RoaringBitmap> grantees, String action) {
+        final RoaringBitmap granted = grantees == null ? null : grantees.get(action);
+        if (granted != null) {
+            principals.or(granted);
+        }
+    }
+
+    /**
+     * Index every resource policy still held by {@link #snapshot} only, so that {@link #grantedResources} is complete. This is done
+     * once, the first time resources are listed by principal
+     */
+    private void faultAll() {
+        if (snapshot != null && !faultedAll) {
+            snapshot.forEachResourcePolicy(
+                    resource -> !resourcePolicyMap.containsKey(resource),
+                    policy -> resourcePolicyMap.computeIfAbsent(policy.resource(), key -> indexGrants(policy))
+            );
+            faultedAll = true;
+        }
+    }
+
+    /**
+     * Decode and index the policy of the given resource from {@link #snapshot}, unless it is already indexed. Every access to the
+     * policy of a resource goes through here first
+     */
+    private void fault(String resource) {
+        if (snapshot != null && !resourcePolicyMap.containsKey(resource)) {
+            final ImmutableResourcePolicy policy = snapshot.resourcePolicy(resource);
+            if (policy != null) {
+                resourcePolicyMap.computeIfAbsent(resource, key -> indexGrants(policy));
+            }
+        }
+    }
+
+    private Map<String, RoaringBitmap> grantees(String resource) {
+        final Map<String, RoaringBitmap> ret = resourceGranteesMap.get(resource);
+        if (ret != null || snapshot == null) {
+            return ret;
+        }
+        fault(resource);
+        return resourceGranteesMap.get(resource);
+    }
+
+    @Override
+    public boolean isPermittedByResourcePolicy(PrincipalContext context, String resource, String action) {
+        return permits(grantees(resource), context.principal(), action)
+                || prefixGrantees.anyMatch(resource, grantees -> permits(grantees, context.principal(), action));
+    }
+
+    private boolean permits(Map<String, RoaringBitmap> grantees, String principal, String action) {
+        final RoaringBitmap principals = grantees == null ? null : grantees.get(action);
+        return principals != null && groupManager.intersects(principal, principals);
+    }
+
+    @Override
+    public ResourceGrants getResourceGrants(String resource) {
+        fault(resource);
+        ResourceGrants ret = resourceGrantsMap.getOrDefault(resource, ResourceGrants.empty());
+        for (String prefixPolicy : ResourcePaths.prefixPolicies(resource)) {
+            ret = ret.with(resourceGrantsMap.getOrDefault(prefixPolicy, ResourceGrants.empty()));
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, ResourceGrants> getResourceGrants(Collection<String> resources) {
+        final Map<String, ResourceGrants> ret = new HashMap<>();
+        for (String resource : resources) {
+            final ResourceGrants grants = getResourceGrants(resource);
+            if (grants.size() > 0) {
+                ret.put(resource, grants);
+            }
+        }
+        return ret;
     }
 
     @Override
     public ResourcePolicy getResourcePolicy(String resource) {
+        fault(resource);
         return resourcePolicyMap.get(resource);
     }
+
+    @Override
+    public void forEachGroup(Consumer<Group> consumer) {
+        groupManager.forEachGroup(consumer);
+    }
+
+    @Override
+    public void forEachGroupAssignment(Consumer<GroupAssignment> consumer) {
+        groupManager.forEachGroupAssignment(consumer);
+    }
+
+    @Override
+    public void forEachIdentityPolicy(Consumer<IdentityPolicy> consumer) {
+        policies.values().forEach(consumer);
+    }
+
+    @Override
+    public void forEachPolicyAssignment(Consumer<PolicyAssignment> consumer) {
+        policyToPrincipalMap.forEach((policyId, principals) -> {
+            for (String principal : principals.keySet()) {
+                consumer.accept(ImmutablePolicyAssignment.builder().policyId(policyId).principal(principal).build());
+            }
+        });
+    }
+
+    @Override
+    public void forEachResourcePolicy(Consumer<ResourcePolicy> consumer) {
+        forEachStoredResourcePolicy(policy -> {
+            // revoking every action of a principal leaves its assignment in place, with no action
+            final List<ResourcePolicyAssignment> assignments = new ArrayList<>();
+            for (ResourcePolicyAssignment assignment : policy.assignments().orElse(emptyList())) {
+                if (!assignment.actions().isEmpty()) {
+                    assignments.add(assignment);
+                }
+            }
+            if (!assignments.isEmpty()) {
+                consumer.accept(policy.withAssignments(assignments));
+            }
+        });
+    }
+
+    /**
+     * Visit every resource policy as stored, including those still held by {@link #snapshot} only. Reads fault policies of the snapshot
+     * into {@link #resourcePolicyMap} at any time without a lock, so the policies of the snapshot are visited from the snapshot, each in
+     * its current version, and only the policies it does not hold from the map
+     */
+    private void forEachStoredResourcePolicy(Consumer<ImmutableResourcePolicy> consumer) {
+        if (snapshot == null) {
+            resourcePolicyMap.values().forEach(consumer);
+            return;
+        }
+        snapshot.forEachCurrentResourcePolicy(resourcePolicyMap::get, consumer);
+        for (ImmutableResourcePolicy policy : resourcePolicyMap.values()) {
+            if (!snapshot.containsResourcePolicy(policy.resource())) {
+                consumer.accept(policy);
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of this backend to the given file, replacing any previous snapshot atomically. Groups and identity policies
+     * are captured at one point in time, each resource policy is captured as it is at the time it is written
+     *
+     * @param path the file to write, a temporary file is written next to it first
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        Snapshot.write(path, captureSnapshot());
+    }
+
+    /**
+     * Capture groups and identity policies for a snapshot, the sections returned write them later on without holding any lock.
+     * Resource policies are read as their section is written
+     */
+    Snapshot.Section[] captureSnapshot() {
+        final Snapshot.Section graph;
+        final Snapshot.Section identity;
+        synchronized (groupManager) {
+            synchronized (policyLock) {
+                graph = groupManager.capture();
+                identity = captureIdentityPolicies();
+            }
+        }
+        return new Snapshot.Section[]{
+                graph,
+                identity,
+                Snapshot.resourcePolicies(consumer -> forEachStoredResourcePolicy(consumer::accept))
+        };
+    }
+
+    /**
+     * Start a backend from a snapshot written by {@link #writeSnapshot(Path)}. The file is mapped in memory: the group graph is copied
+     * out of it in bulk, while groups and resource policies are decoded as they are accessed. The file must therefore stay in place
+     * while the backend is in use, writing a new snapshot over it is safe as that replaces the file rather than modifying it
+     *
+     * @param path the snapshot to read
+     * @return a backend holding the content of the snapshot
+     */
+    public static InMemoryBackend readSnapshot(Path path) throws IOException {
+        final Snapshot snapshot = Snapshot.map(path);
+        final ByteBuffer buffer = snapshot.sections();
+        final InMemoryBackend ret = new InMemoryBackend(InMemoryGroupManager.readFrom(snapshot, buffer), snapshot);
+        ret.readIdentityPolicies(buffer);
+        // prefix policies apply to resources other than their own, they must be indexed up front
+        for (ImmutableResourcePolicy policy : snapshot.prefixPolicies()) {
+            ret.resourcePolicyMap.put(policy.resource(), ret.indexGrants(policy));
+        }
+        return ret;
+    }
+
+    /**
+     * Must be called with {@link #policyLock} held, the returned section writes what was captured without it
+     */
+    private Snapshot.Section captureIdentityPolicies() {
+        final List<IdentityPolicy> policies = new ArrayList<>(this.policies.values());
+        final Map<String, Map<String, String>> assignments = new HashMap<>(policyToPrincipalMap);
+        return out -> {
+            out.writeInt(policies.size());
+            for (IdentityPolicy policy : policies) {
+                out.writeJson(policy);
+            }
+            out.writeInt(assignments.size());
+            for (Map.Entry<String, Map<String, String>> entry : assignments.entrySet()) {
+                Snapshot.writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String principal : entry.getValue().keySet()) {
+                    Snapshot.writeString(out, principal);
+                }
+            }
+        };
+    }
+
+    private void readIdentityPolicies(ByteBuffer buffer) {
+        final int policyCount = buffer.getInt();
+        for (int i = 0; i < policyCount; i++) {
+            createPolicy(Snapshot.readJson(buffer, IdentityPolicy.class));
+        }
+        final int assignmentCount = buffer.getInt();
+        for (int i = 0; i < assignmentCount; i++) {
+            final String policyId = Snapshot.readString(buffer);
+            final List<String> principals = new ArrayList<>();
+            final int principalCount = buffer.getInt();
+            for (int j = 0; j < principalCount; j++) {
+                principals.add(Snapshot.readString(buffer));
+            }
+            assignPolicyToPrincipals(policyId, principals);
+        }
+    }
 }
@@ -0,0 +1,605 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.core.backend.GroupManager;
+import com.erfangc.sac.interfaces.*;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * {@link InMemoryGroupManager} keeps the group graph in primitive form: principal and group ids are interned to dense <code>int</code>s
+ * by an {@link IdDictionary} and membership edges are stored as {@link Adjacency} rows, so an edge costs an <code>int</code> in each
+ * direction rather than a pair of map entries keyed by strings
+ * <p>
+ * The transitive groups of every group are maintained as a {@link RoaringBitmap} of ids on each membership change, while those of other
+ * principals are assembled on read from their direct groups. Changes therefore only touch the (comparatively few) groups below the edge
+ * being changed, however many principals are members of them
+ * <p>
+ * Reads never lock, writes are serialized on the instance. A manager read from a {@link Snapshot} decodes its groups as they are read,
+ * the rest of its state is restored up front
+ */
+public class InMemoryGroupManager implements GroupManager {
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final IdDictionary ids;
+    /**
+     * principal -> the groups it is directly a member of
+     */
+    private final Adjacency memberships;
+    /**
+     * group -> members assigned as principals
+     */
+    private final Adjacency principalMembers;
+    /**
+     * group -> members assigned as groups
+     */
+    private final Adjacency groupMembers;
+    /**
+     * group -> members that are groups themselves, however they were assigned. These are the only members whose maintained
+     * closure depends on the group
+     */
+    private final Adjacency subgroups;
+    /**
+     * Ids that are known to be groups: created as one, or assigned members. Only accessed by writers
+     */
+    private final BitSet tracked;
+    /**
+     * The transitive groups of every tracked group, which includes the group itself if it is part of a cycle. Absent entries denote
+     * no membership, bitmaps are never modified once published
+     */
+    private final Map<Integer, RoaringBitmap> closures;
+    /**
+     * The snapshot this manager was read from, or null
+     */
+    private final Snapshot snapshot;
+    /**
+     * The position in {@link #snapshot} of every group not decoded yet, by id, 0 if there is none. Entries of {@link #groups} take
+     * precedence, as they were written since
+     */
+    private final AtomicIntegerArray coldGroups;
+
+    public InMemoryGroupManager() {
+        this(
+                new IdDictionary(),
+                new Adjacency(),
+                new Adjacency(),
+                new Adjacency(),
+                new Adjacency(),
+                new BitSet(),
+                new ConcurrentHashMap<>(),
+                null,
+                null
+        );
+    }
+
+    private InMemoryGroupManager(IdDictionary ids,
+                                 Adjacency memberships,
+                                 Adjacency principalMembers,
+                                 Adjacency groupMembers,
+                                 Adjacency subgroups,
+                                 BitSet tracked,
+                                 Map<Integer, RoaringBitmap> closures,
+                                 Snapshot snapshot,
+                                 AtomicIntegerArray coldGroups) {
+        this.ids = ids;
+        this.memberships = memberships;
+        this.principalMembers = principalMembers;
+        this.groupMembers = groupMembers;
+        this.subgroups = subgroups;
+        this.tracked = tracked;
+        this.closures = closures;
+        this.snapshot = snapshot;
+        this.coldGroups = coldGroups;
+    }
+
+    @Override
+    public void createGroup(Group group) {
+        groups.put(group.id(), group);
+        synchronized (this) {
+            track(ids.intern(group.id()));
+        }
+    }
+
+    @Override
+    public Group getGroup(String groupId) {
+        Group group = groups.get(groupId);
+        if (group == null) {
+            group = coldGroup(ids.id(groupId));
+        }
+        if (group == null) {
+            return null;
+        }
+        final List<GroupAssignment> assignments = new ArrayList<>();
+        final int gid = ids.id(groupId);
+        if (gid >= 0) {
+            groupMembers.forEach(gid, member -> assignments.add(
+                    ImmutableGroupAssignment.builder().principal(ids.name(member)).principalIsGroup(true).groupId(groupId).build()
+            ));
+            principalMembers.forEach(gid, member -> assignments.add(
+                    ImmutableGroupAssignment.builder().principal(ids.name(member)).groupId(groupId).build()
+            ));
+        }
+        return ImmutableGroup.copyOf(group).withAssignments(assignments);
+    }
+
+    /**
+     * @return the group with the given id as read from the snapshot, or null if it was not part of it or was deleted since
+     */
+    private Group coldGroup(int gid) {
+        if (coldGroups == null || gid < 0 || gid >= coldGroups.length()) {
+            return null;
+        }
+        final int position = coldGroups.get(gid);
+        return position == 0 ? null : snapshot.readJson(position, Group.class);
+    }
+
+    @Override
+    public void updateGroup(Group group) {
+        groups.put(group.id(), group);
+    }
+
+    @Override
+    public synchronized void deleteGroup(String groupId) {
+        groups.remove(groupId);
+        final int gid = ids.id(groupId);
+        if (gid < 0) {
+            return;
+        }
+        if (coldGroups != null && gid < coldGroups.length()) {
+            coldGroups.set(gid, 0);
+        }
+        // everything below the group loses it (and whatever it was a member of) from their closure, the group itself
+        // is included as it may be part of a cycle
+        final Set<Integer> affected = descendants(gid);
+        for (int member : principalMembers.targets(gid)) {
+            memberships.remove(member, gid);
+        }
+        for (int member : groupMembers.targets(gid)) {
+            memberships.remove(member, gid);
+        }
+        principalMembers.clear(gid);
+        groupMembers.clear(gid);
+        subgroups.clear(gid);
+        refreshClosures(affected);
+    }
+
+    @Override
+    public void assignPrincipalToGroup(String groupId, String principalId) {
+        assignPrincipalToGroup(groupId, principalId, false);
+    }
+
+    @Override
+    public synchronized void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup) {
+        final int member = ids.intern(principalId);
+        addEdge(ids.intern(groupId), member, principalIsGroup);
+        refreshClosures(descendants(member));
+    }
+
+    /**
+     * Applies every assignment before recomputing the closures, so that closures below several of the changed edges are only
+     * recomputed once
+     */
+    @Override
+    public synchronized void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        final BitSet members = new BitSet();
+        for (GroupAssignment assignment : assignments) {
+            final int member = ids.intern(assignment.principal());
+            addEdge(ids.intern(assignment.groupId()), member, assignment.principalIsGroup());
+            members.set(member);
+        }
+        refreshClosures(descendants(members));
+    }
+
+    private void addEdge(int gid, int member, boolean principalIsGroup) {
+        track(gid);
+        if (!memberships.contains(member, gid)) {
+            memberships.add(member, gid);
+            (principalIsGroup ? groupMembers : principalMembers).add(gid, member);
+            if (tracked.get(member)) {
+                subgroups.add(gid, member);
+            }
+        } else if (principalIsGroup && !groupMembers.contains(gid, member)) {
+            // previously assigned as a plain principal
+            principalMembers.remove(gid, member);
+            groupMembers.add(gid, member);
+        }
+    }
+
+    @Override
+    public synchronized void unassignPrincipalFromGroup(String groupId, String principalId) {
+        final int gid = ids.id(groupId);
+        final int member = ids.id(principalId);
+        if (gid < 0 || member < 0) {
+            return;
+        }
+        removeEdge(gid, member);
+        refreshClosures(descendants(member));
+    }
+
+    @Override
+    public synchronized void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        final BitSet members = new BitSet();
+        for (GroupAssignment assignment : assignments) {
+            final int gid = ids.id(assignment.groupId());
+            final int member = ids.id(assignment.principal());
+            if (gid >= 0 && member >= 0) {
+                removeEdge(gid, member);
+                members.set(member);
+            }
+        }
+        refreshClosures(descendants(members));
+    }
+
+    private void removeEdge(int gid, int member) {
+        memberships.remove(member, gid);
+        if (!groupMembers.remove(gid, member)) {
+            principalMembers.remove(gid, member);
+        }
+        subgroups.remove(gid, member);
+    }
+
+    /**
+     * Start maintaining the closure of the given id, from now on it is reachable from the groups it is a member of
+     */
+    private void track(int gid) {
+        if (tracked.get(gid)) {
+            return;
+        }
+        tracked.set(gid);
+        memberships.forEach(gid, parent -> subgroups.add(parent, gid));
+        refreshClosures(Collections.singleton(gid));
+    }
+
+    /**
+     * Find the tracked groups whose closure can change when an edge is added to or removed from the given principal: the principal
+     * itself if it is a group, and every group below it
+     */
+    private Set<Integer> descendants(int principal) {
+        final BitSet principals = new BitSet();
+        principals.set(principal);
+        return descendants(principals);
+    }
+
+    /**
+     * {@link #descendants(int)} of many principals at once, groups below several of them are only visited once
+     */
+    private Set<Integer> descendants(BitSet principals) {
+        final Set<Integer> visited = new LinkedHashSet<>();
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int principal = principals.nextSetBit(0); principal >= 0; principal = principals.nextSetBit(principal + 1)) {
+            if (tracked.get(principal)) {
+                visited.add(principal);
+                queue.add(principal);
+            }
+        }
+        while (!queue.isEmpty()) {
+            subgroups.forEach(queue.poll(), child -> {
+                if (visited.add(child)) {
+                    queue.add(child);
+                }
+            });
+        }
+        return visited;
+    }
+
+    /**
+     * Recompute the closure of the given groups with a breadth first walk up the direct memberships, visited groups are marked
+     * in a bitset so cycles in the group graph are handled
+     */
+    private void refreshClosures(Set<Integer> gids) {
+        int[] queue = new int[16];
+        for (int gid : gids) {
+            final RoaringBitmap visited = new RoaringBitmap();
+            int head = 0;
+            int tail = 0;
+            for (int node = gid; node >= 0; node = head < tail ? queue[head++] : -1) {
+                for (int parent : memberships.targets(node)) {
+                    if (visited.checkedAdd(parent)) {
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, tail * 2);
+                        }
+                        queue[tail++] = parent;
+                    }
+                }
+            }
+            if (tail == 0) {
+                closures.remove(gid);
+            } else {
+                visited.runOptimize();
+                closures.put(gid, visited);
+            }
+        }
+    }
+
+    @Override
+    public Node getGroupTree(String groupId) {
+        final Node root = new Node().setChildren(new ArrayList<>()).setName(groupId);
+        final int gid = ids.id(groupId);
+        if (gid < 0) {
+            return root;
+        }
+        final Deque<Node> stack = new ArrayDeque<>();
+        final Deque<Integer> stackIds = new ArrayDeque<>();
+        final BitSet seen = new BitSet();
+        stack.push(root);
+        stackIds.push(gid);
+        while (!stack.isEmpty()) {
+            final Node node = stack.pop();
+            final int id = stackIds.pop();
+            seen.set(id);
+            groupMembers.forEach(id, child -> {
+                if (!seen.get(child)) {
+                    final Node childNode = new Node().setName(ids.name(child)).setChildren(new ArrayList<>());
+                    node.getChildren().add(childNode);
+                    stack.push(childNode);
+                    stackIds.push(child);
+                }
+            });
+        }
+        return root;
+    }
+
+    @Override
+    public List<String> getAllPrincipalsForGroup(String groupId) {
+        return names(principalMembers, groupId);
+    }
+
+    @Override
+    public List<String> getGroupMembership(String principalId) {
+        return names(memberships, principalId);
+    }
+
+    private List<String> names(Adjacency adjacency, String id) {
+        final int node = ids.id(id);
+        if (node < 0) {
+            return emptyList();
+        }
+        final List<String> ret = new ArrayList<>();
+        adjacency.forEach(node, target -> ret.add(ids.name(target)));
+        return ret;
+    }
+
+    /**
+     * Visit every group, without its assignments
+     */
+    public void forEachGroup(Consumer<Group> consumer) {
+        groups.values().forEach(consumer);
+        if (coldGroups != null) {
+            for (int gid = 0; gid < coldGroups.length(); gid++) {
+                if (!groups.containsKey(ids.name(gid))) {
+                    final Group group = coldGroup(gid);
+                    if (group != null) {
+                        consumer.accept(group);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every direct membership, ordered by the id interned for the group
+     */
+    public void forEachGroupAssignment(Consumer<GroupAssignment> consumer) {
+        final int size = ids.size();
+        for (int gid = 0; gid < size; gid++) {
+            final String groupId = ids.name(gid);
+            groupMembers.forEach(gid, member -> consumer.accept(
+                    ImmutableGroupAssignment.builder().principal(ids.name(member)).principalIsGroup(true).groupId(groupId).build()
+            ));
+            principalMembers.forEach(gid, member -> consumer.accept(
+                    ImmutableGroupAssignment.builder().principal(ids.name(member)).groupId(groupId).build()
+            ));
+        }
+    }
+
+    /**
+     * The union of the direct groups of the principal and their maintained closures
+     */
+    @Override
+    public List<String> getGroupMembershipTransitively(String principalId) {
+        final int principal = ids.id(principalId);
+        if (principal < 0) {
+            return emptyList();
+        }
+        final int[] direct = memberships.targets(principal);
+        if (direct.length == 0) {
+            return emptyList();
+        }
+        final RoaringBitmap gids = RoaringBitmap.bitmapOf(direct);
+        for (int gid : direct) {
+            final RoaringBitmap closure = closures.get(gid);
+            if (closure != null) {
+                gids.or(closure);
+            }
+        }
+        final List<String> ret = new ArrayList<>(gids.getCardinality());
+        final IntIterator iterator = gids.getIntIterator();
+        while (iterator.hasNext()) {
+            ret.add(ids.name(iterator.next()));
+        }
+        return ret;
+    }
+
+    /**
+     * Check whether the given principal, or any group it belongs to transitively, is among the given ids. This walks the direct groups
+     * of the principal and intersects the given bitmap with their closures, the membership of the principal is never materialized
+     *
+     * @param principalId the principal to check
+     * @param principals  interned ids, as returned by {@link #intern(String)}
+     * @return true if the principal or one of its groups is in the bitmap
+     */
+    boolean intersects(String principalId, RoaringBitmap principals) {
+        final int principal = ids.id(principalId);
+        return principal >= 0 && intersects(principal, principals);
+    }
+
+    /**
+     * {@link #intersects(String, RoaringBitmap)} of an interned principal
+     */
+    boolean intersects(int principal, RoaringBitmap principals) {
+        if (principals.contains(principal)) {
+            return true;
+        }
+        for (int gid : memberships.targets(principal)) {
+            if (principals.contains(gid)) {
+                return true;
+            }
+            final RoaringBitmap closure = closures.get(gid);
+            if (closure != null && RoaringBitmap.intersects(principals, closure)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visit every principal below the given ones once: each of them that is not a group, and the members of those that are, down
+     * through nested groups. Groups are expanded rather than visited, and principals (or groups) reached along several paths are
+     * only visited (or expanded) the first time
+     *
+     * @param principals interned ids, as returned by {@link #intern(String)}
+     * @param consumer   receives the interned id of each principal
+     */
+    void forEachMemberTransitively(RoaringBitmap principals, IntConsumer consumer) {
+        final RoaringBitmap visited = new RoaringBitmap();
+        final Deque<Integer> groups = new ArrayDeque<>();
+        final IntConsumer visit = principal -> {
+            if (visited.checkedAdd(principal)) {
+                if (isGroup(principal)) {
+                    groups.add(principal);
+                } else {
+                    consumer.accept(principal);
+                }
+            }
+        };
+        final IntIterator roots = principals.getIntIterator();
+        while (roots.hasNext()) {
+            visit.accept(roots.next());
+        }
+        while (!groups.isEmpty()) {
+            final int gid = groups.poll();
+            groupMembers.forEach(gid, visit);
+            principalMembers.forEach(gid, visit);
+        }
+    }
+
+    /**
+     * Whether the given id is a group: created as one, or with members. Unlike {@link #tracked} this can be read without the lock
+     */
+    private boolean isGroup(int id) {
+        return !principalMembers.isEmpty(id)
+                || !groupMembers.isEmpty(id)
+                || groups.containsKey(ids.name(id))
+                || coldGroup(id) != null;
+    }
+
+    /**
+     * @return the interned id of the given principal, or -1 if it was never interned
+     */
+    int id(String principalId) {
+        return ids.id(principalId);
+    }
+
+    /**
+     * @return the principal the given id was interned for
+     */
+    String name(int id) {
+        return ids.name(id);
+    }
+
+    /**
+     * @return the interned id of the given principal, so that other indexes can refer to principals by the same ids as the group graph
+     */
+    synchronized int intern(String principalId) {
+        return ids.intern(principalId);
+    }
+
+    /**
+     * Capture the group graph for a snapshot. Packed copies of the rows are taken while writers are excluded, the returned section
+     * writes them later on without holding the lock
+     */
+    synchronized Snapshot.Section capture() {
+        final int size = ids.size();
+        final long[] tracked = this.tracked.toLongArray();
+        final int[][][] rows = {memberships.pack(), principalMembers.pack(), groupMembers.pack(), subgroups.pack()};
+        final Map<Integer, RoaringBitmap> closures = new HashMap<>(this.closures);
+        final Map<String, Group> groups = new HashMap<>(this.groups);
+        final int[] coldGroups = new int[this.coldGroups == null ? 0 : this.coldGroups.length()];
+        for (int gid = 0; gid < coldGroups.length; gid++) {
+            coldGroups[gid] = groups.containsKey(ids.name(gid)) ? 0 : this.coldGroups.get(gid);
+        }
+        return out -> {
+            ids.writeTo(out, size);
+            out.writeInt(tracked.length);
+            for (long word : tracked) {
+                out.writeLong(word);
+            }
+            for (int[][] packed : rows) {
+                Adjacency.writeTo(out, packed);
+            }
+            out.writeInt(closures.size());
+            for (Map.Entry<Integer, RoaringBitmap> entry : closures.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().serializedSizeInBytes());
+                entry.getValue().serialize(out);
+            }
+            out.writeInt(groups.size() + (int) Arrays.stream(coldGroups).filter(position -> position != 0).count());
+            for (Group group : groups.values()) {
+                out.writeInt(ids.id(group.id()));
+                out.writeJson(ImmutableGroup.copyOf(group).withAssignments(Optional.empty()));
+            }
+            for (int gid = 0; gid < coldGroups.length; gid++) {
+                if (coldGroups[gid] != 0) {
+                    // still encoded as it was read, copied over as is
+                    out.writeInt(gid);
+                    out.writeBytes(snapshot.bytes(coldGroups[gid]));
+                }
+            }
+        };
+    }
+
+    /**
+     * Read the group graph written by {@link #capture()}, leaving the buffer past it
+     */
+    static InMemoryGroupManager readFrom(Snapshot snapshot, ByteBuffer buffer) throws IOException {
+        final IdDictionary ids = IdDictionary.readFrom(buffer);
+        final long[] tracked = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(tracked);
+        Snapshot.skip(buffer, tracked.length * 8);
+        final Adjacency memberships = Adjacency.readFrom(buffer);
+        final Adjacency principalMembers = Adjacency.readFrom(buffer);
+        final Adjacency groupMembers = Adjacency.readFrom(buffer);
+        final Adjacency subgroups = Adjacency.readFrom(buffer);
+        final int closureCount = buffer.getInt();
+        final Map<Integer, RoaringBitmap> closures = new ConcurrentHashMap<>(closureCount * 2);
+        for (int i = 0; i < closureCount; i++) {
+            final int gid = buffer.getInt();
+            final int length = buffer.getInt();
+            final ByteBuffer bytes = buffer.slice();
+            final RoaringBitmap closure = new RoaringBitmap();
+            closure.deserialize(bytes);
+            Snapshot.skip(buffer, length);
+            closures.put(gid, closure);
+        }
+        // groups are only located here, they are decoded when read
+        final AtomicIntegerArray coldGroups = new AtomicIntegerArray(ids.size());
+        final int groupCount = buffer.getInt();
+        for (int i = 0; i < groupCount; i++) {
+            final int gid = buffer.getInt();
+            coldGroups.set(gid, buffer.position());
+            Snapshot.skip(buffer, buffer.getInt());
+        }
+        return new InMemoryGroupManager(
+                ids, memberships, principalMembers, groupMembers, subgroups, BitSet.valueOf(tracked), closures, snapshot, coldGroups
+        );
+    }
+}
@@ -0,0 +1,313 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * {@link Journal} makes changes durable by appending a record of each to segment files, next to a {@link Snapshot} the segments apply
+ * on top of. A record is framed by its length and a CRC32 of its content, so that a record torn by a crash is detected and ignored
+ * <p>
+ * Changes are applied and appended to an in memory batch under one lock, so records are journaled in the order their changes were
+ * applied. A single committer thread writes whole batches and forces them to disk (group commit): callers wait for the batch holding
+ * their record, while the next batch fills up behind it. The number of syncs is therefore bounded by the speed of the device rather
+ * than by the number of changes
+ * <p>
+ * Once the current segment outgrows {@link JournalOptions#compactionThreshold()}, a new segment is started and the state is captured
+ * and written to the snapshot, after which earlier segments are deleted. Records already reflected by the snapshot may end up replayed
+ * on top of it (the capture of resource policies is not atomic, and a crash may happen before segments are deleted): this is harmless
+ * as every change sets state rather than increments it, so replaying a change the state already reflects leaves the state unchanged.
+ * Resource policies that reads only fault in from the previous snapshot are never journaled: the capture visits every policy of that
+ * snapshot whether or not it was faulted in meanwhile, see {@link InMemoryBackend#forEachResourcePolicy}
+ */
+final class Journal implements Closeable {
+
+    static final String SNAPSHOT = "snapshot";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FRAME_SIZE = 8;
+
+    /**
+     * Writes the content of one record
+     */
+    interface Record {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Exposes the array of a {@link ByteArrayOutputStream}, to checksum and write batches without copying them
+     */
+    private static final class Bytes extends ByteArrayOutputStream {
+        private Bytes(int size) {
+            super(size);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+
+    private final Path directory;
+    private final JournalOptions options;
+    private final Supplier<Snapshot.Section[]> capture;
+    private final Thread committer;
+
+    /**
+     * Guards everything below except the segment, along with the state the records are applied to
+     */
+    private final Object lock = new Object();
+    private final Bytes record = new Bytes(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private Bytes pending = new Bytes(1 << 16);
+    private DataOutputStream pendingOut = new DataOutputStream(pending);
+    private CompletableFuture<Void> commit = new CompletableFuture<>();
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Guards the segment, only written to by the committer and switched by compactions
+     */
+    private final Object segmentLock = new Object();
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentSize;
+
+    /**
+     * Start a journal in the given directory, whose existing segments must have been replayed
+     *
+     * @param capture captures the state the journal applies to, as {@link InMemoryBackend#captureSnapshot()} does
+     */
+    Journal(Path directory, JournalOptions options, Supplier<Snapshot.Section[]> capture) throws IOException {
+        this.directory = directory;
+        this.options = options;
+        this.capture = capture;
+        final List<Long> segments = segments(directory);
+        segmentNumber = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+        // the last segment may end with a torn record, appending after it would hide every later record from replays
+        segment = FileChannel.open(segment(directory, segmentNumber), CREATE_NEW, WRITE);
+        committer = new Thread(this::commit, "sac-journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Replay every record of the journal in the given directory, in the order they were appended. Replay stops at the first record
+     * that is incomplete or corrupt within each segment
+     *
+     * @param consumer receives the content of each record
+     */
+    static void replay(Path directory, Consumer<ByteBuffer> consumer) throws IOException {
+        final CRC32 crc = new CRC32();
+        for (long number : segments(directory)) {
+            try (FileChannel channel = FileChannel.open(segment(directory, number), READ)) {
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= FRAME_SIZE) {
+                    final int length = buffer.getInt();
+                    final int checksum = buffer.getInt();
+                    if (length < 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    final byte[] content = new byte[length];
+                    buffer.get(content);
+                    crc.reset();
+                    crc.update(content, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    consumer.accept(ByteBuffer.wrap(content));
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a change and journal its record, returning once the record is durable
+     *
+     * @param record the record of the change, encoded before the change is applied
+     * @param apply  applies the change, nothing is journaled if it throws
+     */
+    void append(Record record, Runnable apply) {
+        final CompletableFuture<Void> commit;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The journal is closed");
+            }
+            if (failure != null) {
+                throw new IllegalStateException("The journal failed, changes can no longer be made durable", failure);
+            }
+            this.record.reset();
+            try {
+                record.writeTo(recordOut);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            apply.run();
+            crc.reset();
+            crc.update(this.record.array(), 0, this.record.size());
+            final boolean idle = pending.size() == 0;
+            try {
+                pendingOut.writeInt(this.record.size());
+                pendingOut.writeInt((int) crc.getValue());
+                this.record.writeTo(pendingOut);
+            } catch (IOException e) {
+                // cannot happen, the batch is held in memory
+                throw new UncheckedIOException(e);
+            }
+            commit = this.commit;
+            if (idle) {
+                lock.notifyAll();
+            }
+        }
+        try {
+            commit.join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException("Could not write to the journal", (IOException) e.getCause());
+        }
+    }
+
+    /**
+     * The committer loop: take whatever accumulated while the previous batch was being written, write it and acknowledge it
+     */
+    private void commit() {
+        Bytes writing = new Bytes(1 << 16);
+        while (true) {
+            final Bytes batch;
+            final CompletableFuture<Void> commit;
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = writing;
+                pendingOut = new DataOutputStream(pending);
+                commit = this.commit;
+                this.commit = new CompletableFuture<>();
+            }
+            final boolean full;
+            try {
+                synchronized (segmentLock) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(batch.array(), 0, batch.size());
+                    while (buffer.hasRemaining()) {
+                        segment.write(buffer);
+                    }
+                    if (options.sync()) {
+                        segment.force(false);
+                    }
+                    segmentSize += batch.size();
+                    full = segmentSize >= options.compactionThreshold();
+                }
+            } catch (IOException e) {
+                // records of the failed batch were applied but are not durable, no later change can be journaled consistently
+                synchronized (lock) {
+                    failure = e;
+                    this.commit.completeExceptionally(e);
+                }
+                commit.completeExceptionally(e);
+                return;
+            }
+            commit.complete(null);
+            batch.reset();
+            writing = batch;
+            if (full) {
+                try {
+                    compact();
+                } catch (IOException | RuntimeException e) {
+                    // earlier segments are kept, nothing is lost and compaction is attempted again once the new segment is full
+                    Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the state to the snapshot and delete the segments it covers. Changes are only held back while the state is captured and a
+     * new segment is started, the snapshot itself is written concurrently with them
+     */
+    synchronized void compact() throws IOException {
+        final Snapshot.Section[] sections;
+        final long covered;
+        synchronized (lock) {
+            synchronized (segmentLock) {
+                if (closed) {
+                    throw new IllegalStateException("The journal is closed");
+                }
+                sections = capture.get();
+                covered = segmentNumber;
+                final FileChannel next = FileChannel.open(segment(directory, covered + 1), CREATE_NEW, WRITE);
+                // records of the pending batch were applied before the capture, they go to the new segment and are replayed harmlessly
+                segment.close();
+                segment = next;
+                segmentNumber = covered + 1;
+                segmentSize = 0;
+            }
+        }
+        Snapshot.write(directory.resolve(SNAPSHOT), sections);
+        for (long number : segments(directory)) {
+            if (number <= covered) {
+                Files.delete(segment(directory, number));
+            }
+        }
+    }
+
+    /**
+     * Stop accepting changes, and wait for those already accepted to be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (segmentLock) {
+            segment.close();
+        }
+    }
+
+    private static Path segment(Path directory, long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return the numbers of the segments in the given directory, in ascending order
+     */
+    private static List<Long> segments(Path directory) throws IOException {
+        final List<Long> ret = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : paths) {
+                final String name = path.getFileName().toString();
+                ret.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        ret.sort(null);
+        return ret;
+    }
+}
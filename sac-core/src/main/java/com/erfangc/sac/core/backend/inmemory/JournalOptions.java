@@ -0,0 +1,29 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import org.immutables.value.Value;
+
+/**
+ * Settings of {@link JournaledBackend}
+ */
+@Value.Immutable
+public interface JournalOptions {
+
+    /**
+     * When enabled, every batch of changes is forced to the storage device before the changes are acknowledged, so that they
+     * survive a power loss. When disabled changes are only handed to the operating system, they survive a crash of the process but
+     * may be lost along with the machine
+     */
+    @Value.Default
+    default boolean sync() {
+        return true;
+    }
+
+    /**
+     * The size in bytes the journal may reach before it is compacted: the backend is written to a snapshot and the journal written
+     * so far is deleted. This bounds both the disk space used and the time spent replaying the journal on startup
+     */
+    @Value.Default
+    default long compactionThreshold() {
+        return 64L << 20;
+    }
+}
@@ -0,0 +1,454 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.core.backend.BackendChangeListener;
+import com.erfangc.sac.core.backend.Exportable;
+import com.erfangc.sac.core.backend.PrincipalContext;
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import com.erfangc.sac.core.policy.ResourceGrants;
+import com.erfangc.sac.interfaces.*;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * {@link JournaledBackend} is an {@link InMemoryBackend} whose changes survive restarts: every change is recorded in a {@link Journal}
+ * and only returns once its record is on disk, while reads are served from memory as usual. Concurrent changes are forced to disk
+ * together, so throughput is bounded by how many changes the device can take per sync rather than by its sync latency
+ * <p>
+ * The journal is compacted into a {@link Snapshot} once it reaches {@link JournalOptions#compactionThreshold()}. On startup the
+ * snapshot is loaded, then the journal written since is replayed on top of it
+ * <p>
+ * A change is visible to readers as soon as it is applied, possibly shortly before it is durable. A change whose record could not be
+ * written throws {@link java.io.UncheckedIOException}, and every later change is refused as the state can no longer be recovered
+ */
+public class JournaledBackend implements Backend, Exportable, Closeable {
+
+    private static final byte CREATE_GROUP = 1;
+    private static final byte UPDATE_GROUP = 2;
+    private static final byte DELETE_GROUP = 3;
+    private static final byte ASSIGN_PRINCIPAL_TO_GROUP = 4;
+    private static final byte UNASSIGN_PRINCIPAL_FROM_GROUP = 5;
+    private static final byte ASSIGN_PRINCIPALS_TO_GROUPS = 6;
+    private static final byte UNASSIGN_PRINCIPALS_FROM_GROUPS = 7;
+    private static final byte CREATE_POLICY = 8;
+    private static final byte UPDATE_POLICY = 9;
+    private static final byte DELETE_POLICY = 10;
+    private static final byte ASSIGN_POLICY = 11;
+    private static final byte ASSIGN_POLICY_TO_PRINCIPALS = 12;
+    private static final byte UNASSIGN_POLICY = 13;
+    private static final byte GRANT_ACTIONS = 14;
+    private static final byte GRANT_ACTIONS_ON_RESOURCES = 15;
+    private static final byte REVOKE_ACTIONS = 16;
+
+    private final InMemoryBackend backend;
+    private final Journal journal;
+
+    private JournaledBackend(InMemoryBackend backend, Journal journal) {
+        this.backend = backend;
+        this.journal = journal;
+    }
+
+    /**
+     * Open the backend kept in the given directory, which is created if it does not exist. Only one backend may use a directory at
+     * any time
+     *
+     * @param directory where the snapshot and the journal are kept
+     * @param options   settings of the journal
+     * @return a backend holding every change acknowledged by previous instances
+     */
+    public static JournaledBackend open(Path directory, JournalOptions options) throws IOException {
+        Files.createDirectories(directory);
+        final Path snapshot = directory.resolve(Journal.SNAPSHOT);
+        final InMemoryBackend backend = Files.exists(snapshot) ? InMemoryBackend.readSnapshot(snapshot) : new InMemoryBackend();
+        Journal.replay(directory, record -> replay(backend, record));
+        return new JournaledBackend(backend, new Journal(directory, options, backend::captureSnapshot));
+    }
+
+    public static JournaledBackend open(Path directory) throws IOException {
+        return open(directory, ImmutableJournalOptions.builder().build());
+    }
+
+    private static void replay(InMemoryBackend backend, ByteBuffer record) {
+        final byte op = record.get();
+        switch (op) {
+            case CREATE_GROUP:
+                backend.createGroup(Snapshot.readJson(record, Group.class));
+                break;
+            case UPDATE_GROUP:
+                backend.updateGroup(Snapshot.readJson(record, Group.class));
+                break;
+            case DELETE_GROUP:
+                backend.deleteGroup(Snapshot.readString(record));
+                break;
+            case ASSIGN_PRINCIPAL_TO_GROUP:
+                backend.assignPrincipalToGroup(Snapshot.readString(record), Snapshot.readString(record), record.get() != 0);
+                break;
+            case UNASSIGN_PRINCIPAL_FROM_GROUP:
+                backend.unassignPrincipalFromGroup(Snapshot.readString(record), Snapshot.readString(record));
+                break;
+            case ASSIGN_PRINCIPALS_TO_GROUPS:
+                backend.assignPrincipalsToGroups(readAssignments(record));
+                break;
+            case UNASSIGN_PRINCIPALS_FROM_GROUPS:
+                backend.unassignPrincipalsFromGroups(readAssignments(record));
+                break;
+            case CREATE_POLICY:
+                backend.createPolicy(Snapshot.readJson(record, IdentityPolicy.class));
+                break;
+            case UPDATE_POLICY:
+                backend.updatePolicy(Snapshot.readJson(record, IdentityPolicy.class));
+                break;
+            case DELETE_POLICY:
+                backend.deletePolicy(Snapshot.readString(record));
+                break;
+            case ASSIGN_POLICY:
+                backend.assignPolicy(Snapshot.readString(record), Snapshot.readString(record));
+                break;
+            case ASSIGN_POLICY_TO_PRINCIPALS:
+                backend.assignPolicyToPrincipals(Snapshot.readString(record), readStrings(record));
+                break;
+            case UNASSIGN_POLICY:
+                backend.unAssignPolicy(Snapshot.readString(record), Snapshot.readString(record));
+                break;
+            case GRANT_ACTIONS:
+                backend.grantActions(Snapshot.readString(record), Snapshot.readString(record), new HashSet<>(readStrings(record)));
+                break;
+            case GRANT_ACTIONS_ON_RESOURCES:
+                backend.grantActionsOnResources(readStrings(record), Snapshot.readString(record), new HashSet<>(readStrings(record)));
+                break;
+            case REVOKE_ACTIONS:
+                backend.revokeActions(Snapshot.readString(record), Snapshot.readString(record), new HashSet<>(readStrings(record)));
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record " + op);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            Snapshot.writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final List<String> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(Snapshot.readString(buffer));
+        }
+        return ret;
+    }
+
+    private static void writeAssignments(DataOutputStream out, Collection<GroupAssignment> assignments) throws IOException {
+        out.writeInt(assignments.size());
+        for (GroupAssignment assignment : assignments) {
+            Snapshot.writeString(out, assignment.groupId());
+            Snapshot.writeString(out, assignment.principal());
+            out.writeBoolean(assignment.principalIsGroup());
+        }
+    }
+
+    private static List<GroupAssignment> readAssignments(ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final List<GroupAssignment> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(ImmutableGroupAssignment
+                    .builder()
+                    .groupId(Snapshot.readString(buffer))
+                    .principal(Snapshot.readString(buffer))
+                    .principalIsGroup(buffer.get() != 0)
+                    .build());
+        }
+        return ret;
+    }
+
+    /**
+     * Write the backend to its snapshot and truncate the journal now, rather than waiting for the journal to reach
+     * {@link JournalOptions#compactionThreshold()}
+     */
+    public void compact() throws IOException {
+        journal.compact();
+    }
+
+    /**
+     * Wait for every acknowledged change to be written and stop accepting changes
+     */
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    /**
+     * See {@link InMemoryBackend#addChangeListener(BackendChangeListener)}. Changes are delivered as they are applied, possibly shortly
+     * before they are durable. Changes replayed on startup are not delivered
+     */
+    public void addChangeListener(BackendChangeListener listener) {
+        backend.addChangeListener(listener);
+    }
+
+    public void removeChangeListener(BackendChangeListener listener) {
+        backend.removeChangeListener(listener);
+    }
+
+    public long changeSequence() {
+        return backend.changeSequence();
+    }
+
+    @Override
+    public void createGroup(Group group) {
+        journal.append(out -> {
+            out.writeByte(CREATE_GROUP);
+            Snapshot.writeJson(out, group);
+        }, () -> backend.createGroup(group));
+    }
+
+    @Override
+    public Group getGroup(String id) {
+        return backend.getGroup(id);
+    }
+
+    @Override
+    public void updateGroup(Group group) {
+        journal.append(out -> {
+            out.writeByte(UPDATE_GROUP);
+            Snapshot.writeJson(out, group);
+        }, () -> backend.updateGroup(group));
+    }
+
+    @Override
+    public void deleteGroup(String groupId) {
+        journal.append(out -> {
+            out.writeByte(DELETE_GROUP);
+            Snapshot.writeString(out, groupId);
+        }, () -> backend.deleteGroup(groupId));
+    }
+
+    @Override
+    public Node getGroupTree(String groupId) {
+        return backend.getGroupTree(groupId);
+    }
+
+    @Override
+    public List<String> getAllPrincipalsForGroup(String groupId) {
+        return backend.getAllPrincipalsForGroup(groupId);
+    }
+
+    @Override
+    public List<String> getGroupMembership(String principalId) {
+        return backend.getGroupMembership(principalId);
+    }
+
+    @Override
+    public List<String> getGroupMembershipTransitively(String principalId) {
+        return backend.getGroupMembershipTransitively(principalId);
+    }
+
+    @Override
+    public void assignPrincipalToGroup(String groupId, String principalId) {
+        assignPrincipalToGroup(groupId, principalId, false);
+    }
+
+    @Override
+    public void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup) {
+        journal.append(out -> {
+            out.writeByte(ASSIGN_PRINCIPAL_TO_GROUP);
+            Snapshot.writeString(out, groupId);
+            Snapshot.writeString(out, principalId);
+            out.writeBoolean(principalIsGroup);
+        }, () -> backend.assignPrincipalToGroup(groupId, principalId, principalIsGroup));
+    }
+
+    @Override
+    public void unassignPrincipalFromGroup(String groupId, String principalId) {
+        journal.append(out -> {
+            out.writeByte(UNASSIGN_PRINCIPAL_FROM_GROUP);
+            Snapshot.writeString(out, groupId);
+            Snapshot.writeString(out, principalId);
+        }, () -> backend.unassignPrincipalFromGroup(groupId, principalId));
+    }
+
+    @Override
+    public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        journal.append(out -> {
+            out.writeByte(ASSIGN_PRINCIPALS_TO_GROUPS);
+            writeAssignments(out, assignments);
+        }, () -> backend.assignPrincipalsToGroups(assignments));
+    }
+
+    @Override
+    public void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        journal.append(out -> {
+            out.writeByte(UNASSIGN_PRINCIPALS_FROM_GROUPS);
+            writeAssignments(out, assignments);
+        }, () -> backend.unassignPrincipalsFromGroups(assignments));
+    }
+
+    @Override
+    public void createPolicy(IdentityPolicy identityPolicy) {
+        journal.append(out -> {
+            out.writeByte(CREATE_POLICY);
+            Snapshot.writeJson(out, identityPolicy);
+        }, () -> backend.createPolicy(identityPolicy));
+    }
+
+    @Override
+    public IdentityPolicy getPolicy(String policyId) {
+        return backend.getPolicy(policyId);
+    }
+
+    @Override
+    public void updatePolicy(IdentityPolicy identityPolicy) {
+        journal.append(out -> {
+            out.writeByte(UPDATE_POLICY);
+            Snapshot.writeJson(out, identityPolicy);
+        }, () -> backend.updatePolicy(identityPolicy));
+    }
+
+    @Override
+    public void deletePolicy(String policyId) {
+        journal.append(out -> {
+            out.writeByte(DELETE_POLICY);
+            Snapshot.writeString(out, policyId);
+        }, () -> backend.deletePolicy(policyId));
+    }
+
+    @Override
+    public void assignPolicy(String policyId, String principalId) {
+        journal.append(out -> {
+            out.writeByte(ASSIGN_POLICY);
+            Snapshot.writeString(out, policyId);
+            Snapshot.writeString(out, principalId);
+        }, () -> backend.assignPolicy(policyId, principalId));
+    }
+
+    @Override
+    public void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        journal.append(out -> {
+            out.writeByte(ASSIGN_POLICY_TO_PRINCIPALS);
+            Snapshot.writeString(out, policyId);
+            writeStrings(out, principalIds);
+        }, () -> backend.assignPolicyToPrincipals(policyId, principalIds));
+    }
+
+    @Override
+    public void unAssignPolicy(String policyId, String principalId) {
+        journal.append(out -> {
+            out.writeByte(UNASSIGN_POLICY);
+            Snapshot.writeString(out, policyId);
+            Snapshot.writeString(out, principalId);
+        }, () -> backend.unAssignPolicy(policyId, principalId));
+    }
+
+    @Override
+    public void grantActions(String resource, String principal, Set<String> actions) {
+        journal.append(out -> {
+            out.writeByte(GRANT_ACTIONS);
+            Snapshot.writeString(out, resource);
+            Snapshot.writeString(out, principal);
+            writeStrings(out, actions);
+        }, () -> backend.grantActions(resource, principal, actions));
+    }
+
+    @Override
+    public void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions) {
+        journal.append(out -> {
+            out.writeByte(GRANT_ACTIONS_ON_RESOURCES);
+            writeStrings(out, resources);
+            Snapshot.writeString(out, principal);
+            writeStrings(out, actions);
+        }, () -> backend.grantActionsOnResources(resources, principal, actions));
+    }
+
+    @Override
+    public void revokeActions(String resource, String principal, Set<String> actions) {
+        journal.append(out -> {
+            out.writeByte(REVOKE_ACTIONS);
+            Snapshot.writeString(out, resource);
+            Snapshot.writeString(out, principal);
+            writeStrings(out, actions);
+        }, () -> backend.revokeActions(resource, principal, actions));
+    }
+
+    @Override
+    public List<String> getGrantedResources(Collection<String> principals, String action, String after, int limit) {
+        return backend.getGrantedResources(principals, action, after, limit);
+    }
+
+    @Override
+    public void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        backend.forEachPrincipalWithAccess(resource, action, consumer);
+    }
+
+    @Override
+    public ResourcePolicy getResourcePolicy(String resource) {
+        return backend.getResourcePolicy(resource);
+    }
+
+    @Override
+    public ResourceGrants getResourceGrants(String resource) {
+        return backend.getResourceGrants(resource);
+    }
+
+    @Override
+    public Map<String, ResourceGrants> getResourceGrants(Collection<String> resources) {
+        return backend.getResourceGrants(resources);
+    }
+
+    @Override
+    public List<IdentityPolicy> fetchIdentityPoliciesTransitivelyForPrincipal(String principalId) {
+        return backend.fetchIdentityPoliciesTransitivelyForPrincipal(principalId);
+    }
+
+    @Override
+    public PrincipalContext resolvePrincipalContext(String principalId) {
+        return backend.resolvePrincipalContext(principalId);
+    }
+
+    @Override
+    public List<CompiledIdentityPolicy> fetchIdentityPolicies(PrincipalContext context) {
+        return backend.fetchIdentityPolicies(context);
+    }
+
+    @Override
+    public List<CompiledIdentityPolicy> fetchCandidateIdentityPolicies(PrincipalContext context, String resource) {
+        return backend.fetchCandidateIdentityPolicies(context, resource);
+    }
+
+    @Override
+    public boolean isPermittedByResourcePolicy(PrincipalContext context, String resource, String action) {
+        return backend.isPermittedByResourcePolicy(context, resource, action);
+    }
+
+    @Override
+    public void forEachGroup(Consumer<Group> consumer) {
+        backend.forEachGroup(consumer);
+    }
+
+    @Override
+    public void forEachGroupAssignment(Consumer<GroupAssignment> consumer) {
+        backend.forEachGroupAssignment(consumer);
+    }
+
+    @Override
+    public void forEachIdentityPolicy(Consumer<IdentityPolicy> consumer) {
+        backend.forEachIdentityPolicy(consumer);
+    }
+
+    @Override
+    public void forEachPolicyAssignment(Consumer<PolicyAssignment> consumer) {
+        backend.forEachPolicyAssignment(consumer);
+    }
+
+    @Override
+    public void forEachResourcePolicy(Consumer<ResourcePolicy> consumer) {
+        backend.forEachResourcePolicy(consumer);
+    }
+}
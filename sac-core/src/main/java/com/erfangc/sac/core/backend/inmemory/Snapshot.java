@@ -0,0 +1,404 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.core.policy.ResourcePaths;
+import com.erfangc.sac.interfaces.ImmutableResourcePolicy;
+import com.erfangc.sac.interfaces.ResourcePolicy;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * {@link Snapshot} is a binary image of an {@link InMemoryBackend}, laid out as
+ * <pre>
+ * header             magic, version
+ * group graph        interned ids, tracked groups, adjacency rows, closures, groups
+ * identity policies  policies, then the principals assigned to each policy
+ * resource policies  records, then the positions of prefix policies and an open addressing table of every record
+ * trailer            position of the resource policy table
+ * </pre>
+ * Integers are big endian and strings are UTF-8 prefixed by their length, entities (groups and policies) are stored as JSON
+ * <p>
+ * A snapshot is read through a {@link MappedByteBuffer}. The group graph is restored by copying its primitive arrays in bulk, so no
+ * object is built per membership. Groups and resource policies other than prefix policies are not decoded at startup: they are located
+ * by position in the mapped file and decoded the first time they are read, startup therefore costs a page-in of the file rather than the
+ * construction of every entity. Identity policies are decoded eagerly as they are compiled and indexed
+ * <p>
+ * The whole file is mapped as one buffer, which limits a snapshot to 2GB
+ */
+final class Snapshot {
+
+    private static final int MAGIC = 0x53414353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .findAndRegisterModules()
+            .setSerializationInclusion(JsonInclude.Include.NON_ABSENT);
+
+    /**
+     * Writes one part of a snapshot
+     */
+    interface Section {
+        void writeTo(Output out) throws IOException;
+    }
+
+    /**
+     * A {@link DataOutputStream} aware of its position in the snapshot being written
+     */
+    static final class Output extends DataOutputStream {
+
+        private Output(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * @return the position in the file of the next byte written
+         */
+        int position() throws IOException {
+            // the count saturates rather than overflows
+            if (size() == Integer.MAX_VALUE) {
+                throw new IOException("Snapshots are limited to " + Integer.MAX_VALUE + " bytes");
+            }
+            return size();
+        }
+
+        void writeJson(Object value) throws IOException {
+            Snapshot.writeJson(this, value);
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            Snapshot.writeBytes(this, bytes);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int prefixCount;
+    private final int prefixesPosition;
+    private final int tableCapacity;
+    private final int tablePosition;
+
+    private Snapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE + 4 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+        final int table = buffer.getInt(buffer.limit() - 4);
+        prefixCount = buffer.getInt(table);
+        prefixesPosition = table + 4;
+        tableCapacity = buffer.getInt(prefixesPosition + prefixCount * 4);
+        tablePosition = prefixesPosition + prefixCount * 4 + 4;
+    }
+
+    /**
+     * Map the given snapshot, which stays mapped as long as the returned instance is reachable
+     */
+    static Snapshot map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshots are limited to " + Integer.MAX_VALUE + " bytes");
+            }
+            return new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write a snapshot made of the given sections, the last of which must be {@link #resourcePolicies}. The file is written next to
+     * its destination, synced and then moved over it atomically: readers find either the previous snapshot or the new one, whole
+     */
+    static void write(Path path, Section... sections) throws IOException {
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final Output out = new Output(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Section section : sections) {
+                section.writeTo(out);
+            }
+            out.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * The resource policy section, records are written as the source visits them followed by the table used to find them
+     *
+     * @param source visits every resource policy to write
+     */
+    static Section resourcePolicies(Consumer<Consumer<ResourcePolicy>> source) {
+        return out -> {
+            final Records records = new Records();
+            final List<Integer> prefixes = new ArrayList<>();
+            try {
+                source.accept(policy -> {
+                    try {
+                        final int position = out.position();
+                        records.add(hash(policy.resource()), position);
+                        if (ResourcePaths.isPrefix(policy.resource())) {
+                            prefixes.add(position);
+                        }
+                        writeString(out, policy.resource());
+                        out.writeJson(policy);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            final int table = out.position();
+            out.writeInt(prefixes.size());
+            for (int prefix : prefixes) {
+                out.writeInt(prefix);
+            }
+            final int[] slots = records.table();
+            out.writeInt(slots.length);
+            for (int slot : slots) {
+                out.writeInt(slot);
+            }
+            out.writeInt(table);
+        };
+    }
+
+    /**
+     * The hash and position of every resource policy record
+     */
+    private static final class Records {
+        private int[] hashes = new int[16];
+        private int[] positions = new int[16];
+        private int size;
+
+        private void add(int hash, int position) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            hashes[size] = hash;
+            positions[size++] = position;
+        }
+
+        /**
+         * @return an open addressing table of positions with linear probing, 0 for empty slots as no record is at the start of the file
+         */
+        private int[] table() {
+            // keep the load factor at 1/2 at most
+            int capacity = 16;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            final int[] ret = new int[capacity];
+            for (int i = 0; i < size; i++) {
+                int slot = hashes[i] & (capacity - 1);
+                while (ret[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                ret[slot] = positions[i];
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * @return a buffer positioned at the first section following the header
+     */
+    ByteBuffer sections() {
+        return view(HEADER_SIZE);
+    }
+
+    /**
+     * @return the prefix policies, which are decoded eagerly as they are indexed in a tree
+     */
+    List<ImmutableResourcePolicy> prefixPolicies() {
+        final List<ImmutableResourcePolicy> ret = new ArrayList<>(prefixCount);
+        for (int i = 0; i < prefixCount; i++) {
+            ret.add(resourcePolicyAt(buffer.getInt(prefixesPosition + i * 4)));
+        }
+        return ret;
+    }
+
+    /**
+     * Find and decode the policy of the given resource
+     *
+     * @return the policy, or null if the snapshot holds none for the resource
+     */
+    ImmutableResourcePolicy resourcePolicy(String resource) {
+        final int position = position(resource);
+        return position == 0 ? null : resourcePolicyAt(position);
+    }
+
+    /**
+     * @return true if the snapshot holds a policy for the given resource, which is not decoded
+     */
+    boolean containsResourcePolicy(String resource) {
+        return position(resource) != 0;
+    }
+
+    /**
+     * @return the position of the policy of the given resource, 0 if the snapshot holds none
+     */
+    private int position(String resource) {
+        final byte[] key = resource.getBytes(UTF_8);
+        final int mask = tableCapacity - 1;
+        for (int slot = hash(resource) & mask; ; slot = (slot + 1) & mask) {
+            final int position = buffer.getInt(tablePosition + slot * 4);
+            if (position == 0 || matches(position, key)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Decode every resource policy whose resource passes the given filter, in no particular order
+     */
+    void forEachResourcePolicy(Predicate<String> filter, Consumer<ImmutableResourcePolicy> consumer) {
+        for (int slot = 0; slot < tableCapacity; slot++) {
+            final int position = buffer.getInt(tablePosition + slot * 4);
+            if (position != 0 && filter.test(readString(view(position)))) {
+                consumer.accept(resourcePolicyAt(position));
+            }
+        }
+    }
+
+    /**
+     * Visit the policy of every resource of the snapshot, in no particular order. The current policy of each resource is asked for
+     * first, the one of the snapshot is only decoded when there is none
+     *
+     * @param current  the current policy of a resource, or null
+     * @param consumer receives each policy
+     */
+    void forEachCurrentResourcePolicy(Function<String, ImmutableResourcePolicy> current, Consumer<ImmutableResourcePolicy> consumer) {
+        for (int slot = 0; slot < tableCapacity; slot++) {
+            final int position = buffer.getInt(tablePosition + slot * 4);
+            if (position != 0) {
+                final ImmutableResourcePolicy policy = current.apply(readString(view(position)));
+                consumer.accept(policy != null ? policy : resourcePolicyAt(position));
+            }
+        }
+    }
+
+    private boolean matches(int position, byte[] key) {
+        if (buffer.getInt(position) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(position + 4 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ImmutableResourcePolicy resourcePolicyAt(int position) {
+        final ByteBuffer view = view(position);
+        skip(view, view.getInt());
+        return ImmutableResourcePolicy.copyOf(readJson(view, ResourcePolicy.class));
+    }
+
+    /**
+     * Decode the JSON entity at the given position
+     */
+    <T> T readJson(int position, Class<T> type) {
+        return readJson(view(position), type);
+    }
+
+    /**
+     * @return the length prefixed bytes at the given position, as written by {@link Output#writeBytes(byte[])}
+     */
+    byte[] bytes(int position) {
+        return readBytes(view(position));
+    }
+
+    /**
+     * Buffers are shared by readers, each read works on its own view
+     */
+    private ByteBuffer view(int position) {
+        final ByteBuffer ret = buffer.duplicate();
+        // through Buffer, as ByteBuffer#position(int) does not exist on Java 8
+        ((Buffer) ret).position(position);
+        return ret;
+    }
+
+    static void skip(ByteBuffer buffer, int bytes) {
+        ((Buffer) buffer).position(buffer.position() + bytes);
+    }
+
+    static <T> T readJson(ByteBuffer buffer, Class<T> type) {
+        try {
+            return OBJECT_MAPPER.readValue(readBytes(buffer), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] readBytes(ByteBuffer buffer) {
+        final byte[] ret = new byte[buffer.getInt()];
+        buffer.get(ret);
+        return ret;
+    }
+
+    static void writeJson(DataOutputStream out, Object value) throws IOException {
+        writeBytes(out, OBJECT_MAPPER.writeValueAsBytes(value));
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), UTF_8);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Read ints written by {@link #writeInts}, copied in bulk from the buffer
+     */
+    static int[] readInts(ByteBuffer buffer) {
+        final int[] ret = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(ret);
+        skip(buffer, ret.length * 4);
+        return ret;
+    }
+
+    private static int hash(String resource) {
+        // String#hashCode is specified, so hashes written by one JVM are valid in another
+        final int h = resource.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,113 @@
+package com.erfangc.sac.core.bundle;
+
+import com.erfangc.sac.core.backend.Exportable;
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * {@link BundleExporter} writes the content of an {@link Exportable} backend as a bundle that {@link BundleImporter} can load:
+ * <pre>
+ * {
+ *   "groups": [ {@link com.erfangc.sac.interfaces.Group}... ],
+ *   "groupAssignments": [ {@link com.erfangc.sac.interfaces.GroupAssignment}... ],
+ *   "identityPolicies": [ {@link com.erfangc.sac.interfaces.IdentityPolicy}... ],
+ *   "policyAssignments": [ {@link com.erfangc.sac.interfaces.PolicyAssignment}... ],
+ *   "resourcePolicies": [ {@link com.erfangc.sac.interfaces.ResourcePolicy}... ]
+ * }
+ * </pre>
+ * Entities are written with a streaming generator as the backend enumerates them, so memory use does not depend on the size of the
+ * backend. The order of entities within a section is up to the backend
+ */
+public class BundleExporter {
+
+    static final String GROUPS = "groups";
+    static final String GROUP_ASSIGNMENTS = "groupAssignments";
+    static final String IDENTITY_POLICIES = "identityPolicies";
+    static final String POLICY_ASSIGNMENTS = "policyAssignments";
+    static final String RESOURCE_POLICIES = "resourcePolicies";
+
+    private final Exportable source;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .setSerializationInclusion(JsonInclude.Include.NON_ABSENT)
+            // entities are written one by one to the same generator, flushing after each would defeat its buffer
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    public BundleExporter(Exportable source) {
+        this.source = source;
+    }
+
+    /**
+     * Export as JSON, the stream is left open
+     *
+     * @param outputStream where to write the bundle
+     * @return the number of entities exported in each section
+     */
+    public BundleStatistics exportBundle(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            return exportBundle(generator);
+        }
+    }
+
+    /**
+     * Export to the given generator, which can be of any format Jackson supports (ex: a YAMLGenerator)
+     *
+     * @param generator the generator to write to, it is flushed but not closed
+     * @return the number of entities exported in each section
+     */
+    public BundleStatistics exportBundle(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        final long groups = writeSection(generator, GROUPS, consumer -> source.forEachGroup(
+                // memberships have a section of their own
+                group -> consumer.accept(ImmutableGroup.copyOf(group).withAssignments(Optional.empty()))
+        ));
+        final long groupAssignments = writeSection(generator, GROUP_ASSIGNMENTS, source::forEachGroupAssignment);
+        final long identityPolicies = writeSection(generator, IDENTITY_POLICIES, source::forEachIdentityPolicy);
+        final long policyAssignments = writeSection(generator, POLICY_ASSIGNMENTS, source::forEachPolicyAssignment);
+        final long resourcePolicies = writeSection(generator, RESOURCE_POLICIES, source::forEachResourcePolicy);
+        generator.writeEndObject();
+        generator.flush();
+        return ImmutableBundleStatistics
+                .builder()
+                .groups(groups)
+                .groupAssignments(groupAssignments)
+                .identityPolicies(identityPolicies)
+                .policyAssignments(policyAssignments)
+                .resourcePolicies(resourcePolicies)
+                .build();
+    }
+
+    /**
+     * Write every entity the given enumeration visits as one array field
+     *
+     * @return the number of entities written
+     */
+    private <T> long writeSection(JsonGenerator generator, String name, Consumer<Consumer<T>> enumeration) throws IOException {
+        generator.writeArrayFieldStart(name);
+        final long[] count = {0};
+        try {
+            enumeration.accept(entity -> {
+                try {
+                    objectMapper.writeValue(generator, entity);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        return count[0];
+    }
+}
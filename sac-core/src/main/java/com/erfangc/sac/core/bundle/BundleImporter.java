@@ -0,0 +1,174 @@
+package com.erfangc.sac.core.bundle;
+
+import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.interfaces.*;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * {@link BundleImporter} loads a bundle written by {@link BundleExporter} (or by hand) into a {@link Backend}. A bundle is an object with
+ * one array per kind of entity, see {@link BundleExporter} for its layout. Sections may come in any order and unknown sections are skipped
+ * <p>
+ * The bundle is read with a streaming parser one entity at a time, and entities are written to the backend in batches of a bounded size,
+ * so memory use does not depend on the size of the bundle. Memberships and policy assignments, which make up most of a large bundle, are
+ * written with the bulk methods of the backend. Groups may also list their members in {@link Group#assignments()}, these are imported as
+ * if they were part of the <code>groupAssignments</code> section
+ * <p>
+ * An import is not atomic: should it fail half way, the entities of the batches written so far remain in the backend. Importing the same
+ * bundle again is harmless
+ */
+public class BundleImporter {
+
+    private final Backend backend;
+    private final int batchSize;
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    public BundleImporter(Backend backend) {
+        this(backend, 1_000);
+    }
+
+    /**
+     * @param backend   the {@link Backend} to write to
+     * @param batchSize the maximum number of entities handed to the backend at once
+     */
+    public BundleImporter(Backend backend, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.backend = backend;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Import a JSON bundle, the stream is left open
+     *
+     * @param inputStream the bundle
+     * @return the number of entities imported from each section
+     */
+    public BundleStatistics importBundle(InputStream inputStream) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return importBundle(parser);
+        }
+    }
+
+    /**
+     * Import a bundle from the given parser, which can be of any format Jackson supports (ex: a YAMLParser). The parser must be positioned
+     * before or at the start of the bundle
+     *
+     * @param parser the parser to read from
+     * @return the number of entities imported from each section
+     */
+    public BundleStatistics importBundle(JsonParser parser) throws IOException {
+        if (parser.currentToken() == null) {
+            parser.nextToken();
+        }
+        expect(parser, JsonToken.START_OBJECT);
+        long groups = 0;
+        long groupAssignments = 0;
+        long identityPolicies = 0;
+        long policyAssignments = 0;
+        long resourcePolicies = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String section = parser.getCurrentName();
+            parser.nextToken();
+            switch (section) {
+                case BundleExporter.GROUPS:
+                    groups += readSection(parser, ImmutableGroup.class, this::writeGroups);
+                    break;
+                case BundleExporter.GROUP_ASSIGNMENTS:
+                    groupAssignments += readSection(parser, ImmutableGroupAssignment.class, backend::assignPrincipalsToGroups);
+                    break;
+                case BundleExporter.IDENTITY_POLICIES:
+                    identityPolicies += readSection(parser, ImmutableIdentityPolicy.class, batch -> batch.forEach(backend::createPolicy));
+                    break;
+                case BundleExporter.POLICY_ASSIGNMENTS:
+                    policyAssignments += readSection(parser, ImmutablePolicyAssignment.class, this::writePolicyAssignments);
+                    break;
+                case BundleExporter.RESOURCE_POLICIES:
+                    resourcePolicies += readSection(parser, ImmutableResourcePolicy.class, this::writeResourcePolicies);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        expect(parser, JsonToken.END_OBJECT);
+        return ImmutableBundleStatistics
+                .builder()
+                .groups(groups)
+                .groupAssignments(groupAssignments)
+                .identityPolicies(identityPolicies)
+                .policyAssignments(policyAssignments)
+                .resourcePolicies(resourcePolicies)
+                .build();
+    }
+
+    private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.currentToken() != expected) {
+            throw new JsonParseException(parser, "expected " + expected + " but found " + parser.currentToken());
+        }
+    }
+
+    /**
+     * Read the elements of the array the parser is positioned at, handing them to the writer in batches
+     *
+     * @return the number of elements read
+     */
+    private <T> long readSection(JsonParser parser, Class<? extends T> type, Consumer<List<T>> writer) throws IOException {
+        expect(parser, JsonToken.START_ARRAY);
+        final List<T> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token == null) {
+                throw new JsonParseException(parser, "unexpected end of bundle");
+            }
+            batch.add(objectMapper.readValue(parser, type));
+            if (batch.size() == batchSize) {
+                writer.accept(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writer.accept(batch);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    private void writeGroups(List<Group> groups) {
+        final List<GroupAssignment> assignments = new ArrayList<>();
+        for (Group group : groups) {
+            backend.createGroup(group);
+            assignments.addAll(group.assignments().orElse(Collections.emptyList()));
+        }
+        if (!assignments.isEmpty()) {
+            backend.assignPrincipalsToGroups(assignments);
+        }
+    }
+
+    private void writePolicyAssignments(List<PolicyAssignment> assignments) {
+        final Map<String, List<String>> principals = new LinkedHashMap<>();
+        for (PolicyAssignment assignment : assignments) {
+            principals.computeIfAbsent(assignment.policyId(), policyId -> new ArrayList<>()).add(assignment.principal());
+        }
+        principals.forEach(backend::assignPolicyToPrincipals);
+    }
+
+    private void writeResourcePolicies(List<ResourcePolicy> policies) {
+        for (ResourcePolicy policy : policies) {
+            for (ResourcePolicyAssignment assignment : policy.assignments().orElse(Collections.emptyList())) {
+                if (!assignment.actions().isEmpty()) {
+                    backend.grantActions(policy.resource(), assignment.principal(), new HashSet<>(assignment.actions()));
+                }
+            }
+        }
+    }
+}
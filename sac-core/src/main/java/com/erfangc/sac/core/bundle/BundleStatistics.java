@@ -0,0 +1,20 @@
+package com.erfangc.sac.core.bundle;
+
+import org.immutables.value.Value;
+
+/**
+ * The number of entities read or written by a {@link BundleImporter} or a {@link BundleExporter}, per section of the bundle
+ */
+@Value.Immutable
+public interface BundleStatistics {
+
+    long groups();
+
+    long groupAssignments();
+
+    long identityPolicies();
+
+    long policyAssignments();
+
+    long resourcePolicies();
+}
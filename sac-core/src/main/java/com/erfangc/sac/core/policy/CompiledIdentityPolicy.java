@@ -0,0 +1,73 @@
+package com.erfangc.sac.core.policy;
+
+import com.erfangc.sac.interfaces.IdentityPolicy;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link CompiledIdentityPolicy} pairs an {@link IdentityPolicy} with the pre-processed structures needed to evaluate it: a
+ * {@link ResourceMatcher} for its resource pattern and a hashed set of its actions. Backends should compile policies once when they
+ * are created or updated, rather than every time an authorization decision is made
+ */
+public final class CompiledIdentityPolicy {
+
+    private static final String WILDCARD = "*";
+
+    private final IdentityPolicy policy;
+    private final ResourceMatcher matcher;
+    private final Set<String> actions;
+    private final boolean allActions;
+    private final boolean deny;
+
+    private CompiledIdentityPolicy(IdentityPolicy policy) {
+        this.policy = policy;
+        this.matcher = policy.resource().map(ResourceMatcher::compile).orElse(null);
+        final List<String> actions = policy.actions().orElse(Collections.emptyList());
+        this.actions = Collections.unmodifiableSet(new HashSet<>(actions));
+        this.allActions = this.actions.contains(WILDCARD);
+        this.deny = policy.effectDeny().orElse(false);
+    }
+
+    public static CompiledIdentityPolicy compile(IdentityPolicy policy) {
+        return new CompiledIdentityPolicy(policy);
+    }
+
+    public IdentityPolicy policy() {
+        return policy;
+    }
+
+    public String id() {
+        return policy.id();
+    }
+
+    /**
+     * @return the compiled resource pattern, or null if the underlying policy does not specify a resource
+     */
+    public ResourceMatcher matcher() {
+        return matcher;
+    }
+
+    public boolean isDeny() {
+        return deny;
+    }
+
+    /**
+     * @param action the action being performed
+     * @return true if this policy covers the given action, either explicitly or through the <code>*</code> wildcard
+     */
+    public boolean coversAction(String action) {
+        return allActions || actions.contains(action);
+    }
+
+    /**
+     * @param resource the resource being accessed
+     * @param action   the action being performed
+     * @return true if this policy's effect (permit or deny) should be taken into account for the given resource and action
+     */
+    public boolean appliesTo(String resource, String action) {
+        return matcher != null && coversAction(action) && matcher.matches(resource);
+    }
+}
@@ -0,0 +1,186 @@
+package com.erfangc.sac.core.policy;
+
+import java.util.*;
+
+/**
+ * {@link IdentityPolicyTrie} indexes a set of {@link CompiledIdentityPolicy} by the <code>/</code> separated segments of their resource
+ * patterns. Each level of the trie has a branch per literal segment plus a single wildcard branch for <code>*</code> segments
+ * <p>
+ * Looking up a resource walks the literal branch matching the resource's next segment, and lets any wildcard branch absorb one
+ * or more segments (a <code>*</code> matches across <code>/</code>). Only policies whose patterns can match the resource are returned, so
+ * the cost of a lookup depends on the depth of the resource rather than on the number of indexed policies
+ * <p>
+ * Instances are immutable, a new trie should be built whenever the set of policies it indexes changes
+ */
+public final class IdentityPolicyTrie {
+
+    private static final String WILDCARD = "*";
+    private static final String SEPARATOR = "/";
+    private static final IdentityPolicyTrie EMPTY = new IdentityPolicyTrie(new Node(), Collections.emptyList(), 0);
+
+    private final Node root;
+    /**
+     * Policies whose patterns have no segments at all (ex: <code>/</code>), these are always offered as candidates
+     */
+    private final List<CompiledIdentityPolicy> unindexed;
+    private final int size;
+
+    private IdentityPolicyTrie(Node root, List<CompiledIdentityPolicy> unindexed, int size) {
+        this.root = root;
+        this.unindexed = unindexed;
+        this.size = size;
+    }
+
+    public static IdentityPolicyTrie empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build a trie over the given policies, policies without a resource pattern can never apply to a request and are left out
+     *
+     * @param policies the policies to index
+     * @return a {@link IdentityPolicyTrie}
+     */
+    public static IdentityPolicyTrie build(Collection<CompiledIdentityPolicy> policies) {
+        if (policies.isEmpty()) {
+            return EMPTY;
+        }
+        final Node root = new Node();
+        final List<CompiledIdentityPolicy> unindexed = new ArrayList<>();
+        int size = 0;
+        for (CompiledIdentityPolicy policy : policies) {
+            if (policy.matcher() == null) {
+                continue;
+            }
+            size++;
+            final String[] tokens = policy.matcher().pattern().split(SEPARATOR);
+            if (tokens.length == 0) {
+                unindexed.add(policy);
+                continue;
+            }
+            Node node = root;
+            for (String token : tokens) {
+                node = token.equals(WILDCARD) ? node.wildcard() : node.child(token);
+            }
+            node.policies.add(policy);
+        }
+        return new IdentityPolicyTrie(root, unindexed, size);
+    }
+
+    /**
+     * @return the number of policies indexed by this trie
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Collect the policies whose resource patterns match the given resource into <code>out</code>. Policies already present in
+     * <code>out</code> are not added twice
+     *
+     * @param resource the resource being accessed
+     * @param out      the collection to add matching policies to
+     */
+    public void collect(String resource, Collection<CompiledIdentityPolicy> out) {
+        if (size == 0) {
+            return;
+        }
+        final Lookup lookup = new Lookup(resource, out);
+        for (CompiledIdentityPolicy policy : unindexed) {
+            lookup.add(policy);
+        }
+        collect(root, 0, lookup);
+    }
+
+    private static void collect(Node node, int offset, Lookup lookup) {
+        if (lookup.visited != null && !lookup.visit(node, offset)) {
+            return;
+        }
+        final String[] segments = lookup.segments;
+        if (offset == segments.length) {
+            for (CompiledIdentityPolicy policy : node.policies) {
+                lookup.add(policy);
+            }
+            return;
+        }
+        if (node.children != null) {
+            final Node child = node.children.get(segments[offset]);
+            if (child != null) {
+                collect(child, offset + 1, lookup);
+            }
+        }
+        if (node.wildcard != null) {
+            if (lookup.visited == null) {
+                lookup.visited = new IdentityHashMap<>();
+            }
+            // a wildcard segment absorbs at least one segment of the resource, possibly all the remaining ones
+            for (int next = offset + 1; next <= segments.length; next++) {
+                collect(node.wildcard, next, lookup);
+            }
+        }
+    }
+
+    /**
+     * The state of one lookup. Consecutive wildcards reach the same node at the same offset along many paths (a pattern with k
+     * <code>*</code> segments has about C(d, k) of them for a resource of depth d), so once a wildcard branch is taken each node is only
+     * explored once per offset. The path leading to the first wildcard is made of literal segments only, it is never walked twice
+     */
+    private static final class Lookup {
+        private final String resource;
+        private final String[] segments;
+        private final Collection<CompiledIdentityPolicy> out;
+        private Set<CompiledIdentityPolicy> added;
+        private Map<Node, BitSet> visited;
+
+        private Lookup(String resource, Collection<CompiledIdentityPolicy> out) {
+            this.resource = resource;
+            this.segments = resource.split(SEPARATOR, -1);
+            this.out = out;
+        }
+
+        /**
+         * @return false if the node was already explored at the given offset
+         */
+        private boolean visit(Node node, int offset) {
+            final BitSet offsets = visited.computeIfAbsent(node, k -> new BitSet(segments.length + 1));
+            if (offsets.get(offset)) {
+                return false;
+            }
+            offsets.set(offset);
+            return true;
+        }
+
+        private void add(CompiledIdentityPolicy policy) {
+            if (added == null) {
+                // policies already present are looked up once, rather than scanning out for every candidate
+                added = Collections.newSetFromMap(new IdentityHashMap<>());
+                added.addAll(out);
+            }
+            // the final word on whether a pattern matches belongs to its compiled matcher
+            if (!added.contains(policy) && policy.matcher().matches(resource)) {
+                added.add(policy);
+                out.add(policy);
+            }
+        }
+    }
+
+    private static final class Node {
+        private Map<String, Node> children;
+        private Node wildcard;
+        private final List<CompiledIdentityPolicy> policies = new ArrayList<>(1);
+
+        private Node child(String segment) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(segment, k -> new Node());
+        }
+
+        private Node wildcard() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+            return wildcard;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.erfangc.sac.core.policy;
+
+import com.erfangc.sac.interfaces.ResourcePolicy;
+import com.erfangc.sac.interfaces.ResourcePolicyAssignment;
+
+import java.util.*;
+
+/**
+ * {@link ResourceGrants} indexes the assignments of a {@link ResourcePolicy} by principal, with the actions granted to each principal
+ * held in a set. Checking whether a principal (or any of its groups) is granted an action is then a matter of hash lookups instead of
+ * a scan over every assignment
+ */
+public final class ResourceGrants {
+
+    private static final ResourceGrants EMPTY = new ResourceGrants(Collections.emptyMap());
+
+    private final Map<String, Set<String>> principalToActions;
+
+    private ResourceGrants(Map<String, Set<String>> principalToActions) {
+        this.principalToActions = principalToActions;
+    }
+
+    public static ResourceGrants empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param resourcePolicy the policy to index, can be null
+     * @return the grants of the policy, assignments to the same principal are merged
+     */
+    public static ResourceGrants of(ResourcePolicy resourcePolicy) {
+        if (resourcePolicy == null || !resourcePolicy.assignments().isPresent()) {
+            return EMPTY;
+        }
+        final Map<String, Set<String>> principalToActions = new HashMap<>();
+        for (ResourcePolicyAssignment assignment : resourcePolicy.assignments().get()) {
+            if (!assignment.actions().isEmpty()) {
+                principalToActions.computeIfAbsent(assignment.principal(), k -> new HashSet<>()).addAll(assignment.actions());
+            }
+        }
+        return principalToActions.isEmpty() ? EMPTY : new ResourceGrants(principalToActions);
+    }
+
+    /**
+     * @param other grants to combine with these, ex: those inherited from a prefix policy
+     * @return the union of both grants
+     */
+    public ResourceGrants with(ResourceGrants other) {
+        if (other.principalToActions.isEmpty()) {
+            return this;
+        }
+        if (principalToActions.isEmpty()) {
+            return other;
+        }
+        final Map<String, Set<String>> principalToActions = new HashMap<>();
+        for (Map<String, Set<String>> grants : Arrays.asList(this.principalToActions, other.principalToActions)) {
+            grants.forEach((principal, actions) -> principalToActions.computeIfAbsent(principal, k -> new HashSet<>()).addAll(actions));
+        }
+        return new ResourceGrants(principalToActions);
+    }
+
+    /**
+     * @return the actions granted to the given principal, excluding those granted through its groups
+     */
+    public Set<String> actions(String principal) {
+        final Set<String> actions = principalToActions.get(principal);
+        return actions == null ? Collections.emptySet() : Collections.unmodifiableSet(actions);
+    }
+
+    /**
+     * @return the number of principals holding at least one action
+     */
+    public int size() {
+        return principalToActions.size();
+    }
+
+    /**
+     * @param principal the principal requesting access
+     * @param groups    the groups the principal belongs to transitively
+     * @param action    the requested action
+     * @return true if the action is granted to the principal or to any of its groups
+     */
+    public boolean permits(String principal, Collection<String> groups, String action) {
+        return grants(principal, action) || permitsAny(groups, action);
+    }
+
+    /**
+     * @param principals the principals to check
+     * @param action     the requested action
+     * @return true if the action is granted to any of the given principals
+     */
+    public boolean permitsAny(Collection<String> principals, String action) {
+        if (principalToActions.isEmpty()) {
+            return false;
+        }
+        // probe from whichever side is smaller, set membership is only assumed to be cheap for actual sets
+        if (principals instanceof Set && principalToActions.size() < principals.size()) {
+            for (Map.Entry<String, Set<String>> entry : principalToActions.entrySet()) {
+                if (entry.getValue().contains(action) && principals.contains(entry.getKey())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (String principal : principals) {
+            if (grants(principal, action)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean grants(String principal, String action) {
+        final Set<String> actions = principalToActions.get(principal);
+        return actions != null && actions.contains(action);
+    }
+}
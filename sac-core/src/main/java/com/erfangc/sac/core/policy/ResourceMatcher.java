@@ -0,0 +1,113 @@
+package com.erfangc.sac.core.policy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ResourceMatcher} is the compiled form of a resource pattern such as <code>/org/employees/*&#47;pay</code>. Patterns are
+ * interpreted as <code>/</code> separated segments where a segment consisting solely of <code>*</code> matches any sequence of characters
+ * (including further <code>/</code> separators), every other segment must match literally
+ * <p>
+ * A pattern is compiled once into the literal runs that sit between its wildcard segments. Matching then walks those runs against the
+ * candidate resource using plain {@link String} comparisons, so no regular expressions are compiled and nothing is allocated per call
+ */
+public final class ResourceMatcher {
+
+    private static final String WILDCARD = "*";
+    private static final String SEPARATOR = "/";
+
+    private final String pattern;
+    /**
+     * The literal runs of the pattern, a pattern with N wildcard segments has N + 1 literals (some of which may be empty)
+     */
+    private final String[] literals;
+    private final int minimumLength;
+
+    private ResourceMatcher(String pattern, String[] literals) {
+        this.pattern = pattern;
+        this.literals = literals;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.minimumLength = length;
+    }
+
+    /**
+     * Compile the given resource pattern
+     *
+     * @param pattern the resource pattern, as found on {@link com.erfangc.sac.interfaces.IdentityPolicy#resource()}
+     * @return a reusable {@link ResourceMatcher}
+     */
+    public static ResourceMatcher compile(String pattern) {
+        // trailing empty segments are dropped, consistent with String.split
+        final String[] tokens = pattern.split(SEPARATOR);
+        final List<String> literals = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0) {
+                current.append(SEPARATOR);
+            }
+            if (tokens[i].equals(WILDCARD)) {
+                literals.add(current.toString());
+                current = new StringBuilder();
+            } else {
+                current.append(tokens[i]);
+            }
+        }
+        literals.add(current.toString());
+        return new ResourceMatcher(pattern, literals.toArray(new String[0]));
+    }
+
+    /**
+     * @return the pattern this matcher was compiled from
+     */
+    public String pattern() {
+        return pattern;
+    }
+
+    /**
+     * @return true if the pattern contains at least one wildcard segment
+     */
+    public boolean hasWildcard() {
+        return literals.length > 1;
+    }
+
+    /**
+     * Determines whether the resource is matched by the compiled pattern
+     *
+     * @param resource the resource being accessed
+     * @return true if the resource matches
+     */
+    public boolean matches(String resource) {
+        if (literals.length == 1) {
+            return resource.equals(literals[0]);
+        }
+        if (resource.length() < minimumLength) {
+            return false;
+        }
+        final String head = literals[0];
+        final String tail = literals[literals.length - 1];
+        if (!resource.startsWith(head) || !resource.endsWith(tail)) {
+            return false;
+        }
+        // the literals in between wildcards are matched left-most first, which is always optimal when the only
+        // wildcard available matches any sequence of characters
+        int position = head.length();
+        final int end = resource.length() - tail.length();
+        for (int i = 1; i < literals.length - 1; i++) {
+            final String literal = literals[i];
+            final int found = resource.indexOf(literal, position);
+            if (found < 0 || found + literal.length() > end) {
+                return false;
+            }
+            position = found + literal.length();
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,40 @@
+package com.erfangc.sac.core.policy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ResourcePaths} defines how resource policies are inherited along <code>/</code> separated resource paths. A resource policy whose
+ * resource ends with <code>/*</code> (ex: <code>/org/inventory/widgets/*</code>) is a prefix policy: its grants apply to every resource
+ * below that path, in addition to the grants of the resource's own policy
+ */
+public final class ResourcePaths {
+
+    public static final String SUBTREE = "/*";
+    public static final char SEPARATOR = '/';
+
+    private ResourcePaths() {
+    }
+
+    /**
+     * @return true if the given resource names a prefix policy
+     */
+    public static boolean isPrefix(String resource) {
+        return resource.endsWith(SUBTREE);
+    }
+
+    /**
+     * List the prefix policies that may apply to the given resource, outermost first. For <code>/a/b/c</code> these are
+     * <code>/*</code>, <code>/a/*</code> and <code>/a/b/*</code>
+     *
+     * @param resource the resource being accessed
+     * @return one prefix policy resource per ancestor of the resource
+     */
+    public static List<String> prefixPolicies(String resource) {
+        final List<String> ret = new ArrayList<>();
+        for (int i = resource.indexOf(SEPARATOR); i >= 0; i = resource.indexOf(SEPARATOR, i + 1)) {
+            ret.add(resource.substring(0, i) + SUBTREE);
+        }
+        return ret;
+    }
+}
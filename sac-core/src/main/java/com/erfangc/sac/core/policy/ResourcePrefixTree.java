@@ -0,0 +1,67 @@
+package com.erfangc.sac.core.policy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * {@link ResourcePrefixTree} associates values with prefix policies (see {@link ResourcePaths}) in a tree with one level per path segment.
+ * Finding the values that apply to a resource walks down the tree along the segments of the resource, so its cost depends on the depth of
+ * the resource rather than on the number of prefix policies
+ * <p>
+ * Reads never lock and may run concurrently with writes. Nodes are kept once created, removing a value only clears it
+ *
+ * @param <V> the type of values held for each prefix policy
+ */
+public final class ResourcePrefixTree<V> {
+
+    private static final class Node<V> {
+        private final Map<String, Node<V>> children = new ConcurrentHashMap<>();
+        private volatile V value;
+    }
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Associate a value with a prefix policy
+     *
+     * @param prefixPolicy a resource for which {@link ResourcePaths#isPrefix(String)} holds
+     * @param value        the value, null to remove the current one
+     */
+    public void put(String prefixPolicy, V value) {
+        if (!ResourcePaths.isPrefix(prefixPolicy)) {
+            throw new IllegalArgumentException(prefixPolicy + " is not a prefix policy");
+        }
+        Node<V> node = root;
+        int start = 0;
+        for (int i = prefixPolicy.indexOf(ResourcePaths.SEPARATOR); i >= 0; i = prefixPolicy.indexOf(ResourcePaths.SEPARATOR, i + 1)) {
+            node = node.children.computeIfAbsent(prefixPolicy.substring(start, i), k -> new Node<>());
+            start = i + 1;
+        }
+        node.value = value;
+    }
+
+    /**
+     * Test the values of the prefix policies that apply to the given resource, outermost first, until one satisfies the predicate
+     *
+     * @param resource  the resource being accessed
+     * @param predicate the test to apply
+     * @return true if the predicate held for one of the values
+     */
+    public boolean anyMatch(String resource, Predicate<V> predicate) {
+        Node<V> node = root;
+        int start = 0;
+        for (int i = resource.indexOf(ResourcePaths.SEPARATOR); i >= 0; i = resource.indexOf(ResourcePaths.SEPARATOR, i + 1)) {
+            node = node.children.get(resource.substring(start, i));
+            if (node == null) {
+                return false;
+            }
+            final V value = node.value;
+            if (value != null && predicate.test(value)) {
+                return true;
+            }
+            start = i + 1;
+        }
+        return false;
+    }
+}
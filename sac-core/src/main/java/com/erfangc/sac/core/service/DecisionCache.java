@@ -0,0 +1,209 @@
+package com.erfangc.sac.core.service;
+
+import com.erfangc.sac.core.policy.ResourceMatcher;
+import com.erfangc.sac.interfaces.AuthorizationRequest;
+import com.erfangc.sac.interfaces.AuthorizationResponse;
+import com.erfangc.sac.interfaces.ImmutableAuthorizationResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * {@link DecisionCache} memoizes {@link AuthorizationResponse} by (principal, resource, action). Every cached decision is
+ * tagged with the principal it was made for and all of the groups that principal belonged to at the time, as well as the
+ * resource it was made against. Mutations use these tags to invalidate only the decisions they could have affected
+ * <p>
+ * Decisions computed while a mutation is in flight are never cached: callers read {@link #epoch()} before consulting the backend
+ * and hand it back to {@link #put}, which discards the decision if any invalidation happened in between
+ */
+class DecisionCache {
+
+    private final Cache<Key, Entry> cache;
+    private final ConcurrentMap<String, Set<Entry>> principalIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Entry>> resourceIndex = new ConcurrentHashMap<>();
+    private final AtomicLong epoch = new AtomicLong();
+
+    DecisionCache(DecisionCacheOptions options) {
+        cache = Caffeine
+                .newBuilder()
+                .maximumSize(options.maximumSize())
+                .expireAfterWrite(options.timeToLive(), options.timeToLiveUnit())
+                .executor(Runnable::run)
+                .<Key, Entry>removalListener((key, entry, cause) -> {
+                    if (entry != null) {
+                        unindex(entry);
+                    }
+                })
+                .build();
+    }
+
+    long epoch() {
+        return epoch.get();
+    }
+
+    AuthorizationResponse get(AuthorizationRequest request) {
+        final Entry entry = cache.getIfPresent(new Key(request.principal(), request.resource(), request.action()));
+        if (entry == null) {
+            return null;
+        }
+        return ImmutableAuthorizationResponse.copyOf(entry.response).withRequestId(request.id());
+    }
+
+    /**
+     * Cache a decision
+     *
+     * @param request  the request the decision was made for
+     * @param response the decision
+     * @param groups   the groups the principal belonged to (transitively) when the decision was made
+     * @param epoch    the value of {@link #epoch()} observed before the decision was computed
+     */
+    void put(AuthorizationRequest request, AuthorizationResponse response, Collection<String> groups, long epoch) {
+        if (this.epoch.get() != epoch) {
+            return;
+        }
+        final Key key = new Key(request.principal(), request.resource(), request.action());
+        final Set<String> principals = new HashSet<>(groups);
+        principals.add(request.principal());
+        final Entry entry = new Entry(key, response, principals);
+        // index before publishing the entry, so a concurrent invalidation can always find it
+        for (String principal : principals) {
+            index(principalIndex, principal, entry);
+        }
+        index(resourceIndex, key.resource, entry);
+        cache.put(key, entry);
+        if (this.epoch.get() != epoch) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Invalidate decisions made for the given principal, or for any member (direct or transitive) of it if it is a group
+     */
+    void invalidatePrincipal(String principal) {
+        invalidate(principalIndex.get(principal), entry -> true);
+    }
+
+    /**
+     * Invalidate decisions made for the given principal (or members of it) against resources matched by the given pattern
+     */
+    void invalidatePrincipal(String principal, ResourceMatcher matcher) {
+        invalidate(principalIndex.get(principal), entry -> matcher.matches(entry.key.resource));
+    }
+
+    /**
+     * Invalidate decisions made for the given principal (or members of it) on the given resource and actions
+     */
+    void invalidatePrincipal(String principal, String resource, Set<String> actions) {
+        invalidate(
+                principalIndex.get(principal),
+                entry -> entry.key.resource.equals(resource) && actions.contains(entry.key.action)
+        );
+    }
+
+    /**
+     * Invalidate decisions made against any resource matched by the given pattern, regardless of principal
+     */
+    void invalidateResources(ResourceMatcher matcher) {
+        epoch.incrementAndGet();
+        for (Map.Entry<String, Set<Entry>> indexed : resourceIndex.entrySet()) {
+            if (matcher.matches(indexed.getKey())) {
+                removeAll(indexed.getValue(), entry -> true);
+            }
+        }
+    }
+
+    private void invalidate(Set<Entry> entries, Predicate<Entry> predicate) {
+        epoch.incrementAndGet();
+        removeAll(entries, predicate);
+    }
+
+    private void removeAll(Set<Entry> entries, Predicate<Entry> predicate) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : new ArrayList<>(entries)) {
+            if (predicate.test(entry)) {
+                remove(entry);
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        // only remove the exact entry, a newer decision for the same key may have replaced it already
+        cache.asMap().remove(entry.key, entry);
+        unindex(entry);
+    }
+
+    private void unindex(Entry entry) {
+        for (String principal : entry.principals) {
+            unindex(principalIndex, principal, entry);
+        }
+        unindex(resourceIndex, entry.key.resource, entry);
+    }
+
+    private static void index(ConcurrentMap<String, Set<Entry>> index, String tag, Entry entry) {
+        index.compute(tag, (k, entries) -> {
+            final Set<Entry> ret = entries == null ? ConcurrentHashMap.newKeySet() : entries;
+            ret.add(entry);
+            return ret;
+        });
+    }
+
+    private static void unindex(ConcurrentMap<String, Set<Entry>> index, String tag, Entry entry) {
+        index.computeIfPresent(tag, (k, entries) -> {
+            entries.remove(entry);
+            return entries.isEmpty() ? null : entries;
+        });
+    }
+
+    private static final class Key {
+        private final String principal;
+        private final String resource;
+        private final String action;
+        private final int hash;
+
+        private Key(String principal, String resource, String action) {
+            this.principal = principal;
+            this.resource = resource;
+            this.action = action;
+            this.hash = Objects.hash(principal, resource, action);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return principal.equals(other.principal) && resource.equals(other.resource) && action.equals(other.action);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Entries are compared by identity on purpose, see {@link #remove(Entry)}
+     */
+    private static final class Entry {
+        private final Key key;
+        private final AuthorizationResponse response;
+        private final Set<String> principals;
+
+        private Entry(Key key, AuthorizationResponse response, Set<String> principals) {
+            this.key = key;
+            this.response = response;
+            this.principals = principals;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.erfangc.sac.core.service;
+
+import org.immutables.value.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the optional cache of authorization decisions kept by {@link SimpleAccessControlImpl}
+ */
+@Value.Immutable
+public interface DecisionCacheOptions {
+
+    /**
+     * The maximum number of (principal, resource, action) decisions to keep, least valuable entries are evicted first
+     */
+    @Value.Default
+    default long maximumSize() {
+        return 10_000;
+    }
+
+    /**
+     * How long a cached decision may be served after it was computed. Mutations made through the owning {@link SimpleAccessControlImpl}
+     * invalidate affected decisions immediately, this bounds the staleness caused by changes made elsewhere (ex: by another process
+     * sharing the same backend)
+     */
+    @Value.Default
+    default long timeToLive() {
+        return 60;
+    }
+
+    @Value.Default
+    default TimeUnit timeToLiveUnit() {
+        return TimeUnit.SECONDS;
+    }
+}
@@ -3,8 +3,11 @@ package com.erfangc.sac.core.service;
 import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
 import com.erfangc.sac.interfaces.*;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 public class InMemorySimpleAccessControl implements SimpleAccessControl {
 
@@ -54,6 +57,16 @@ public class InMemorySimpleAccessControl implements SimpleAccessControl {
         delegate.unassignPrincipalFromGroup(groupId, principalId);
     }
 
+    @Override
+    public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        delegate.assignPrincipalsToGroups(assignments);
+    }
+
+    @Override
+    public void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        delegate.unassignPrincipalsFromGroups(assignments);
+    }
+
     @Override
     public List<String> getAllPrincipalsForGroup(String groupId) {
         return delegate.getAllPrincipalsForGroup(groupId);
@@ -104,16 +117,46 @@ public class InMemorySimpleAccessControl implements SimpleAccessControl {
         delegate.unAssignPolicy(policyId, principalId);
     }
 
+    @Override
+    public void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        delegate.assignPolicyToPrincipals(policyId, principalIds);
+    }
+
     @Override
     public AuthorizationResponse authorize(AuthorizationRequest request) {
         return delegate.authorize(request);
     }
 
+    @Override
+    public CompletionStage<AuthorizationResponse> authorizeAsync(AuthorizationRequest request) {
+        return delegate.authorizeAsync(request);
+    }
+
+    @Override
+    public List<AuthorizationResponse> authorizeAll(List<AuthorizationRequest> requests) {
+        return delegate.authorizeAll(requests);
+    }
+
+    @Override
+    public PermittedResources listPermittedResources(String principal, String action, String after, int limit) {
+        return delegate.listPermittedResources(principal, action, after, limit);
+    }
+
+    @Override
+    public void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        delegate.forEachPrincipalWithAccess(resource, action, consumer);
+    }
+
     @Override
     public void grantActions(String resource, String principal, Set<String> actions) {
         delegate.grantActions(resource, principal, actions);
     }
 
+    @Override
+    public void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions) {
+        delegate.grantActionsOnResources(resources, principal, actions);
+    }
+
     @Override
     public void revokeActions(String resource, String principal, Set<String> actions) {
         delegate.revokeActions(resource, principal, actions);
@@ -1,56 +1,43 @@
 package com.erfangc.sac.core.service;
 
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
 import com.erfangc.sac.interfaces.*;
 
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 class PolicyDecisionMaker {
 
-    private static String toRegex(String input) {
-        return Stream
-                .of(input.split("/"))
-                .map(token -> {
-                    if (token.equals("*")) {
-                        return ".*";
-                    } else {
-                        return token;
-                    }
-                })
-                .collect(joining("\\/"));
+    AuthorizationResponse makeAccessDecision(AuthorizationRequest request, List<IdentityPolicy> policies) {
+        final List<CompiledIdentityPolicy> compiled = policies
+                .stream()
+                .map(CompiledIdentityPolicy::compile)
+                .collect(toList());
+        return decide(request, compiled);
     }
 
-    AuthorizationResponse makeAccessDecision(AuthorizationRequest request, List<IdentityPolicy> policies) {
-        boolean hasDeny = false;
+    /**
+     * Make an access decision against policies that have already been compiled, this is the path taken by
+     * {@link SimpleAccessControlImpl}, backends are expected to compile policies when they are created or updated
+     */
+    AuthorizationResponse decide(AuthorizationRequest request, List<CompiledIdentityPolicy> policies) {
+        final String resource = request.resource();
+        final String action = request.action();
         boolean hasPermit = false;
-        for (IdentityPolicy identityPolicy : policies) {
-            if (identityPolicy.resource().isPresent()) {
-                final String resource = identityPolicy.resource().get();
-                final String regex = toRegex(resource);
-                if (request.resource().matches(regex)) {
-                    final Optional<List<String>> maybeActions = identityPolicy.actions();
-                    if (maybeActions.isPresent()) {
-                        final List<String> actions = maybeActions.get();
-                        if (actions.contains(request.action()) || actions.contains("*")) {
-                            if (identityPolicy.effectDeny().orElse(false).equals(true)) {
-                                hasDeny = true;
-                            } else {
-                                hasPermit = true;
-                            }
-                        }
-                    }
+        for (CompiledIdentityPolicy policy : policies) {
+            if (policy.appliesTo(resource, action)) {
+                if (policy.isDeny()) {
+                    // any explicit deny overrides all permits, no need to look further
+                    return response(request, AuthorizationStatus.Denied);
                 }
+                hasPermit = true;
             }
         }
-        AuthorizationStatus status;
-        if (hasPermit && !hasDeny) {
-            status = AuthorizationStatus.Permitted;
-        } else {
-            status = AuthorizationStatus.Denied;
-        }
+        return response(request, hasPermit ? AuthorizationStatus.Permitted : AuthorizationStatus.Denied);
+    }
+
+    private static AuthorizationResponse response(AuthorizationRequest request, AuthorizationStatus status) {
         return ImmutableAuthorizationResponse.builder().status(status).requestId(request.id()).build();
     }
 }
@@ -1,21 +1,46 @@
 package com.erfangc.sac.core.service;
 
+import com.erfangc.sac.core.backend.AuthorizationContext;
 import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.core.backend.PrincipalContext;
+import com.erfangc.sac.core.policy.CompiledIdentityPolicy;
+import com.erfangc.sac.core.policy.ResourceMatcher;
+import com.erfangc.sac.core.policy.ResourcePaths;
 import com.erfangc.sac.interfaces.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 public class SimpleAccessControlImpl implements SimpleAccessControl {
 
     private Backend backend;
     private PolicyDecisionMaker policyDecisionMaker;
+    private DecisionCache decisionCache;
 
     public SimpleAccessControlImpl(Backend backend) {
         this.backend = backend;
         policyDecisionMaker = new PolicyDecisionMaker();
     }
 
+    /**
+     * Creates an instance that caches authorization decisions. Mutations made through this instance invalidate
+     * the cached decisions they affect, changes made to the backend by other means are picked up once cached decisions expire
+     *
+     * @param backend              the {@link Backend} to use
+     * @param decisionCacheOptions settings of the decision cache
+     */
+    public SimpleAccessControlImpl(Backend backend, DecisionCacheOptions decisionCacheOptions) {
+        this(backend);
+        decisionCache = new DecisionCache(decisionCacheOptions);
+    }
+
     @Override
     public void createGroup(Group group) {
         backend.createGroup(group);
@@ -34,21 +59,49 @@ public class SimpleAccessControlImpl implements SimpleAccessControl {
     @Override
     public void deleteGroup(String groupId) {
         backend.deleteGroup(groupId);
+        if (decisionCache != null) {
+            decisionCache.invalidatePrincipal(groupId);
+        }
     }
 
     @Override
     public void assignPrincipalToGroup(String groupId, String principalId) {
         backend.assignPrincipalToGroup(groupId, principalId);
+        if (decisionCache != null) {
+            decisionCache.invalidatePrincipal(principalId);
+        }
     }
 
     @Override
     public void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup) {
         backend.assignPrincipalToGroup(groupId, principalId, principalIsGroup);
+        if (decisionCache != null) {
+            decisionCache.invalidatePrincipal(principalId);
+        }
     }
 
     @Override
     public void unassignPrincipalFromGroup(String groupId, String principalId) {
         backend.unassignPrincipalFromGroup(groupId, principalId);
+        if (decisionCache != null) {
+            decisionCache.invalidatePrincipal(principalId);
+        }
+    }
+
+    @Override
+    public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+        backend.assignPrincipalsToGroups(assignments);
+        if (decisionCache != null) {
+            assignments.forEach(assignment -> decisionCache.invalidatePrincipal(assignment.principal()));
+        }
+    }
+
+    @Override
+    public void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments) {
+        backend.unassignPrincipalsFromGroups(assignments);
+        if (decisionCache != null) {
+            assignments.forEach(assignment -> decisionCache.invalidatePrincipal(assignment.principal()));
+        }
     }
 
     @Override
@@ -74,6 +127,10 @@ public class SimpleAccessControlImpl implements SimpleAccessControl {
     @Override
     public void createPolicy(IdentityPolicy identityPolicy) {
         backend.createPolicy(identityPolicy);
+        if (decisionCache != null) {
+            // the policy may have been assigned before it was created
+            invalidateResources(identityPolicy);
+        }
     }
 
     @Override
@@ -83,70 +140,210 @@ public class SimpleAccessControlImpl implements SimpleAccessControl {
 
     @Override
     public void updatePolicy(IdentityPolicy identityPolicy) {
+        final IdentityPolicy existing = decisionCache != null ? backend.getPolicy(identityPolicy.id()) : null;
         backend.updatePolicy(identityPolicy);
+        if (decisionCache != null) {
+            invalidateResources(existing);
+            invalidateResources(identityPolicy);
+        }
     }
 
     @Override
     public void deletePolicy(String policyId) {
+        final IdentityPolicy existing = decisionCache != null ? backend.getPolicy(policyId) : null;
         backend.deletePolicy(policyId);
+        if (decisionCache != null) {
+            invalidateResources(existing);
+        }
     }
 
     @Override
     public void assignPolicy(String policyId, String principalId) {
         backend.assignPolicy(policyId, principalId);
+        if (decisionCache != null) {
+            invalidatePrincipal(principalId, policyId);
+        }
+    }
+
+    @Override
+    public void assignPolicyToPrincipals(String policyId, Collection<String> principalIds) {
+        backend.assignPolicyToPrincipals(policyId, principalIds);
+        if (decisionCache != null) {
+            final IdentityPolicy identityPolicy = backend.getPolicy(policyId);
+            principalIds.forEach(principalId -> invalidatePrincipal(principalId, identityPolicy));
+        }
     }
 
     @Override
     public void unAssignPolicy(String policyId, String principalId) {
         backend.unAssignPolicy(policyId, principalId);
+        if (decisionCache != null) {
+            invalidatePrincipal(principalId, policyId);
+        }
     }
 
     @Override
     public AuthorizationResponse authorize(AuthorizationRequest request) {
-        final String principal = request.principal();
-
-        final ResourcePolicy resourcePolicy = backend.getResourcePolicy(request.resource());
-        // short circuit the process if permission is already granted through the resource policy
-        // attached to the given resource
-        if (resourcePolicy != null) {
-            final List<String> gids = backend.getGroupMembershipTransitively(request.principal());
-            final Boolean resourcePolicyPermitted = resourcePolicy.assignments().map(assignments -> {
-                boolean permitted = false;
-                for (ResourcePolicyAssignment assignment : assignments) {
-                    if ((gids.contains(assignment.principal()) || assignment.principal().equals(principal))
-                            && (assignment.actions().contains(request.action()))) {
-                        permitted = true;
-                    }
+        if (decisionCache == null) {
+            return decide(request, backend.resolveAuthorizationContext(request));
+        }
+        final AuthorizationResponse cached = decisionCache.get(request);
+        if (cached != null) {
+            return cached;
+        }
+        final long epoch = decisionCache.epoch();
+        final AuthorizationContext context = backend.resolveAuthorizationContext(request);
+        final AuthorizationResponse response = decide(request, context);
+        // the groups are captured so that changes to any of them invalidate this decision
+        decisionCache.put(request, response, context.groups(), epoch);
+        return response;
+    }
+
+    @Override
+    public CompletionStage<AuthorizationResponse> authorizeAsync(AuthorizationRequest request) {
+        if (decisionCache == null) {
+            return backend.resolveAuthorizationContextAsync(request).thenApply(context -> decide(request, context));
+        }
+        final AuthorizationResponse cached = decisionCache.get(request);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final long epoch = decisionCache.epoch();
+        return backend.resolveAuthorizationContextAsync(request).thenApply(context -> {
+            final AuthorizationResponse response = decide(request, context);
+            decisionCache.put(request, response, context.groups(), epoch);
+            return response;
+        });
+    }
+
+    @Override
+    public List<AuthorizationResponse> authorizeAll(List<AuthorizationRequest> requests) {
+        final AuthorizationResponse[] responses = new AuthorizationResponse[requests.size()];
+        // only requests that cannot be answered from the cache are sent to the backend
+        final List<AuthorizationRequest> pending = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            final AuthorizationResponse cached = decisionCache == null ? null : decisionCache.get(requests.get(i));
+            if (cached != null) {
+                responses[i] = cached;
+            } else {
+                pending.add(requests.get(i));
+                positions.add(i);
+            }
+        }
+        if (!pending.isEmpty()) {
+            final long epoch = decisionCache == null ? 0 : decisionCache.epoch();
+            final List<AuthorizationContext> contexts = backend.resolveAuthorizationContexts(pending);
+            for (int i = 0; i < pending.size(); i++) {
+                final AuthorizationRequest request = pending.get(i);
+                final AuthorizationContext context = contexts.get(i);
+                final AuthorizationResponse response = decide(request, context);
+                if (decisionCache != null) {
+                    decisionCache.put(request, response, context.groups(), epoch);
                 }
-                return permitted;
-            }).orElse(false);
-            if (resourcePolicyPermitted) {
-                return ImmutableAuthorizationResponse
-                        .builder()
-                        .requestId(request.id())
-                        .status(AuthorizationStatus.Permitted)
-                        .remarks("Permitted based on resource based policy")
-                        .build();
+                responses[positions.get(i)] = response;
             }
         }
+        return Arrays.asList(responses);
+    }
 
+    /**
+     * Resource policies are listed by the backend from its index of grants by principal. Identity policies are gathered from the
+     * policies of the principal, which are loaded anyway to authorize its requests
+     */
+    @Override
+    public PermittedResources listPermittedResources(String principal, String action, String after, int limit) {
+        final PrincipalContext context = backend.resolvePrincipalContext(principal);
+        final List<String> principals = new ArrayList<>(context.groups().size() + 1);
+        principals.add(principal);
+        principals.addAll(context.groups());
+        final List<String> resources = backend.getGrantedResources(principals, action, after, limit);
+        final Set<String> patterns = new LinkedHashSet<>();
+        final Set<String> deniedPatterns = new LinkedHashSet<>();
+        for (CompiledIdentityPolicy policy : backend.fetchIdentityPolicies(context)) {
+            if (policy.matcher() != null && policy.coversAction(action)) {
+                (policy.isDeny() ? deniedPatterns : patterns).add(policy.policy().resource().get());
+            }
+        }
+        final ImmutablePermittedResources.Builder builder = ImmutablePermittedResources
+                .builder()
+                .resources(resources)
+                .patterns(patterns)
+                .deniedPatterns(deniedPatterns);
+        if (resources.size() == limit) {
+            builder.next(resources.get(limit - 1));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer) {
+        backend.forEachPrincipalWithAccess(resource, action, consumer);
+    }
+
+    private AuthorizationResponse decide(AuthorizationRequest request, AuthorizationContext context) {
+        if (context.permittedByResourcePolicy()) {
+            return ImmutableAuthorizationResponse
+                    .builder()
+                    .requestId(request.id())
+                    .status(AuthorizationStatus.Permitted)
+                    .remarks("Permitted based on resource based policy")
+                    .build();
+        }
         // otherwise proceed as normal
-        final List<IdentityPolicy> policies = backend.fetchIdentityPoliciesTransitivelyForPrincipal(principal);
-        return policyDecisionMaker.makeAccessDecision(request, policies);
+        return policyDecisionMaker.decide(request, context.identityPolicies());
     }
 
     @Override
     public void grantActions(String resource, String principal, Set<String> actions) {
         backend.grantActions(resource, principal, actions);
+        invalidateGrants(resource, principal, actions);
+    }
+
+    @Override
+    public void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions) {
+        backend.grantActionsOnResources(resources, principal, actions);
+        resources.forEach(resource -> invalidateGrants(resource, principal, actions));
     }
 
     @Override
     public void revokeActions(String resource, String principal, Set<String> actions) {
         backend.revokeActions(resource, principal, actions);
+        invalidateGrants(resource, principal, actions);
+    }
+
+    private void invalidateGrants(String resource, String principal, Set<String> actions) {
+        if (decisionCache == null) {
+            return;
+        }
+        if (ResourcePaths.isPrefix(resource)) {
+            // the grants of a prefix policy apply to everything below it
+            decisionCache.invalidatePrincipal(principal, ResourceMatcher.compile(resource));
+        } else {
+            decisionCache.invalidatePrincipal(principal, resource, actions);
+        }
     }
 
     @Override
     public ResourcePolicy getResourcePolicy(String resource) {
         return backend.getResourcePolicy(resource);
     }
+
+    private void invalidateResources(IdentityPolicy identityPolicy) {
+        if (identityPolicy != null && identityPolicy.resource().isPresent()) {
+            decisionCache.invalidateResources(ResourceMatcher.compile(identityPolicy.resource().get()));
+        }
+    }
+
+    private void invalidatePrincipal(String principalId, String policyId) {
+        invalidatePrincipal(principalId, backend.getPolicy(policyId));
+    }
+
+    private void invalidatePrincipal(String principalId, IdentityPolicy identityPolicy) {
+        if (identityPolicy == null) {
+            decisionCache.invalidatePrincipal(principalId);
+        } else if (identityPolicy.resource().isPresent()) {
+            decisionCache.invalidatePrincipal(principalId, ResourceMatcher.compile(identityPolicy.resource().get()));
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package com.erfangc.sac.core.backend;
+
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.core.bundle.BundleExporter;
+import com.erfangc.sac.interfaces.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class BackendReplicatorTest {
+
+    private static void organisation(Backend backend) {
+        backend.createGroup(ImmutableGroup.builder().id("employees").name("Employees").build());
+        backend.createGroup(ImmutableGroup.builder().id("sales").name("Sales").build());
+        backend.createGroup(ImmutableGroup.builder().id("temporary").name("Temporary").build());
+        backend.updateGroup(ImmutableGroup.builder().id("sales").name("Sales").description("Sales team").build());
+        backend.deleteGroup("temporary");
+        backend.assignPrincipalToGroup("employees", "sales", true);
+        backend.assignPrincipalToGroup("sales", "jane");
+        backend.assignPrincipalToGroup("sales", "john");
+        backend.unassignPrincipalFromGroup("sales", "john");
+        backend.assignPrincipalsToGroups(asList(
+                ImmutableGroupAssignment.builder().groupId("employees").principal("john").build(),
+                ImmutableGroupAssignment.builder().groupId("employees").principal("joe").build()
+        ));
+        backend.unassignPrincipalsFromGroups(singleton(ImmutableGroupAssignment.builder().groupId("employees").principal("joe").build()));
+        backend.createPolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(asList("sell", "restock")).build());
+        backend.createPolicy(ImmutableIdentityPolicy.builder().id("old").resource("/old/*").actions(singletonList("read")).build());
+        backend.updatePolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(singletonList("sell")).build());
+        backend.deletePolicy("old");
+        backend.assignPolicy("sell", "sales");
+        backend.assignPolicyToPrincipals("sell", asList("john", "joe"));
+        backend.unAssignPolicy("sell", "joe");
+        backend.grantActions("/products/*", "employees", singleton("read"));
+        backend.grantActionsOnResources(asList("/products/toy", "/products/book"), "jane", new HashSet<>(asList("read", "write")));
+        backend.revokeActions("/products/book", "jane", singleton("write"));
+    }
+
+    /**
+     * The entities of each section of a bundle of the backend, regardless of their order
+     */
+    private static Map<String, Set<JsonNode>> content(InMemoryBackend backend) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new BundleExporter(backend).exportBundle(os);
+        final Map<String, Set<JsonNode>> ret = new HashMap<>();
+        new ObjectMapper().readTree(os.toByteArray()).fields().forEachRemaining(field -> {
+            final Set<JsonNode> entities = new HashSet<>();
+            field.getValue().forEach(entities::add);
+            ret.put(field.getKey(), entities);
+        });
+        return ret;
+    }
+
+    @Test
+    public void changesAreDeliveredInSequence() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        final List<BackendChange> changes = new ArrayList<>();
+        backend.addChangeListener(changes::add);
+        organisation(backend);
+
+        assertEquals(24, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i + 1, changes.get(i).sequence());
+        }
+        assertEquals(changes.size(), backend.changeSequence());
+        assertEquals(BackendChange.Type.GROUP_CREATED, changes.get(0).type());
+        assertEquals("employees", changes.get(0).groupId().get());
+        assertEquals(BackendChange.Type.PRINCIPAL_ASSIGNED_TO_GROUP, changes.get(5).type());
+        assertTrue(changes.get(5).principalIsGroup());
+        final BackendChange last = changes.get(changes.size() - 1);
+        assertEquals(BackendChange.Type.ACTIONS_REVOKED, last.type());
+        assertEquals("/products/book", last.resource().get());
+        assertEquals(singleton("write"), last.actions());
+    }
+
+    @Test
+    public void listenersCanReadChangedResourcePoliciesBack() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        final List<ResourcePolicy> policies = new ArrayList<>();
+        backend.addChangeListener(change -> policies.add(backend.getResourcePolicy(change.resource().get())));
+        backend.grantActions("/products/toy", "jane", new HashSet<>(asList("read", "write")));
+        backend.revokeActions("/products/toy", "jane", singleton("write"));
+
+        assertEquals(2, policies.size());
+        assertEquals(singleton("read"), new HashSet<>(policies.get(1).assignments().get().get(0).actions()));
+    }
+
+    @Test
+    public void removedListenersAreNotTold() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        final List<BackendChange> changes = new ArrayList<>();
+        final BackendChangeListener listener = changes::add;
+        backend.addChangeListener(listener);
+        backend.grantActions("/products/toy", "jane", singleton("read"));
+        backend.removeChangeListener(listener);
+        backend.grantActions("/products/toy", "john", singleton("read"));
+        assertEquals(1, changes.size());
+        assertEquals(2, backend.changeSequence());
+    }
+
+    @Test
+    public void replicasFollowTheirSource() throws IOException {
+        final InMemoryBackend source = new InMemoryBackend();
+        final InMemoryBackend replica = new InMemoryBackend();
+        final BackendReplicator replicator = new BackendReplicator(replica);
+        source.addChangeListener(replicator);
+        organisation(source);
+
+        assertEquals(content(source), content(replica));
+        assertEquals(source.changeSequence(), replicator.lastSequence());
+        assertFalse(replicator.isStale());
+        assertEquals(new HashSet<>(asList("sales", "employees")), new HashSet<>(replica.getGroupMembershipTransitively("jane")));
+    }
+
+    @Test
+    public void replicasStartFromACopy() throws IOException {
+        final InMemoryBackend source = new InMemoryBackend();
+        organisation(source);
+        final InMemoryBackend replica = new InMemoryBackend();
+        final BackendReplicator replicator = new BackendReplicator(replica);
+        source.addChangeListener(replicator);
+        replicator.load(source);
+        source.revokeActions("/products/toy", "jane", singleton("read"));
+        source.deleteGroup("sales");
+
+        assertEquals(content(source), content(replica));
+        assertFalse(replicator.isStale());
+    }
+
+    @Test
+    public void changesAlreadyAppliedAreIgnoredAndGapsMarkReplicasStale() {
+        final InMemoryBackend replica = new InMemoryBackend();
+        final BackendReplicator replicator = new BackendReplicator(replica, 1);
+        replicator.onChange(BackendChange.actionsGranted("/products/toy", "jane", singleton("read")).withSequence(1));
+        assertNull(replica.getResourcePolicy("/products/toy"));
+        replicator.onChange(BackendChange.actionsGranted("/products/toy", "jane", singleton("read")).withSequence(2));
+        assertNotNull(replica.getResourcePolicy("/products/toy"));
+        assertFalse(replicator.isStale());
+        replicator.onChange(BackendChange.actionsGranted("/products/book", "jane", singleton("read")).withSequence(4));
+        assertTrue(replicator.isStale());
+        assertEquals(4, replicator.lastSequence());
+    }
+}
@@ -0,0 +1,116 @@
+package com.erfangc.sac.core.backend;
+
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.interfaces.*;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+
+public class ResourcePolicyManagerTest {
+
+    /**
+     * Resource policies of an {@link InMemoryBackend}, listed through the default implementations only
+     */
+    private static class Exported implements ResourcePolicyManager, Exportable {
+
+        private final InMemoryBackend backend;
+
+        private Exported(InMemoryBackend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public void grantActions(String resource, String principal, Set<String> actions) {
+            backend.grantActions(resource, principal, actions);
+        }
+
+        @Override
+        public void revokeActions(String resource, String principal, Set<String> actions) {
+            backend.revokeActions(resource, principal, actions);
+        }
+
+        @Override
+        public ResourcePolicy getResourcePolicy(String resource) {
+            return backend.getResourcePolicy(resource);
+        }
+
+        @Override
+        public void forEachGroup(Consumer<Group> consumer) {
+            backend.forEachGroup(consumer);
+        }
+
+        @Override
+        public void forEachGroupAssignment(Consumer<GroupAssignment> consumer) {
+            backend.forEachGroupAssignment(consumer);
+        }
+
+        @Override
+        public void forEachIdentityPolicy(Consumer<IdentityPolicy> consumer) {
+            backend.forEachIdentityPolicy(consumer);
+        }
+
+        @Override
+        public void forEachPolicyAssignment(Consumer<PolicyAssignment> consumer) {
+            backend.forEachPolicyAssignment(consumer);
+        }
+
+        @Override
+        public void forEachResourcePolicy(Consumer<ResourcePolicy> consumer) {
+            backend.forEachResourcePolicy(consumer);
+        }
+    }
+
+    @Test
+    public void grantedResourcesAreListedFromExportedResourcePolicies() {
+        final Random random = new Random(42);
+        final InMemoryBackend backend = new InMemoryBackend();
+        final Exported exported = new Exported(backend);
+        for (int i = 0; i < 1_000; i++) {
+            exported.grantActions("/documents/" + i, "g" + random.nextInt(10), singleton(random.nextBoolean() ? "read" : "write"));
+        }
+        exported.grantActions("/documents/*", "g0", singleton("read"));
+        exported.revokeActions("/documents/1", "g0", singleton("read"));
+        final Collection<String> principals = asList("jane", "g0", "g1");
+
+        String after = null;
+        for (int page = 0; page < 3; page++) {
+            final List<String> expected = backend.getGrantedResources(principals, "read", after, 25);
+            assertEquals(expected, exported.getGrantedResources(principals, "read", after, 25));
+            after = expected.get(expected.size() - 1);
+        }
+        assertEquals(
+                backend.getGrantedResources(principals, "read", after, 1_000),
+                exported.getGrantedResources(principals, "read", after, 1_000)
+        );
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void grantedResourcesCannotBeListedWithoutAnIndexNorAnExport() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        final ResourcePolicyManager manager = new ResourcePolicyManager() {
+            @Override
+            public void grantActions(String resource, String principal, Set<String> actions) {
+                backend.grantActions(resource, principal, actions);
+            }
+
+            @Override
+            public void revokeActions(String resource, String principal, Set<String> actions) {
+                backend.revokeActions(resource, principal, actions);
+            }
+
+            @Override
+            public ResourcePolicy getResourcePolicy(String resource) {
+                return backend.getResourcePolicy(resource);
+            }
+        };
+        manager.getGrantedResources(singleton("jane"), "read", null, 10);
+    }
+}
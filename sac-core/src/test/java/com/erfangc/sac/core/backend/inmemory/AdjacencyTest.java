@@ -0,0 +1,50 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AdjacencyTest {
+
+    @Test
+    public void rowsSurviveCompaction() {
+        final Random random = new Random(7);
+        final Adjacency adjacency = new Adjacency();
+        final Map<Integer, List<Integer>> expected = new HashMap<>();
+        // enough distinct nodes to fold the overlay into packed rows several times
+        for (int i = 0; i < 100_000; i++) {
+            final int node = random.nextInt(20_000);
+            final int target = random.nextInt(50);
+            final List<Integer> row = expected.computeIfAbsent(node, k -> new ArrayList<>());
+            if (random.nextInt(4) == 0) {
+                assertEquals(row.remove(Integer.valueOf(target)), adjacency.remove(node, target));
+            } else if (!row.contains(target)) {
+                row.add(target);
+                adjacency.add(node, target);
+            }
+        }
+        for (int node = 0; node < 20_001; node++) {
+            final List<Integer> row = expected.getOrDefault(node, Collections.emptyList());
+            final List<Integer> actual = new ArrayList<>();
+            adjacency.forEach(node, actual::add);
+            assertEquals(new HashSet<>(row), new HashSet<>(actual));
+            assertEquals(row.size(), adjacency.targets(node).length);
+            assertEquals(row.isEmpty(), adjacency.isEmpty(node));
+        }
+    }
+
+    @Test
+    public void idsAreInternedDensely() {
+        final IdDictionary ids = new IdDictionary();
+        for (int i = 0; i < 50_000; i++) {
+            assertEquals(i, ids.intern("principal" + i));
+        }
+        assertEquals(50_000, ids.size());
+        assertEquals(123, ids.intern("principal123"));
+        assertEquals(49_999, ids.id("principal49999"));
+        assertEquals("principal777", ids.name(777));
+        assertEquals(-1, ids.id("unknown"));
+    }
+}
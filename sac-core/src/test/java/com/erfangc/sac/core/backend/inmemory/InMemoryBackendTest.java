@@ -0,0 +1,179 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import com.erfangc.sac.interfaces.ImmutableIdentityPolicy;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class InMemoryBackendTest {
+
+    /**
+     * Naive reference implementation: BFS over the direct memberships reported by the backend
+     */
+    private static Set<String> bfs(InMemoryBackend backend, String principalId) {
+        final Set<String> gids = new HashSet<>();
+        final Queue<String> queue = new ArrayDeque<>(backend.getGroupMembership(principalId));
+        while (!queue.isEmpty()) {
+            final String gid = queue.poll();
+            if (gids.add(gid)) {
+                queue.addAll(backend.getGroupMembership(gid));
+            }
+        }
+        return gids;
+    }
+
+    @Test
+    public void groupClosureIsMaintainedAcrossCycles() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        for (String gid : Arrays.asList("g1", "g2", "g3")) {
+            backend.createGroup(ImmutableGroup.builder().id(gid).name(gid).build());
+        }
+        backend.assignPrincipalToGroup("g1", "user");
+        backend.assignPrincipalToGroup("g2", "g1", true);
+        backend.assignPrincipalToGroup("g3", "g2", true);
+        assertEquals(new HashSet<>(Arrays.asList("g1", "g2", "g3")), new HashSet<>(backend.getGroupMembershipTransitively("user")));
+
+        // close the cycle g1 -> g2 -> g3 -> g1
+        backend.assignPrincipalToGroup("g1", "g3", true);
+        assertEquals(new HashSet<>(Arrays.asList("g1", "g2", "g3")), new HashSet<>(backend.getGroupMembershipTransitively("g1")));
+        assertEquals(new HashSet<>(Arrays.asList("g1", "g2", "g3")), new HashSet<>(backend.getGroupMembershipTransitively("user")));
+
+        backend.unassignPrincipalFromGroup("g2", "g1");
+        assertEquals(new HashSet<>(Collections.singletonList("g1")), new HashSet<>(backend.getGroupMembershipTransitively("user")));
+
+        backend.deleteGroup("g1");
+        assertEquals(Collections.emptyList(), backend.getGroupMembershipTransitively("user"));
+    }
+
+    @Test
+    public void groupClosureMatchesTraversalAfterRandomChanges() {
+        final Random random = new Random(42);
+        final InMemoryBackend backend = new InMemoryBackend();
+        final List<String> gids = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            final String gid = "g" + i;
+            gids.add(gid);
+            backend.createGroup(ImmutableGroup.builder().id(gid).name(gid).build());
+        }
+        final List<String> users = Arrays.asList("u0", "u1", "u2", "u3", "u4");
+        for (int i = 0; i < 400; i++) {
+            final String gid = gids.get(random.nextInt(gids.size()));
+            final int op = random.nextInt(10);
+            if (op < 4) {
+                backend.assignPrincipalToGroup(gid, users.get(random.nextInt(users.size())));
+            } else if (op < 7) {
+                backend.assignPrincipalToGroup(gid, gids.get(random.nextInt(gids.size())), true);
+            } else if (op < 9) {
+                final String member = random.nextBoolean()
+                        ? users.get(random.nextInt(users.size()))
+                        : gids.get(random.nextInt(gids.size()));
+                backend.unassignPrincipalFromGroup(gid, member);
+            } else {
+                backend.deleteGroup(gid);
+                backend.createGroup(ImmutableGroup.builder().id(gid).name(gid).build());
+            }
+            for (String principal : users) {
+                assertEquals(bfs(backend, principal), new HashSet<>(backend.getGroupMembershipTransitively(principal)));
+            }
+            for (String principal : gids) {
+                assertEquals(bfs(backend, principal), new HashSet<>(backend.getGroupMembershipTransitively(principal)));
+            }
+        }
+    }
+
+    @Test
+    public void resourcePoliciesAreCheckedAgainstGroupClosures() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        backend.createGroup(ImmutableGroup.builder().id("employees").name("employees").build());
+        backend.createGroup(ImmutableGroup.builder().id("engineering").name("engineering").build());
+        backend.assignPrincipalToGroup("employees", "engineering", true);
+        for (int i = 0; i < 100_000; i++) {
+            backend.assignPrincipalToGroup(i % 2 == 0 ? "engineering" : "employees", "user" + i);
+        }
+        backend.grantActions("/handbook", "employees", singleton("read"));
+        backend.grantActions("/handbook", "user1", singleton("write"));
+
+        assertTrue(backend.isPermittedByResourcePolicy(backend.resolvePrincipalContext("user42"), "/handbook", "read"));
+        assertTrue(backend.isPermittedByResourcePolicy(backend.resolvePrincipalContext("user1"), "/handbook", "write"));
+        assertFalse(backend.isPermittedByResourcePolicy(backend.resolvePrincipalContext("user42"), "/handbook", "write"));
+        assertFalse(backend.isPermittedByResourcePolicy(backend.resolvePrincipalContext("outsider"), "/handbook", "read"));
+
+        backend.unassignPrincipalFromGroup("employees", "engineering");
+        assertFalse(backend.isPermittedByResourcePolicy(backend.resolvePrincipalContext("user42"), "/handbook", "read"));
+        backend.revokeActions("/handbook", "employees", singleton("read"));
+        assertFalse(backend.isPermittedByResourcePolicy(backend.resolvePrincipalContext("user41"), "/handbook", "read"));
+    }
+
+    @Test
+    public void readsAreSafeWhileWritesAreInFlight() throws Exception {
+        final InMemoryBackend backend = new InMemoryBackend();
+        for (int i = 0; i < 8; i++) {
+            backend.createGroup(ImmutableGroup.builder().id("g" + i).name("g" + i).build());
+            backend.createPolicy(
+                    ImmutableIdentityPolicy.builder().id("p" + i).resource("/r" + i + "/*").actions(singletonList("read")).build()
+            );
+            backend.assignPolicy("p" + i, "g" + i);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                final Random random = new Random(w);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        final String gid = "g" + random.nextInt(8);
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                backend.assignPrincipalToGroup(gid, "user");
+                                break;
+                            case 1:
+                                backend.unassignPrincipalFromGroup(gid, "user");
+                                break;
+                            case 2:
+                                backend.assignPrincipalToGroup(gid, "g" + random.nextInt(8), true);
+                                break;
+                            default:
+                                backend.grantActions("/r" + random.nextInt(8) + "/doc", gid, singleton("read"));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < 2; r++) {
+                futures.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        for (String gid : backend.getGroupMembershipTransitively("user")) {
+                            assertNotNull(gid);
+                        }
+                        backend.fetchIdentityPoliciesTransitivelyForPrincipal("user");
+                        backend.fetchCandidateIdentityPolicies(backend.resolvePrincipalContext("user"), "/r1/doc");
+                        backend.getResourcePolicy("/r1/doc");
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < 2; i++) {
+                futures.get(i).get(1, TimeUnit.MINUTES);
+            }
+            done.set(true);
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // once writes settle, the maintained closure must agree with a traversal
+        assertEquals(bfs(backend, "user"), new HashSet<>(backend.getGroupMembershipTransitively("user")));
+    }
+}
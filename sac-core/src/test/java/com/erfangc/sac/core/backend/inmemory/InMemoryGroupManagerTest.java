@@ -0,0 +1,67 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.interfaces.Group;
+import com.erfangc.sac.interfaces.GroupAssignment;
+import com.erfangc.sac.interfaces.ImmutableGroup;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class InMemoryGroupManagerTest {
+
+    @Test
+    public void membershipOfManyPrincipalsIsResolvedThroughGroupClosures() {
+        final InMemoryGroupManager groupManager = new InMemoryGroupManager();
+        for (int i = 0; i < 10; i++) {
+            groupManager.createGroup(ImmutableGroup.builder().id("g" + i).name("g" + i).build());
+            if (i > 0) {
+                groupManager.assignPrincipalToGroup("g" + i, "g" + (i - 1), true);
+            }
+        }
+        for (int i = 0; i < 20_000; i++) {
+            groupManager.assignPrincipalToGroup("g" + (i % 10), "user" + i);
+        }
+        assertEquals(10, groupManager.getGroupMembershipTransitively("user0").size());
+        assertEquals(1, groupManager.getGroupMembershipTransitively("user9").size());
+        assertEquals(2_000, groupManager.getAllPrincipalsForGroup("g3").size());
+
+        // cutting the chain only updates the closures of the groups below the cut
+        groupManager.unassignPrincipalFromGroup("g5", "g4");
+        assertEquals(new HashSet<>(Arrays.asList("g0", "g1", "g2", "g3", "g4")), new HashSet<>(groupManager.getGroupMembershipTransitively("user0")));
+        assertEquals(5, groupManager.getGroupMembershipTransitively("user15").size());
+
+        for (int i = 0; i < 20_000; i += 10) {
+            groupManager.unassignPrincipalFromGroup("g0", "user" + i);
+        }
+        assertEquals(Collections.emptyList(), groupManager.getGroupMembershipTransitively("user0"));
+        assertEquals(Collections.emptyList(), groupManager.getAllPrincipalsForGroup("g0"));
+        assertEquals(Collections.emptyList(), groupManager.getGroupMembershipTransitively("unknown"));
+    }
+
+    @Test
+    public void groupsReportHowMembersWereAssigned() {
+        final InMemoryGroupManager groupManager = new InMemoryGroupManager();
+        groupManager.createGroup(ImmutableGroup.builder().id("parent").name("parent").build());
+        groupManager.createGroup(ImmutableGroup.builder().id("child").name("child").build());
+        groupManager.assignPrincipalToGroup("parent", "child", true);
+        groupManager.assignPrincipalToGroup("parent", "user");
+        groupManager.assignPrincipalToGroup("parent", "user");
+
+        final Group parent = groupManager.getGroup("parent");
+        final Map<String, Boolean> assignments = new HashMap<>();
+        for (GroupAssignment assignment : parent.assignments().get()) {
+            assignments.put(assignment.principal(), assignment.principalIsGroup());
+        }
+        assertEquals(2, assignments.size());
+        assertTrue(assignments.get("child"));
+        assertFalse(assignments.get("user"));
+        assertEquals(1, groupManager.getGroupTree("parent").getChildren().size());
+
+        groupManager.deleteGroup("parent");
+        assertNull(groupManager.getGroup("parent"));
+        assertEquals(Collections.emptyList(), groupManager.getGroupMembership("user"));
+        assertEquals(Collections.emptyList(), groupManager.getGroupMembershipTransitively("child"));
+    }
+}
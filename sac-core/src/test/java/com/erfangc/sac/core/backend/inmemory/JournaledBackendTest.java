@@ -0,0 +1,227 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.core.bundle.BundleExporter;
+import com.erfangc.sac.interfaces.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class JournaledBackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void organisation(JournaledBackend backend) {
+        backend.createGroup(ImmutableGroup.builder().id("employees").name("Employees").build());
+        backend.createGroup(ImmutableGroup.builder().id("sales").name("Sales").build());
+        backend.createGroup(ImmutableGroup.builder().id("temporary").name("Temporary").build());
+        backend.updateGroup(ImmutableGroup.builder().id("sales").name("Sales").description("Sales team").build());
+        backend.deleteGroup("temporary");
+        backend.assignPrincipalToGroup("employees", "sales", true);
+        backend.assignPrincipalToGroup("sales", "jane");
+        backend.assignPrincipalToGroup("sales", "john");
+        backend.unassignPrincipalFromGroup("sales", "john");
+        backend.assignPrincipalsToGroups(asList(
+                ImmutableGroupAssignment.builder().groupId("employees").principal("john").build(),
+                ImmutableGroupAssignment.builder().groupId("employees").principal("joe").build()
+        ));
+        backend.unassignPrincipalsFromGroups(singleton(ImmutableGroupAssignment.builder().groupId("employees").principal("joe").build()));
+        backend.createPolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(asList("sell", "restock")).build());
+        backend.createPolicy(ImmutableIdentityPolicy.builder().id("old").resource("/old/*").actions(singletonList("read")).build());
+        backend.updatePolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(singletonList("sell")).build());
+        backend.deletePolicy("old");
+        backend.assignPolicy("sell", "sales");
+        backend.assignPolicyToPrincipals("sell", asList("john", "joe"));
+        backend.unAssignPolicy("sell", "joe");
+        backend.grantActions("/products/*", "employees", singleton("read"));
+        backend.grantActionsOnResources(asList("/products/toy", "/products/book"), "jane", new HashSet<>(asList("read", "write")));
+        backend.revokeActions("/products/book", "jane", singleton("write"));
+    }
+
+    /**
+     * The entities of each section of a bundle of the backend, regardless of their order
+     */
+    private static Map<String, Set<JsonNode>> content(JournaledBackend backend) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new BundleExporter(backend).exportBundle(os);
+        final Map<String, Set<JsonNode>> ret = new HashMap<>();
+        new ObjectMapper().readTree(os.toByteArray()).fields().forEachRemaining(field -> {
+            final Set<JsonNode> entities = new HashSet<>();
+            field.getValue().forEach(entities::add);
+            ret.put(field.getKey(), entities);
+        });
+        return ret;
+    }
+
+    private List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void changesSurviveRestarts() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final JournaledBackend backend = JournaledBackend.open(directory);
+        organisation(backend);
+        final Map<String, Set<JsonNode>> expected = content(backend);
+        backend.close();
+
+        final JournaledBackend reopened = JournaledBackend.open(directory);
+        assertEquals(expected, content(reopened));
+        assertEquals(new HashSet<>(asList("sales", "employees")), new HashSet<>(reopened.getGroupMembershipTransitively("jane")));
+        assertNull(reopened.getGroup("temporary"));
+        assertEquals(singleton("sell"), reopened.resolvePrincipalContext("john").policyIds());
+        reopened.close();
+    }
+
+    @Test
+    public void journalsAreCompactedIntoSnapshots() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final JournaledBackend backend = JournaledBackend.open(directory, ImmutableJournalOptions.builder().compactionThreshold(4096).build());
+        organisation(backend);
+        for (int i = 0; i < 2000; i++) {
+            backend.grantActions("/documents/" + i, "jane", singleton("read"));
+            backend.revokeActions("/documents/" + (i / 2), "jane", singleton("read"));
+        }
+        final Map<String, Set<JsonNode>> expected = content(backend);
+        backend.close();
+
+        final List<Path> files = files(directory);
+        assertTrue(files.contains(directory.resolve("snapshot")));
+        // segments covered by the snapshot are gone, leaving at most the last full one and the one started after it
+        assertTrue(files.size() <= 3);
+
+        final JournaledBackend reopened = JournaledBackend.open(directory);
+        assertEquals(expected, content(reopened));
+        reopened.compact();
+        reopened.grantActions("/documents/after", "jane", singleton("read"));
+        final Map<String, Set<JsonNode>> compacted = content(reopened);
+        reopened.close();
+
+        final JournaledBackend again = JournaledBackend.open(directory);
+        assertEquals(compacted, content(again));
+        again.close();
+    }
+
+    @Test
+    public void compactionKeepsPoliciesFaultedInWhileItRuns() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final JournaledBackend backend = JournaledBackend.open(directory);
+        for (int i = 0; i < 2000; i++) {
+            backend.grantActions("/documents/" + i, "user" + i, singleton("read"));
+        }
+        backend.compact();
+        backend.close();
+
+        // reads fault the other half of the resource policies of the snapshot in while the reopened backend is compacted, faulting is
+        // never journaled
+        final JournaledBackend reopened = JournaledBackend.open(directory);
+        for (int i = 0; i < 2000; i += 2) {
+            reopened.getResourcePolicy("/documents/" + i);
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> reads = executor.submit(() -> {
+                for (int i = 1; i < 2000; i += 2) {
+                    reopened.getResourcePolicy("/documents/" + i);
+                    LockSupport.parkNanos(10_000);
+                }
+            });
+            reopened.compact();
+            reads.get();
+        } finally {
+            executor.shutdown();
+        }
+        reopened.close();
+
+        final JournaledBackend again = JournaledBackend.open(directory);
+        for (int i = 0; i < 2000; i++) {
+            final ResourcePolicy policy = again.getResourcePolicy("/documents/" + i);
+            assertNotNull("/documents/" + i, policy);
+            assertEquals("user" + i, policy.assignments().get().get(0).principal());
+        }
+        again.close();
+    }
+
+    @Test
+    public void tornRecordsAreIgnored() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final JournaledBackend backend = JournaledBackend.open(directory);
+        organisation(backend);
+        final Map<String, Set<JsonNode>> expected = content(backend);
+        backend.close();
+
+        // a crash in the middle of a write leaves a partial record at the end of the segment
+        final List<Path> segments = files(directory);
+        Files.write(segments.get(segments.size() - 1), new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        final JournaledBackend reopened = JournaledBackend.open(directory);
+        assertEquals(expected, content(reopened));
+        // later changes go to a new segment, rather than after the torn record where they could not be replayed
+        reopened.grantActions("/products/new", "jane", singleton("read"));
+        reopened.close();
+        final JournaledBackend again = JournaledBackend.open(directory);
+        assertNotNull(again.getResourcePolicy("/products/new"));
+        again.close();
+    }
+
+    @Test
+    public void concurrentChangesAreCommittedTogether() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final JournaledBackend backend = JournaledBackend.open(directory);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        backend.grantActions("/documents/" + thread + "/" + i, "user" + thread, singleton("read"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        backend.close();
+
+        final JournaledBackend reopened = JournaledBackend.open(directory);
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 500; i++) {
+                assertNotNull(reopened.getResourcePolicy("/documents/" + t + "/" + i));
+            }
+        }
+        reopened.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedBackendsRefuseChanges() throws IOException {
+        final JournaledBackend backend = JournaledBackend.open(folder.getRoot().toPath());
+        backend.close();
+        backend.createGroup(ImmutableGroup.builder().id("group").name("group").build());
+    }
+}
@@ -0,0 +1,182 @@
+package com.erfangc.sac.core.backend.inmemory;
+
+import com.erfangc.sac.core.backend.PrincipalContext;
+import com.erfangc.sac.core.bundle.BundleExporter;
+import com.erfangc.sac.interfaces.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static InMemoryBackend organisation() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        backend.createGroup(ImmutableGroup.builder().id("employees").name("Employees").build());
+        backend.createGroup(ImmutableGroup.builder().id("sales").name("Sales").description("Sales team").build());
+        backend.createGroup(ImmutableGroup.builder().id("empty").name("Empty").build());
+        backend.assignPrincipalToGroup("employees", "sales", true);
+        backend.assignPrincipalToGroup("sales", "jane");
+        backend.assignPrincipalToGroup("employees", "john");
+        backend.createPolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(asList("sell", "restock")).build());
+        backend.assignPolicy("sell", "sales");
+        backend.assignPolicy("sell", "john");
+        backend.grantActions("/products/*", "employees", singleton("read"));
+        backend.grantActions("/products/toy", "jane", new HashSet<>(asList("read", "write")));
+        backend.grantActions("/products/toy", "john", singleton("write"));
+        backend.revokeActions("/products/toy", "john", singleton("write"));
+        return backend;
+    }
+
+    /**
+     * The entities of each section of a bundle of the backend, regardless of their order
+     */
+    private static Map<String, Set<JsonNode>> content(InMemoryBackend backend) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new BundleExporter(backend).exportBundle(os);
+        final Map<String, Set<JsonNode>> ret = new HashMap<>();
+        new ObjectMapper().readTree(os.toByteArray()).fields().forEachRemaining(field -> {
+            final Set<JsonNode> entities = new HashSet<>();
+            field.getValue().forEach(entities::add);
+            ret.put(field.getKey(), entities);
+        });
+        return ret;
+    }
+
+    private static boolean permitted(InMemoryBackend backend, String principal, String resource, String action) {
+        final PrincipalContext context = backend.resolvePrincipalContext(principal);
+        return backend.isPermittedByResourcePolicy(context, resource, action);
+    }
+
+    @Test
+    public void snapshotsRoundTrip() throws IOException {
+        final InMemoryBackend original = organisation();
+        final Path path = folder.getRoot().toPath().resolve("backend.snapshot");
+        original.writeSnapshot(path);
+
+        final InMemoryBackend restored = InMemoryBackend.readSnapshot(path);
+
+        assertEquals(content(original), content(restored));
+        assertEquals(new HashSet<>(asList("sales", "employees")), new HashSet<>(restored.getGroupMembershipTransitively("jane")));
+        assertEquals("Sales team", restored.getGroup("sales").description().orElse(null));
+        assertEquals(2, restored.getGroup("employees").assignments().map(List::size).orElse(0).intValue());
+        assertEquals(singleton("sell"), restored.resolvePrincipalContext("jane").policyIds());
+        assertEquals(1, restored.fetchCandidateIdentityPolicies(restored.resolvePrincipalContext("jane"), "/products/toy").size());
+        assertTrue(permitted(restored, "jane", "/products/toy", "write"));
+        // granted by the prefix policy, which has to be indexed before /products/other is ever looked up
+        assertTrue(permitted(restored, "john", "/products/other", "read"));
+        assertFalse(permitted(restored, "john", "/products/toy", "write"));
+        // resource policies never decoded are listed as well
+        assertEquals(
+                asList("/products/*", "/products/toy"),
+                restored.getGrantedResources(asList("jane", "sales", "employees"), "read", null, 10)
+        );
+        assertEquals(Collections.emptyList(), restored.getGrantedResources(singleton("john"), "write", null, 10));
+        assertNull(restored.getResourcePolicy("/unknown"));
+        assertFalse(Files.exists(path.resolveSibling("backend.snapshot.tmp")));
+    }
+
+    @Test
+    public void restoredBackendsCanBeChanged() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("backend.snapshot");
+        organisation().writeSnapshot(path);
+        final InMemoryBackend restored = InMemoryBackend.readSnapshot(path);
+
+        // changes to entities that were not decoded yet apply on top of their snapshot
+        restored.grantActions("/products/toy", "john", singleton("write"));
+        assertEquals(2, restored.getResourcePolicy("/products/toy").assignments().map(List::size).orElse(0).intValue());
+        assertTrue(permitted(restored, "jane", "/products/toy", "write"));
+        restored.deleteGroup("empty");
+        assertNull(restored.getGroup("empty"));
+        restored.updateGroup(ImmutableGroup.builder().id("sales").name("Sales").description("Renamed").build());
+        restored.unassignPrincipalFromGroup("employees", "sales");
+        assertEquals(singleton("sales"), new HashSet<>(restored.getGroupMembershipTransitively("jane")));
+
+        // groups and resource policies never decoded are copied from the snapshot being replaced
+        restored.writeSnapshot(path);
+        final InMemoryBackend again = InMemoryBackend.readSnapshot(path);
+        assertEquals(content(restored), content(again));
+        assertEquals("Renamed", again.getGroup("sales").description().orElse(null));
+        assertNull(again.getGroup("empty"));
+        assertTrue(permitted(again, "john", "/products/toy", "write"));
+    }
+
+    @Test
+    public void largeGroupGraphsRoundTrip() throws IOException {
+        final Random random = new Random(42);
+        final InMemoryBackend original = new InMemoryBackend();
+        final List<GroupAssignment> assignments = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            original.createGroup(ImmutableGroup.builder().id("g" + i).name("g" + i).build());
+            assignments.add(ImmutableGroupAssignment.builder().groupId("g" + random.nextInt(200)).principal("g" + i).principalIsGroup(true).build());
+        }
+        for (int i = 0; i < 20_000; i++) {
+            assignments.add(ImmutableGroupAssignment.builder().groupId("g" + random.nextInt(200)).principal("u" + i).build());
+            original.grantActions("/documents/" + i, "g" + random.nextInt(200), singleton("read"));
+        }
+        original.assignPrincipalsToGroups(assignments);
+        final Path path = folder.getRoot().toPath().resolve("backend.snapshot");
+        original.writeSnapshot(path);
+
+        final InMemoryBackend restored = InMemoryBackend.readSnapshot(path);
+
+        for (int i = 0; i < 20_000; i += 97) {
+            assertEquals(
+                    new HashSet<>(original.getGroupMembershipTransitively("u" + i)),
+                    new HashSet<>(restored.getGroupMembershipTransitively("u" + i))
+            );
+            assertEquals(permitted(original, "u" + i, "/documents/" + i, "read"), permitted(restored, "u" + i, "/documents/" + i, "read"));
+        }
+        assertEquals(content(original), content(restored));
+        // new principals are interned after those read from the snapshot
+        restored.assignPrincipalToGroup("g0", "newcomer");
+        assertTrue(restored.getGroupMembershipTransitively("newcomer").contains("g0"));
+    }
+
+    @Test
+    public void policiesFaultedWhileVisitedAreVisitedOnce() throws IOException {
+        final InMemoryBackend original = new InMemoryBackend();
+        for (int i = 0; i < 200; i++) {
+            original.grantActions("/documents/" + i, "user" + i, singleton("read"));
+        }
+        final Path path = folder.getRoot().toPath().resolve("backend.snapshot");
+        original.writeSnapshot(path);
+        final InMemoryBackend restored = InMemoryBackend.readSnapshot(path);
+        for (int i = 0; i < 200; i += 2) {
+            restored.getResourcePolicy("/documents/" + i);
+        }
+
+        // reads fault the cold half in while resource policies are visited
+        final List<String> visited = new ArrayList<>();
+        restored.forEachResourcePolicy(policy -> {
+            visited.add(policy.resource());
+            for (int i = 1; i < 200; i += 2) {
+                restored.getResourcePolicy("/documents/" + i);
+            }
+        });
+
+        assertEquals(200, visited.size());
+        assertEquals(200, new HashSet<>(visited).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        final Path path = folder.newFile("not.snapshot").toPath();
+        Files.write(path, "{\"groups\": []}".getBytes());
+        InMemoryBackend.readSnapshot(path);
+    }
+}
@@ -0,0 +1,142 @@
+package com.erfangc.sac.core.bundle;
+
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.interfaces.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class BundleTest {
+
+    private static InMemoryBackend organisation() {
+        final InMemoryBackend backend = new InMemoryBackend();
+        backend.createGroup(ImmutableGroup.builder().id("employees").name("Employees").build());
+        backend.createGroup(ImmutableGroup.builder().id("sales").name("Sales").description("Sales team").build());
+        backend.assignPrincipalToGroup("employees", "sales", true);
+        backend.assignPrincipalToGroup("sales", "jane");
+        backend.assignPrincipalToGroup("employees", "john");
+        backend.createPolicy(ImmutableIdentityPolicy.builder().id("sell").resource("/products/*").actions(asList("sell", "restock")).build());
+        backend.assignPolicy("sell", "sales");
+        backend.assignPolicy("sell", "john");
+        backend.grantActions("/products/*", "employees", singleton("read"));
+        backend.grantActions("/products/toy", "jane", new HashSet<>(asList("read", "write")));
+        backend.grantActions("/products/toy", "john", singleton("write"));
+        backend.revokeActions("/products/toy", "john", singleton("write"));
+        return backend;
+    }
+
+    private static byte[] export(InMemoryBackend backend) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new BundleExporter(backend).exportBundle(os);
+        return os.toByteArray();
+    }
+
+    /**
+     * The entities of each section of a bundle, regardless of their order
+     */
+    private static Map<String, Set<JsonNode>> sections(byte[] bundle) throws IOException {
+        final Map<String, Set<JsonNode>> ret = new HashMap<>();
+        new ObjectMapper().readTree(bundle).fields().forEachRemaining(field -> {
+            final Set<JsonNode> entities = new HashSet<>();
+            field.getValue().forEach(entities::add);
+            ret.put(field.getKey(), entities);
+        });
+        return ret;
+    }
+
+    @Test
+    public void bundlesRoundTripBetweenBackends() throws IOException {
+        final byte[] bundle = export(organisation());
+        final InMemoryBackend imported = new InMemoryBackend();
+
+        final BundleStatistics statistics = new BundleImporter(imported).importBundle(new ByteArrayInputStream(bundle));
+
+        assertEquals(
+                ImmutableBundleStatistics
+                        .builder()
+                        .groups(2)
+                        .groupAssignments(3)
+                        .identityPolicies(1)
+                        .policyAssignments(2)
+                        .resourcePolicies(2)
+                        .build(),
+                statistics
+        );
+        assertEquals(sections(bundle), sections(export(imported)));
+        assertEquals(new HashSet<>(asList("sales", "employees")), new HashSet<>(imported.getGroupMembershipTransitively("jane")));
+        assertEquals("Sales team", imported.getGroup("sales").description().get());
+        assertTrue(imported.isGrantedToAny("/products/toy", "read", singletonList("employees")));
+        assertFalse(imported.isGrantedToAny("/products/toy", "write", singletonList("john")));
+    }
+
+    @Test
+    public void yamlBundlesAreImported() throws IOException {
+        final String yaml = String.join("\n",
+                "identityPolicies:",
+                "  - id: operate",
+                "    resource: /assembly-lines/*",
+                "    actions: [start, pause]",
+                "groups:",
+                "  - id: manufacturing",
+                "    name: Manufacturing team",
+                "    assignments:",
+                "      - groupId: manufacturing",
+                "        principal: joe",
+                "policyAssignments:",
+                "  - policyId: operate",
+                "    principal: manufacturing",
+                "comments: not a section, skipped",
+                ""
+        );
+        final InMemoryBackend backend = new InMemoryBackend();
+
+        final BundleStatistics statistics = new BundleImporter(backend).importBundle(
+                new YAMLFactory().createParser(yaml.getBytes(StandardCharsets.UTF_8))
+        );
+
+        assertEquals(1, statistics.groups());
+        assertEquals(singletonList("manufacturing"), backend.getGroupMembership("joe"));
+        assertEquals(singletonList("operate"), new ArrayList<>(backend.resolvePrincipalContext("joe").policyIds()));
+    }
+
+    @Test
+    public void entitiesAreWrittenInBatches() throws IOException {
+        final InMemoryBackend source = new InMemoryBackend();
+        for (int i = 0; i < 2_500; i++) {
+            source.assignPrincipalToGroup("group", "user" + i);
+        }
+        final int[] batches = {0};
+        final InMemoryBackend target = new InMemoryBackend() {
+            @Override
+            public void assignPrincipalsToGroups(Collection<GroupAssignment> assignments) {
+                assertTrue(assignments.size() <= 1_000);
+                batches[0]++;
+                super.assignPrincipalsToGroups(assignments);
+            }
+        };
+
+        new BundleImporter(target, 1_000).importBundle(new ByteArrayInputStream(export(source)));
+
+        assertEquals(3, batches[0]);
+        assertEquals(2_500, target.getAllPrincipalsForGroup("group").size());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void truncatedBundlesAreRejected() throws IOException {
+        final byte[] bundle = export(organisation());
+        new BundleImporter(new InMemoryBackend()).importBundle(new ByteArrayInputStream(Arrays.copyOf(bundle, bundle.length / 2)));
+    }
+}
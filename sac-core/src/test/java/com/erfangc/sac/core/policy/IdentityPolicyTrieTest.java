@@ -0,0 +1,117 @@
+package com.erfangc.sac.core.policy;
+
+import com.erfangc.sac.interfaces.ImmutableIdentityPolicy;
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdentityPolicyTrieTest {
+
+    private static final String[] patterns = {
+            "*",
+            "/",
+            "/hr/salaries/john",
+            "/hr/salaries/*",
+            "/hr/*/john",
+            "/hr/*/*",
+            "/org/employees/*/pay",
+            "/org/employees/*",
+            "*/john",
+            "/a//b",
+    };
+
+    private static final String[] resources = {
+            "",
+            "/",
+            "/hr",
+            "/hr/salaries/",
+            "/hr/salaries/john",
+            "/hr/salaries/john/bonus",
+            "/hr/birthdays/john",
+            "/hr//john",
+            "/org/employees/jsmith/pay",
+            "/org/employees/a/b/pay",
+            "/a//b",
+            "/a/b",
+            "john",
+    };
+
+    private static List<CompiledIdentityPolicy> policies() {
+        final List<CompiledIdentityPolicy> policies = new ArrayList<>();
+        for (int i = 0; i < patterns.length; i++) {
+            policies.add(
+                    CompiledIdentityPolicy.compile(
+                            ImmutableIdentityPolicy
+                                    .builder()
+                                    .id("policy" + i)
+                                    .resource(patterns[i])
+                                    .actions(singletonList("*"))
+                                    .build()
+                    )
+            );
+        }
+        return policies;
+    }
+
+    @Test
+    public void collectReturnsExactlyTheMatchingPolicies() {
+        final List<CompiledIdentityPolicy> policies = policies();
+        final IdentityPolicyTrie trie = IdentityPolicyTrie.build(policies);
+        assertEquals(patterns.length, trie.size());
+        for (String resource : resources) {
+            final Set<String> expected = new TreeSet<>();
+            for (CompiledIdentityPolicy policy : policies) {
+                if (policy.matcher().matches(resource)) {
+                    expected.add(policy.id());
+                }
+            }
+            final List<CompiledIdentityPolicy> candidates = new ArrayList<>();
+            trie.collect(resource, candidates);
+            final Set<String> actual = new TreeSet<>();
+            candidates.forEach(c -> actual.add(c.id()));
+            assertEquals("resource '" + resource + "'", expected, actual);
+            assertEquals("no duplicates for '" + resource + "'", actual.size(), candidates.size());
+        }
+    }
+
+    @Test(timeout = 5_000)
+    public void consecutiveWildcardsAreExploredOncePerOffset() {
+        final StringBuilder pattern = new StringBuilder();
+        final StringBuilder resource = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            pattern.append("/*");
+        }
+        for (int i = 0; i < 40; i++) {
+            resource.append("/segment").append(i);
+        }
+        final List<CompiledIdentityPolicy> policies = asList(
+                CompiledIdentityPolicy.compile(ImmutableIdentityPolicy.builder().id("deep").resource(pattern.toString()).actions(singletonList("read")).build()),
+                CompiledIdentityPolicy.compile(ImmutableIdentityPolicy.builder().id("other").resource(pattern + "/other").actions(singletonList("read")).build())
+        );
+        final IdentityPolicyTrie trie = IdentityPolicyTrie.build(policies);
+        final List<CompiledIdentityPolicy> candidates = new ArrayList<>();
+        trie.collect(resource.toString(), candidates);
+        assertEquals(singletonList(policies.get(0)), candidates);
+
+        // policies already collected, ex: from the trie of another principal, are not added twice
+        trie.collect(resource.toString(), candidates);
+        assertEquals(1, candidates.size());
+    }
+
+    @Test
+    public void policiesWithoutResourcesAreNotIndexed() {
+        final CompiledIdentityPolicy policy = CompiledIdentityPolicy.compile(
+                ImmutableIdentityPolicy.builder().id("no resource").actions(singletonList("*")).build()
+        );
+        final IdentityPolicyTrie trie = IdentityPolicyTrie.build(singletonList(policy));
+        final List<CompiledIdentityPolicy> candidates = new ArrayList<>();
+        trie.collect("/anything", candidates);
+        assertTrue(candidates.isEmpty());
+        assertEquals(0, trie.size());
+    }
+}
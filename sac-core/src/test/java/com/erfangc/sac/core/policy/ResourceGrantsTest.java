@@ -0,0 +1,67 @@
+package com.erfangc.sac.core.policy;
+
+import com.erfangc.sac.interfaces.ImmutableResourcePolicy;
+import com.erfangc.sac.interfaces.ImmutableResourcePolicyAssignment;
+import com.erfangc.sac.interfaces.ResourcePolicy;
+import com.erfangc.sac.interfaces.ResourcePolicyAssignment;
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class ResourceGrantsTest {
+
+    private static ResourcePolicy policy(int assignments) {
+        final List<ResourcePolicyAssignment> list = new ArrayList<>();
+        for (int i = 0; i < assignments; i++) {
+            list.add(ImmutableResourcePolicyAssignment.builder().principal("group" + i).actions(singletonList("read")).build());
+        }
+        list.add(ImmutableResourcePolicyAssignment.builder().principal("jack").actions(singletonList("read")).build());
+        list.add(ImmutableResourcePolicyAssignment.builder().principal("jack").actions(singletonList("write")).build());
+        list.add(ImmutableResourcePolicyAssignment.builder().principal("jill").actions(emptyList()).build());
+        return ImmutableResourcePolicy.builder().resource("/books/book1").assignments(list).build();
+    }
+
+    @Test
+    public void assignmentsOfTheSamePrincipalAreMerged() {
+        final ResourceGrants grants = ResourceGrants.of(policy(0));
+        assertEquals(new HashSet<>(asList("read", "write")), grants.actions("jack"));
+        assertTrue(grants.actions("jill").isEmpty());
+        assertEquals(1, grants.size());
+        assertTrue(grants.permits("jack", emptyList(), "write"));
+        assertFalse(grants.permits("jill", emptyList(), "read"));
+    }
+
+    @Test
+    public void groupsAreProbedFromTheSmallerSide() {
+        for (int assignments : new int[]{1, 100}) {
+            final ResourceGrants grants = ResourceGrants.of(policy(assignments));
+            for (int groups : new int[]{1, 10, 1000}) {
+                final List<String> list = new ArrayList<>();
+                for (int i = 0; i < groups; i++) {
+                    list.add("other" + i);
+                }
+                list.add("group" + (assignments - 1));
+                final Set<String> set = new HashSet<>(list);
+                assertTrue(grants.permits("user", list, "read"));
+                assertTrue(grants.permits("user", set, "read"));
+                assertFalse(grants.permits("user", list, "write"));
+                assertFalse(grants.permits("user", set, "write"));
+                list.remove(list.size() - 1);
+                set.remove("group" + (assignments - 1));
+                assertFalse(grants.permits("user", list, "read"));
+                assertFalse(grants.permits("user", set, "read"));
+            }
+        }
+    }
+
+    @Test
+    public void missingPoliciesGrantNothing() {
+        assertFalse(ResourceGrants.of(null).permits("jack", singletonList("group0"), "read"));
+        assertSame(ResourceGrants.empty(), ResourceGrants.of(ImmutableResourcePolicy.builder().resource("/books/book1").build()));
+    }
+}
@@ -0,0 +1,91 @@
+package com.erfangc.sac.core.policy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceMatcherTest {
+
+    private static final String[] patterns = {
+            "*",
+            "/",
+            "",
+            "/hr/salaries/john",
+            "/hr/salaries/*",
+            "/hr/*/john",
+            "/org/employees/*/pay",
+            "/*/*",
+            "*/john",
+            "/a/*/a",
+            "/trailing/",
+    };
+
+    private static final String[] resources = {
+            "",
+            "/",
+            "/hr",
+            "/hr/",
+            "/hr/salaries",
+            "/hr/salaries/",
+            "/hr/salaries/john",
+            "/hr/salaries/john/bonus",
+            "/hr/birthdays/john",
+            "/hr//john",
+            "/org/employees/jsmith/pay",
+            "/org/employees/a/b/pay",
+            "/org/employees/pay",
+            "john",
+            "/a/a",
+            "/a//a",
+            "/a/x/a",
+            "/trailing",
+            "/trailing/",
+    };
+
+    /**
+     * The original implementation translated every pattern into a regular expression, the compiled matcher
+     * must agree with it for patterns that do not contain regular expression meta characters
+     */
+    private static boolean regexMatches(String pattern, String resource) {
+        final String[] tokens = pattern.split("/");
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0) {
+                regex.append("\\/");
+            }
+            regex.append(tokens[i].equals("*") ? ".*" : tokens[i]);
+        }
+        return resource.matches(regex.toString());
+    }
+
+    @Test
+    public void matchesLikeRegex() {
+        for (String pattern : patterns) {
+            final ResourceMatcher matcher = ResourceMatcher.compile(pattern);
+            for (String resource : resources) {
+                assertEquals(
+                        "pattern '" + pattern + "' against '" + resource + "'",
+                        regexMatches(pattern, resource),
+                        matcher.matches(resource)
+                );
+            }
+        }
+    }
+
+    @Test
+    public void literalSegmentsAreNotRegex() {
+        final ResourceMatcher matcher = ResourceMatcher.compile("/docs/report.txt");
+        assertTrue(matcher.matches("/docs/report.txt"));
+        assertFalse(matcher.matches("/docs/reportXtxt"));
+        assertFalse(matcher.hasWildcard());
+    }
+
+    @Test
+    public void wildcardOnlyAsWholeSegment() {
+        final ResourceMatcher matcher = ResourceMatcher.compile("/docs/a*");
+        assertTrue(matcher.matches("/docs/a*"));
+        assertFalse(matcher.matches("/docs/abc"));
+    }
+}
@@ -0,0 +1,36 @@
+package com.erfangc.sac.core.policy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ResourcePrefixTreeTest {
+
+    @Test
+    public void prefixPoliciesAreListedOutermostFirst() {
+        assertEquals(asList("/*", "/a/*", "/a/b/*"), ResourcePaths.prefixPolicies("/a/b/c"));
+        assertEquals(asList("books/*"), ResourcePaths.prefixPolicies("books/1"));
+        assertTrue(ResourcePaths.prefixPolicies("book").isEmpty());
+    }
+
+    @Test
+    public void valuesOfAncestorsAreVisited() {
+        final ResourcePrefixTree<String> tree = new ResourcePrefixTree<>();
+        tree.put("/*", "root");
+        tree.put("/a/b/*", "b");
+        tree.put("/a/x/*", "x");
+
+        final List<String> visited = new ArrayList<>();
+        assertFalse(tree.anyMatch("/a/b/c/d", value -> !visited.add(value)));
+        assertEquals(asList("root", "b"), visited);
+        assertTrue(tree.anyMatch("/a/x/1", "x"::equals));
+        assertFalse(tree.anyMatch("/a/b", "b"::equals));
+
+        tree.put("/a/b/*", null);
+        assertFalse(tree.anyMatch("/a/b/c", "b"::equals));
+    }
+}
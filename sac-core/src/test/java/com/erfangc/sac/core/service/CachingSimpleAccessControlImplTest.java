@@ -0,0 +1,39 @@
+package com.erfangc.sac.core.service;
+
+import com.erfangc.sac.backend.tests.BackendTestBase;
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.interfaces.AuthorizationResponse;
+import com.erfangc.sac.interfaces.ImmutableAuthorizationRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the standard backend tests with the decision cache enabled, every test interleaves mutations with authorization
+ * requests and therefore verifies that the cache is invalidated correctly
+ */
+public class CachingSimpleAccessControlImplTest extends BackendTestBase {
+
+    @Before
+    public void setUp() {
+        sac = new SimpleAccessControlImpl(new InMemoryBackend(), ImmutableDecisionCacheOptions.builder().build());
+        initializePolicyBackendStates();
+    }
+
+    @Test
+    public void cachedDecisionsCarryTheirOwnRequestId() {
+        sac.assignPrincipalToGroup("network admins", "john");
+        final ImmutableAuthorizationRequest request = ImmutableAuthorizationRequest
+                .builder()
+                .id("first")
+                .action("login")
+                .resource("/org/servers/server1")
+                .principal("john")
+                .build();
+        sac.authorize(request);
+        final AuthorizationResponse response = sac.authorize(request.withId("second"));
+        assertEquals("second", response.requestId());
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.erfangc.sac.core.service;
+
+import com.erfangc.sac.backend.tests.BackendTestBase;
+import com.erfangc.sac.core.backend.Backend;
+import com.erfangc.sac.core.backend.Exportable;
+import com.erfangc.sac.core.backend.inmemory.InMemoryBackend;
+import com.erfangc.sac.interfaces.*;
+import org.junit.Before;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Runs the backend tests against the default implementations of {@link Backend}, as third party backends that only implement its
+ * abstract methods get them
+ */
+public class DefaultBackendSimpleAccessControlTest extends BackendTestBase {
+
+    /**
+     * Delegates the abstract methods of {@link Backend} and {@link Exportable} to an {@link InMemoryBackend}, and nothing else
+     */
+    private static class DefaultBackend implements Backend, Exportable {
+
+        private final InMemoryBackend backend = new InMemoryBackend();
+
+        @Override
+        public void createGroup(Group group) {
+            backend.createGroup(group);
+        }
+
+        @Override
+        public Group getGroup(String id) {
+            return backend.getGroup(id);
+        }
+
+        @Override
+        public void updateGroup(Group group) {
+            backend.updateGroup(group);
+        }
+
+        @Override
+        public void deleteGroup(String groupId) {
+            backend.deleteGroup(groupId);
+        }
+
+        @Override
+        public Node getGroupTree(String groupId) {
+            return backend.getGroupTree(groupId);
+        }
+
+        @Override
+        public List<String> getAllPrincipalsForGroup(String groupId) {
+            return backend.getAllPrincipalsForGroup(groupId);
+        }
+
+        @Override
+        public List<String> getGroupMembership(String principalId) {
+            return backend.getGroupMembership(principalId);
+        }
+
+        @Override
+        public List<String> getGroupMembershipTransitively(String principalId) {
+            return backend.getGroupMembershipTransitively(principalId);
+        }
+
+        @Override
+        public void assignPrincipalToGroup(String groupId, String principalId) {
+            backend.assignPrincipalToGroup(groupId, principalId);
+        }
+
+        @Override
+        public void assignPrincipalToGroup(String groupId, String principalId, boolean principalIsGroup) {
+            backend.assignPrincipalToGroup(groupId, principalId, principalIsGroup);
+        }
+
+        @Override
+        public void unassignPrincipalFromGroup(String groupId, String principalId) {
+            backend.unassignPrincipalFromGroup(groupId, principalId);
+        }
+
+        @Override
+        public void createPolicy(IdentityPolicy identityPolicy) {
+            backend.createPolicy(identityPolicy);
+        }
+
+        @Override
+        public IdentityPolicy getPolicy(String policyId) {
+            return backend.getPolicy(policyId);
+        }
+
+        @Override
+        public void updatePolicy(IdentityPolicy identityPolicy) {
+            backend.updatePolicy(identityPolicy);
+        }
+
+        @Override
+        public void deletePolicy(String policyId) {
+            backend.deletePolicy(policyId);
+        }
+
+        @Override
+        public void assignPolicy(String policyId, String principalId) {
+            backend.assignPolicy(policyId, principalId);
+        }
+
+        @Override
+        public void unAssignPolicy(String policyId, String principalId) {
+            backend.unAssignPolicy(policyId, principalId);
+        }
+
+        @Override
+        public void grantActions(String resource, String principal, Set<String> actions) {
+            backend.grantActions(resource, principal, actions);
+        }
+
+        @Override
+        public void revokeActions(String resource, String principal, Set<String> actions) {
+            backend.revokeActions(resource, principal, actions);
+        }
+
+        @Override
+        public ResourcePolicy getResourcePolicy(String resource) {
+            return backend.getResourcePolicy(resource);
+        }
+
+        @Override
+        public List<IdentityPolicy> fetchIdentityPoliciesTransitivelyForPrincipal(String principalId) {
+            return backend.fetchIdentityPoliciesTransitivelyForPrincipal(principalId);
+        }
+
+        @Override
+        public void forEachGroup(Consumer<Group> consumer) {
+            backend.forEachGroup(consumer);
+        }
+
+        @Override
+        public void forEachGroupAssignment(Consumer<GroupAssignment> consumer) {
+            backend.forEachGroupAssignment(consumer);
+        }
+
+        @Override
+        public void forEachIdentityPolicy(Consumer<IdentityPolicy> consumer) {
+            backend.forEachIdentityPolicy(consumer);
+        }
+
+        @Override
+        public void forEachPolicyAssignment(Consumer<PolicyAssignment> consumer) {
+            backend.forEachPolicyAssignment(consumer);
+        }
+
+        @Override
+        public void forEachResourcePolicy(Consumer<ResourcePolicy> consumer) {
+            backend.forEachResourcePolicy(consumer);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        sac = new SimpleAccessControlImpl(new DefaultBackend());
+        initializePolicyBackendStates();
+    }
+
+}
@@ -1,8 +1,12 @@
 package com.erfangc.sac.interfaces;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.immutables.value.Value;
 
 @Value.Immutable
+@JsonSerialize(as = ImmutableGroupAssignment.class)
+@JsonDeserialize(builder = ImmutableGroupAssignment.Builder.class)
 public interface GroupAssignment {
     String groupId();
 
@@ -0,0 +1,40 @@
+package com.erfangc.sac.interfaces;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One page of the resources a principal may perform an action on, see {@link SimpleAccessControl#listPermittedResources}
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutablePermittedResources.class)
+@JsonDeserialize(builder = ImmutablePermittedResources.Builder.class)
+public interface PermittedResources {
+
+    /**
+     * @return the resources whose resource policy grants the action to the principal or to one of its groups, in lexicographic order.
+     * A prefix policy (ex: <code>/org/documents/*</code>) stands for every resource below it
+     */
+    List<String> resources();
+
+    /**
+     * @return the resource patterns of the identity policies permitting the action to the principal, the same on every page. Resources
+     * matching them are permitted too, unless they also match one of {@link #deniedPatterns()}
+     */
+    List<String> patterns();
+
+    /**
+     * @return the resource patterns of the identity policies denying the action to the principal. These only override
+     * {@link #patterns()}, resources granted by their resource policy remain permitted
+     */
+    List<String> deniedPatterns();
+
+    /**
+     * @return what to pass as <code>after</code> to get the next page, absent on the last page
+     */
+    Optional<String> next();
+}
@@ -0,0 +1,17 @@
+package com.erfangc.sac.interfaces;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The assignment of an {@link IdentityPolicy} to a principal or a group
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutablePolicyAssignment.class)
+@JsonDeserialize(builder = ImmutablePolicyAssignment.Builder.class)
+public interface PolicyAssignment {
+    String policyId();
+
+    String principal();
+}
@@ -1,7 +1,10 @@
 package com.erfangc.sac.interfaces;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 /**
  * The main interface for performing access control functions
@@ -63,6 +66,21 @@ public interface SimpleAccessControl {
      */
     void unassignPrincipalFromGroup(String groupId, String principalId);
 
+    /**
+     * Bulk version of {@link #assignPrincipalToGroup(String, String, boolean)}, for applying many membership changes at once
+     * (ex: when synchronizing with a directory). Backends apply the whole batch in a single write, rather than one per assignment
+     *
+     * @param assignments the principals to assign and the groups to assign them to
+     */
+    void assignPrincipalsToGroups(Collection<GroupAssignment> assignments);
+
+    /**
+     * Bulk version of {@link #unassignPrincipalFromGroup(String, String)}, {@link GroupAssignment#principalIsGroup()} is ignored
+     *
+     * @param assignments the principals to unassign and the groups to unassign them from
+     */
+    void unassignPrincipalsFromGroups(Collection<GroupAssignment> assignments);
+
     /**
      * Get all the principals from a given group
      *
@@ -130,6 +148,14 @@ public interface SimpleAccessControl {
 
     void unAssignPolicy(String policyId, String principalId);
 
+    /**
+     * Bulk version of {@link #assignPolicy(String, String)}, assigning one policy to many principals in a single write
+     *
+     * @param policyId     the policy to assign
+     * @param principalIds the principals (or groups) to assign it to
+     */
+    void assignPolicyToPrincipals(String policyId, Collection<String> principalIds);
+
     /**
      * The primary method that handles authorization tasks by accepting a {@link AuthorizationRequest} and producing a {@link AuthorizationResponse}
      *
@@ -138,6 +164,48 @@ public interface SimpleAccessControl {
      */
     AuthorizationResponse authorize(AuthorizationRequest request);
 
+    /**
+     * Non-blocking version of {@link #authorize(AuthorizationRequest)}, for callers that must not block the thread they run on
+     * (ex: an event loop). Whether I/O is actually performed asynchronously depends on the backend
+     *
+     * @param request the {@link AuthorizationRequest} object
+     * @return a {@link CompletionStage} completed with the {@link AuthorizationResponse}
+     */
+    CompletionStage<AuthorizationResponse> authorizeAsync(AuthorizationRequest request);
+
+    /**
+     * Authorize a batch of requests at once, ex: to filter a page of search results. Group membership and policies are resolved
+     * once per distinct principal in the batch rather than once per request
+     *
+     * @param requests the {@link AuthorizationRequest}s to authorize
+     * @return a {@link AuthorizationResponse} for each request, in the order of the requests
+     */
+    List<AuthorizationResponse> authorizeAll(List<AuthorizationRequest> requests);
+
+    /**
+     * List the resources the principal can perform the action on, directly or through its groups, one page at a time. Resources granted
+     * by resource policies are enumerated from an index kept by the backend, while identity policies are returned as the resource
+     * patterns they permit or deny as these usually match resources the backend knows nothing about
+     *
+     * @param principal the principal
+     * @param action    the action
+     * @param after     the {@link PermittedResources#next()} of the previous page, null for the first page
+     * @param limit     the maximum number of resources of the page
+     * @return a page of {@link PermittedResources}
+     */
+    PermittedResources listPermittedResources(String principal, String action, String after, int limit);
+
+    /**
+     * Visit the principals that can perform the action on the resource, ex: for an access review. Both the resource policies and the
+     * identity policies that apply to the resource are taken into account, and groups are expanded into their members transitively
+     * rather than visited themselves. Principals are streamed as the backend finds them, each of them once
+     *
+     * @param resource the resource
+     * @param action   the action
+     * @param consumer receives each principal
+     */
+    void forEachPrincipalWithAccess(String resource, String action, Consumer<String> consumer);
+
     /**
      * Grants the specified principal the set of specified actions against the given resource
      *
@@ -147,6 +215,15 @@ public interface SimpleAccessControl {
      */
     void grantActions(String resource, String principal, Set<String> actions);
 
+    /**
+     * Bulk version of {@link #grantActions(String, String, Set)}, granting the same actions on many resources in a single write
+     *
+     * @param resources the resources to grant access to
+     * @param principal the principal who should be granted access
+     * @param actions   the actions that the principal should be granted access to perform against each of the resources
+     */
+    void grantActionsOnResources(Collection<String> resources, String principal, Set<String> actions);
+
     /**
      * Revokes the specified principal from performing the set of specified actions against the given resource
      *